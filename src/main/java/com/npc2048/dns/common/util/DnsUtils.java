@@ -1,39 +1,96 @@
 package com.npc2048.dns.common.util;
 
 import com.npc2048.dns.config.Constants;
-import lombok.extern.slf4j.Slf4j;
-import org.xbill.DNS.Message;
-import org.xbill.DNS.Record;
-import org.xbill.DNS.Section;
-
-import java.util.List;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 
 /**
  * @author yuelong.liang
  */
-@Slf4j
 public class DnsUtils {
 
     private DnsUtils() {
     }
 
     /**
-     * Extract TTL value
+     * 计算报文中首个问题段的结束位置
+     *
+     * @param message DNS 报文
+     * @return 问题段结束偏移；没有问题段时返回报文头长度，报文不合法时返回 -1
      */
-    public static int extractTtl(byte[] responseData) {
-        try {
-            Message response = new Message(responseData);
-            List<Record> answers = response.getSection(Section.ANSWER);
-
-            if (answers != null && !answers.isEmpty()) {
-                return (int) answers.getFirst().getTTL();
+    public static int questionEnd(byte[] message) {
+        if (message == null || message.length < Constants.DNS_HEADER_LENGTH) {
+            return -1;
+        }
+        int qdCount = ((message[4] & 0xFF) << 8) | (message[5] & 0xFF);
+        int offset = Constants.DNS_HEADER_LENGTH;
+        if (qdCount == 0) {
+            return offset;
+        }
+        while (offset < message.length) {
+            int length = message[offset] & 0xFF;
+            if (length == 0) {
+                // 根标签之后是 QTYPE 与 QCLASS
+                offset += 5;
+                return offset <= message.length ? offset : -1;
+            }
+            if ((length & 0xC0) != 0) {
+                // 查询报文的问题段不应出现压缩指针
+                return -1;
             }
-            // Default 5 minutes
-            return Constants.CACHE_DEFAULT_TTL;
-        } catch (Exception e) {
-            log.warn("Failed to extract TTL, using default value", e);
-            return Constants.CACHE_DEFAULT_TTL;
+            offset += length + 1;
         }
+        return -1;
     }
 
+    /**
+     * 拷贝报文中首个问题名称的线格式字节（保留原始大小写）
+     *
+     * @param buf DNS 报文（从 readerIndex 开始）
+     * @return 问题名称（含根标签）；没有问题段、出现压缩指针或报文不完整时返回 null
+     */
+    public static byte[] questionName(ByteBuf buf) {
+        int length = questionNameLength(buf);
+        return length > 0 ? ByteBufUtil.getBytes(buf, buf.readerIndex() + Constants.DNS_HEADER_LENGTH, length) : null;
+    }
+
+    /**
+     * 把请求方的问题名称写回应答的问题段
+     * <p>
+     * 缓存命中和合并的查询共享第一个请求方的应答，问题名称的大小写与当前请求不同，
+     * 使用 0x20 大小写随机化的客户端会因此丢弃应答。名称仅大小写不同，线格式长度一致，原位覆盖即可
+     *
+     * @param name     请求方的问题名称，为 null 时不处理
+     * @param response 应答报文（从 readerIndex 开始）
+     */
+    public static void restoreQuestionName(byte[] name, ByteBuf response) {
+        if (name != null && questionNameLength(response) == name.length) {
+            response.setBytes(response.readerIndex() + Constants.DNS_HEADER_LENGTH, name);
+        }
+    }
+
+    /**
+     * 首个问题名称的线格式长度（含根标签）
+     *
+     * @return 名称长度；没有问题段、出现压缩指针或报文不完整时返回 -1
+     */
+    public static int questionNameLength(ByteBuf buf) {
+        int base = buf.readerIndex();
+        int length = buf.readableBytes();
+        if (length < Constants.DNS_HEADER_LENGTH || buf.getUnsignedShort(base + 4) == 0) {
+            return -1;
+        }
+        int offset = Constants.DNS_HEADER_LENGTH;
+        while (offset < length) {
+            int labelLength = buf.getUnsignedByte(base + offset);
+            if (labelLength == 0) {
+                return offset + 1 - Constants.DNS_HEADER_LENGTH;
+            }
+            if ((labelLength & 0xC0) != 0) {
+                return -1;
+            }
+            offset += labelLength + 1;
+        }
+        return -1;
+    }
 }
@@ -0,0 +1,142 @@
+package com.npc2048.dns.common.util;
+
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.model.DnsWireQuery;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 轻量 DNS 查询解码器
+ * <p>
+ * 直接在 Netty {@link ByteBuf} 上读取报文头和唯一的问题段，不拷贝报文、不构造 dnsjava 对象。
+ * 不符合常规查询格式的报文（响应报文、非标准 opcode、多个问题、问题段含压缩指针、截断等）
+ * 返回 null，由调用方回退到 dnsjava 完整解析
+ *
+ * @author yuelong.liang
+ */
+public final class DnsWireDecoder {
+
+    /**
+     * QR 标志位
+     */
+    private static final int FLAG_QR = 0x8000;
+
+    /**
+     * OPCODE 掩码
+     */
+    private static final int OPCODE_MASK = 0x7800;
+
+    /**
+     * OPT 伪记录类型
+     */
+    private static final int TYPE_OPT = 41;
+
+    /**
+     * EDNS 扩展标志中的 DO 位
+     */
+    private static final int EDNS_FLAG_DO = 0x8000;
+
+    /**
+     * 单个标签最大长度
+     */
+    private static final int MAX_LABEL_LENGTH = 63;
+
+    /**
+     * 名称线格式最大长度
+     */
+    private static final int MAX_NAME_LENGTH = 255;
+
+    private DnsWireDecoder() {
+    }
+
+    /**
+     * 解码查询报文的头部与问题段
+     *
+     * @param buf 请求报文，读取不改变其索引
+     * @return 解码结果，无法快速解码时返回 null
+     */
+    public static DnsWireQuery decodeQuery(ByteBuf buf) {
+        int base = buf.readerIndex();
+        int length = buf.readableBytes();
+        if (length < Constants.DNS_HEADER_LENGTH) {
+            return null;
+        }
+
+        int flags = buf.getUnsignedShort(base + 2);
+        int qdCount = buf.getUnsignedShort(base + 4);
+        if ((flags & (FLAG_QR | OPCODE_MASK)) != 0 || qdCount != 1) {
+            return null;
+        }
+
+        int offset = Constants.DNS_HEADER_LENGTH;
+        while (true) {
+            if (offset >= length) {
+                return null;
+            }
+            int labelLength = buf.getUnsignedByte(base + offset);
+            offset++;
+            if (labelLength == 0) {
+                break;
+            }
+            if (labelLength > MAX_LABEL_LENGTH) {
+                // 压缩指针或扩展标签类型
+                return null;
+            }
+            offset += labelLength;
+        }
+        int nameLength = offset - Constants.DNS_HEADER_LENGTH;
+        if (nameLength > MAX_NAME_LENGTH || offset + 4 > length) {
+            return null;
+        }
+
+        int anCount = buf.getUnsignedShort(base + 6);
+        int nsCount = buf.getUnsignedShort(base + 8);
+        int arCount = buf.getUnsignedShort(base + 10);
+        int questionEnd = offset + 4;
+        return new DnsWireQuery(
+                buf.getUnsignedShort(base),
+                flags,
+                qdCount,
+                anCount,
+                nsCount,
+                arCount,
+                Constants.DNS_HEADER_LENGTH,
+                nameLength,
+                buf.getUnsignedShort(base + offset),
+                buf.getUnsignedShort(base + offset + 2),
+                questionEnd,
+                anCount == 0 && nsCount == 0 && arCount > 0 && readDnssecOk(buf, questionEnd, arCount)
+        );
+    }
+
+    /**
+     * 在附加段中查找 OPT 记录并读取 DO 位
+     */
+    private static boolean readDnssecOk(ByteBuf buf, int offset, int arCount) {
+        int base = buf.readerIndex();
+        int length = buf.readableBytes();
+        for (int i = 0; i < arCount; i++) {
+            // 跳过名称（OPT 的名称为根，其他记录可能使用压缩指针）
+            while (offset < length) {
+                int labelLength = buf.getUnsignedByte(base + offset);
+                if (labelLength == 0) {
+                    offset++;
+                    break;
+                }
+                if ((labelLength & 0xC0) == 0xC0) {
+                    offset += 2;
+                    break;
+                }
+                offset += labelLength + 1;
+            }
+            if (offset + 10 > length) {
+                return false;
+            }
+            int type = buf.getUnsignedShort(base + offset);
+            if (type == TYPE_OPT) {
+                return (buf.getUnsignedShort(base + offset + 6) & EDNS_FLAG_DO) != 0;
+            }
+            offset += 10 + buf.getUnsignedShort(base + offset + 8);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,159 @@
+package com.npc2048.dns.common.util;
+
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.model.DnsWireResponse;
+
+import java.util.Arrays;
+
+/**
+ * 上游响应报文扫描器
+ * <p>
+ * 顺序遍历一次报文，跳过名称时不跟随也不展开压缩指针，不构造 dnsjava 对象，
+ * 同时得到缓存与日志所需的最小 TTL、SOA MINIMUM、响应码、TC 标志和 TTL 字段偏移
+ *
+ * @author yuelong.liang
+ */
+public final class DnsWireScanner {
+
+    /**
+     * TC 标志位
+     */
+    private static final int FLAG_TC = 0x0200;
+
+    /**
+     * RCODE 掩码
+     */
+    private static final int RCODE_MASK = 0x000F;
+
+    /**
+     * 资源记录 TYPE、CLASS、TTL、RDLENGTH 的总长度
+     */
+    private static final int RR_FIXED_LENGTH = 10;
+
+    /**
+     * SOA 记录类型
+     */
+    private static final int TYPE_SOA = 6;
+
+    /**
+     * OPT 伪记录类型
+     */
+    private static final int TYPE_OPT = 41;
+
+    /**
+     * A 记录类型
+     */
+    private static final int TYPE_A = 1;
+
+    /**
+     * AAAA 记录类型
+     */
+    private static final int TYPE_AAAA = 28;
+
+    private DnsWireScanner() {
+    }
+
+    /**
+     * 扫描响应报文
+     *
+     * @param message 响应报文
+     * @return 扫描结果，报文不合法时返回 null
+     */
+    public static DnsWireResponse scan(byte[] message) {
+        if (message == null || message.length < Constants.DNS_HEADER_LENGTH) {
+            return null;
+        }
+        int flags = readUnsignedShort(message, 2);
+        int qdCount = readUnsignedShort(message, 4);
+        int anCount = readUnsignedShort(message, 6);
+        int nsCount = readUnsignedShort(message, 8);
+        int arCount = readUnsignedShort(message, 10);
+
+        int offset = Constants.DNS_HEADER_LENGTH;
+        for (int i = 0; i < qdCount; i++) {
+            offset = skipName(message, offset);
+            if (offset < 0) {
+                return null;
+            }
+            offset += 4;
+        }
+
+        int rrCount = anCount + nsCount + arCount;
+        int[] ttlOffsets = new int[rrCount];
+        int ttlCount = 0;
+        long minTtl = -1;
+        long soaTtl = -1;
+        long soaMinimum = -1;
+        int addressOffset = -1;
+        int addressLength = 0;
+        for (int i = 0; i < rrCount; i++) {
+            offset = skipName(message, offset);
+            if (offset < 0 || offset + RR_FIXED_LENGTH > message.length) {
+                return null;
+            }
+            int type = readUnsignedShort(message, offset);
+            int rdLength = readUnsignedShort(message, offset + 8);
+            int rdata = offset + RR_FIXED_LENGTH;
+            if (rdata + rdLength > message.length) {
+                return null;
+            }
+            if (type != TYPE_OPT) {
+                long ttl = readUnsignedInt(message, offset + 4);
+                ttlOffsets[ttlCount++] = offset + 4;
+                minTtl = minTtl < 0 ? ttl : Math.min(minTtl, ttl);
+                if (i < anCount && addressOffset < 0 && (type == TYPE_A || type == TYPE_AAAA)) {
+                    addressOffset = rdata;
+                    addressLength = rdLength;
+                } else if (i >= anCount && i < anCount + nsCount && type == TYPE_SOA && rdLength >= 20) {
+                    // MINIMUM 是 SOA RDATA 的最后 4 个字节，无需解析前面的两个名称
+                    soaTtl = ttl;
+                    soaMinimum = readUnsignedInt(message, rdata + rdLength - 4);
+                }
+            }
+            offset = rdata + rdLength;
+        }
+
+        return new DnsWireResponse(
+                flags & RCODE_MASK,
+                (flags & FLAG_TC) != 0,
+                anCount,
+                minTtl,
+                soaTtl,
+                soaMinimum,
+                ttlCount == ttlOffsets.length ? ttlOffsets : Arrays.copyOf(ttlOffsets, ttlCount),
+                addressOffset,
+                addressLength
+        );
+    }
+
+    /**
+     * 跳过一个可能以压缩指针结尾的名称
+     *
+     * @return 名称之后的偏移，报文不合法时返回 -1
+     */
+    private static int skipName(byte[] message, int offset) {
+        while (offset < message.length) {
+            int length = message[offset] & 0xFF;
+            if (length == 0) {
+                return offset + 1;
+            }
+            if ((length & 0xC0) == 0xC0) {
+                // 压缩指针固定两个字节且总是名称的结尾
+                return offset + 2 <= message.length ? offset + 2 : -1;
+            }
+            if ((length & 0xC0) != 0) {
+                return -1;
+            }
+            offset += length + 1;
+        }
+        return -1;
+    }
+
+    private static int readUnsignedShort(byte[] message, int offset) {
+        return ((message[offset] & 0xFF) << 8) | (message[offset + 1] & 0xFF);
+    }
+
+    private static long readUnsignedInt(byte[] message, int offset) {
+        return ((long) readUnsignedShort(message, offset) << 16) | readUnsignedShort(message, offset + 2);
+    }
+}
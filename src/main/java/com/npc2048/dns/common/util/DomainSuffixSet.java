@@ -0,0 +1,440 @@
+package com.npc2048.dns.common.util;
+
+import java.util.Arrays;
+
+/**
+ * 紧凑的域名后缀集合
+ * <p>
+ * 面向百万级拦截名单：域名按反转的标签顺序（com → example → www）组成 Trie，集合中的域名匹配自身及其所有子域名。
+ * 节点按层序连续编号，同一节点的子节点编号连续且按标签字节序排列，每个节点只需标签偏移与首个子节点两个 int，
+ * 标签内容集中在一个字节数组中，查找子节点为区间内二分查找；已被上级域名覆盖的域名在构建时剪除，
+ * 因此终止节点都是叶子。
+ * <p>
+ * 查询先按后缀逐级计算哈希检查 Bloom 过滤器（每个域名约 10~20 位，7 个哈希，误判率约 1%，按缓存行分块，
+ * 每个后缀只访问一个 64 字节块），所有后缀都不在过滤器中时不再访问 Trie。查询直接读取小写线格式名称，不分配对象
+ *
+ * @author yuelong.liang
+ */
+public final class DomainSuffixSet {
+
+    private static final int ROOT = 0;
+
+    private static final int MAX_LABEL_LENGTH = 63;
+
+    private static final int MAX_NAME_LENGTH = 255;
+
+    private static final int BLOOM_BITS_PER_DOMAIN = 10;
+
+    private static final int BLOOM_HASHES = 7;
+
+    /**
+     * Bloom 过滤器按 64 字节（一个缓存行）分块，一个键的所有位落在同一块内
+     */
+    private static final int BLOOM_BLOCK_LONGS = 8;
+
+    private static final int BLOOM_BLOCK_BITS = BLOOM_BLOCK_LONGS * Long.SIZE;
+
+    private static final long HASH_SEED = 0xCBF29CE484222325L;
+
+    /**
+     * Bloom 预检命中（或哈希恰好等于该值）时的返回值，此时需要查 Trie
+     */
+    private static final long MAYBE = 0;
+
+    private static final int NOT_FOUND = -1;
+
+    private static final int MATCHED = -2;
+
+    private static final DomainSuffixSet EMPTY = new Builder().build();
+
+    /**
+     * 节点 -> 标签在 {@link #labels} 中的偏移（长度字节 + 标签内容）
+     */
+    private final int[] labelOffsets;
+
+    private final byte[] labels;
+
+    /**
+     * 节点 -> 首个子节点，子节点为 [firstChildren[n], firstChildren[n + 1])，长度为节点数 + 1
+     */
+    private final int[] firstChildren;
+
+    /**
+     * 终止节点位图
+     */
+    private final long[] terminals;
+
+    private final long[] bloom;
+
+    /**
+     * 域名数（去重并剪除被上级覆盖的域名后）
+     */
+    private final int size;
+
+    private DomainSuffixSet(int[] labelOffsets, byte[] labels, int[] firstChildren, long[] terminals, long[] bloom,
+                            int size) {
+        this.labelOffsets = labelOffsets;
+        this.labels = labels;
+        this.firstChildren = firstChildren;
+        this.terminals = terminals;
+        this.bloom = bloom;
+        this.size = size;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static DomainSuffixSet empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 名称本身或其任一上级域名是否在集合中
+     *
+     * @param name 小写线格式名称（含根标签），如 {@link com.npc2048.dns.model.DnsCacheKey#getName()}
+     */
+    public boolean matches(byte[] name) {
+        if (size == 0 || name == null || name.length == 0) {
+            return false;
+        }
+        return probe(name, 0) == MAYBE && descend(name, 0) == MATCHED;
+    }
+
+    /**
+     * 域名文本本身或其任一上级域名是否在集合中
+     *
+     * @param domain 域名，如 "www.example.com"；不合法的域名返回 false
+     */
+    public boolean matches(String domain) {
+        byte[] key = Builder.reversedKey(domain, 1);
+        if (key == null) {
+            return false;
+        }
+        // 反转回线格式
+        byte[] wire = new byte[key.length + 1];
+        int end = wire.length - 1;
+        for (int offset = 0; offset < key.length; ) {
+            int length = 1 + (key[offset] & 0xFF);
+            end -= length;
+            System.arraycopy(key, offset, wire, end, length);
+            offset += length;
+        }
+        return matches(wire);
+    }
+
+    /**
+     * 域名数（重复或被上级域名覆盖的不计）
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Trie 节点数（含根节点）
+     */
+    public int nodeCount() {
+        return labelOffsets.length;
+    }
+
+    /**
+     * Bloom 过滤器字节数
+     */
+    public long bloomBytes() {
+        return (long) bloom.length * Long.BYTES;
+    }
+
+    /**
+     * 各数组占用的堆内存估算（字节，含数组头）
+     */
+    public long memoryBytes() {
+        return arrayBytes(labelOffsets.length, Integer.BYTES) + arrayBytes(labels.length, 1)
+                + arrayBytes(firstChildren.length, Integer.BYTES) + arrayBytes(terminals.length, Long.BYTES)
+                + arrayBytes(bloom.length, Long.BYTES);
+    }
+
+    private static long arrayBytes(int length, int elementBytes) {
+        return 16 + (long) length * elementBytes;
+    }
+
+    /**
+     * 从右向左计算 offset 起各后缀的哈希并检查 Bloom 过滤器
+     *
+     * @return 任一后缀可能在集合中时为 {@link #MAYBE}，否则为 offset 起后缀的哈希
+     */
+    private long probe(byte[] name, int offset) {
+        int length = name[offset] & 0xFF;
+        if (length == 0 || length > MAX_LABEL_LENGTH || offset + 1 + length >= name.length) {
+            return HASH_SEED;
+        }
+        long parent = probe(name, offset + 1 + length);
+        if (parent == MAYBE) {
+            return MAYBE;
+        }
+        long hash = hash(parent, name, offset, 1 + length);
+        return hash == MAYBE || mightContain(hash) ? MAYBE : hash;
+    }
+
+    /**
+     * 从右向左沿 Trie 匹配 offset 起的后缀
+     *
+     * @return 经过终止节点时为 {@link #MATCHED}，中途断开时为 {@link #NOT_FOUND}，否则为对应节点
+     */
+    private int descend(byte[] name, int offset) {
+        int length = name[offset] & 0xFF;
+        if (length == 0 || length > MAX_LABEL_LENGTH || offset + 1 + length >= name.length) {
+            return ROOT;
+        }
+        int node = descend(name, offset + 1 + length);
+        if (node < 0) {
+            return node;
+        }
+        int child = child(node, name, offset, 1 + length);
+        if (child < 0) {
+            return NOT_FOUND;
+        }
+        return (terminals[child >>> 6] & (1L << child)) != 0 ? MATCHED : child;
+    }
+
+    private int child(int parent, byte[] name, int start, int length) {
+        int low = firstChildren[parent];
+        int high = firstChildren[parent + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = labelOffsets[mid];
+            int cmp = Arrays.compareUnsigned(labels, offset, offset + 1 + (labels[offset] & 0xFF),
+                    name, start, start + length);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private boolean mightContain(long hash) {
+        long mixed = mix(hash);
+        int base = block(mixed);
+        int h1 = (int) mixed;
+        int h2 = (int) ((mixed * 0x9E3779B97F4A7C15L) >>> 32) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & (BLOOM_BLOCK_BITS - 1);
+            if ((bloom[base + (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addToBloom(long hash) {
+        long mixed = mix(hash);
+        int base = block(mixed);
+        int h1 = (int) mixed;
+        int h2 = (int) ((mixed * 0x9E3779B97F4A7C15L) >>> 32) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            int bit = (h1 + i * h2) & (BLOOM_BLOCK_BITS - 1);
+            bloom[base + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * 高 32 位选择块，返回块在 {@link #bloom} 中的起始下标
+     */
+    private int block(long mixed) {
+        int blocks = bloom.length / BLOOM_BLOCK_LONGS;
+        return ((int) (mixed >>> 32) & (blocks - 1)) * BLOOM_BLOCK_LONGS;
+    }
+
+    /**
+     * FNV-1a，逐个标签（长度字节 + 内容）从顶级域向下累积
+     */
+    private static long hash(long hash, byte[] bytes, int start, int length) {
+        for (int i = start; i < start + length; i++) {
+            hash = (hash ^ (bytes[i] & 0xFF)) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * 构建器，只在构建线程使用
+     */
+    public static final class Builder {
+
+        private byte[][] keys = new byte[1024][];
+        private int count;
+
+        private Builder() {
+        }
+
+        /**
+         * 加入一个域名（开头的 "*." 与末尾的点会被忽略）
+         *
+         * @param domain 域名，至少两个标签，如 "ads.example.com"
+         * @return 域名不合法或只有一个标签时返回 false
+         */
+        public boolean add(String domain) {
+            byte[] key = reversedKey(domain, 2);
+            if (key == null) {
+                return false;
+            }
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count + (count >> 1));
+            }
+            keys[count++] = key;
+            return true;
+        }
+
+        public DomainSuffixSet build() {
+            byte[][] sorted = Arrays.copyOf(keys, count);
+            keys = null;
+            Arrays.sort(sorted, Arrays::compareUnsigned);
+
+            // 去重并剪除被上级域名覆盖的域名：排序后它们紧跟在上级域名之后
+            int size = 0;
+            byte[] kept = null;
+            for (byte[] key : sorted) {
+                if (kept != null && key.length >= kept.length && Arrays.equals(key, 0, kept.length, kept, 0, kept.length)) {
+                    continue;
+                }
+                sorted[size++] = key;
+                kept = key;
+            }
+
+            // 每个域名的标签数，以及与前一个域名共享的标签数
+            byte[] depths = new byte[size];
+            byte[] shared = new byte[size];
+            int[] cursors = new int[size];
+            int nodes = 1;
+            int labelBytes = 0;
+            int maxDepth = 0;
+            for (int i = 0; i < size; i++) {
+                byte[] key = sorted[i];
+                byte[] previous = i > 0 ? sorted[i - 1] : null;
+                int depth = 0;
+                int common = 0;
+                int commonBytes = 0;
+                boolean sharing = previous != null;
+                for (int offset = 0; offset < key.length; offset += 1 + (key[offset] & 0xFF)) {
+                    int end = offset + 1 + (key[offset] & 0xFF);
+                    depth++;
+                    if (sharing && end <= previous.length && Arrays.equals(key, offset, end, previous, offset, end)) {
+                        common++;
+                        commonBytes = end;
+                    } else {
+                        sharing = false;
+                    }
+                }
+                depths[i] = (byte) depth;
+                shared[i] = (byte) common;
+                nodes += depth - common;
+                labelBytes += key.length - commonBytes;
+                maxDepth = Math.max(maxDepth, depth);
+            }
+
+            // 逐层建立节点：同一层内按域名顺序编号，同一父节点的子节点因此连续且有序
+            int[] labelOffsets = new int[nodes];
+            byte[] labels = new byte[labelBytes];
+            int[] firstChildren = new int[nodes + 1];
+            Arrays.fill(firstChildren, -1);
+            long[] terminals = new long[(nodes + 63) >>> 6];
+            int[] parents = new int[size];
+            int next = 1;
+            int labelLength = 0;
+            for (int level = 1; level <= maxDepth; level++) {
+                int current = -1;
+                for (int i = 0; i < size; i++) {
+                    if (depths[i] < level) {
+                        continue;
+                    }
+                    byte[] key = sorted[i];
+                    int offset = cursors[i];
+                    int end = offset + 1 + (key[offset] & 0xFF);
+                    if (shared[i] < level) {
+                        current = next++;
+                        labelOffsets[current] = labelLength;
+                        System.arraycopy(key, offset, labels, labelLength, end - offset);
+                        labelLength += end - offset;
+                        if (firstChildren[parents[i]] < 0) {
+                            firstChildren[parents[i]] = current;
+                        }
+                        if (depths[i] == level) {
+                            terminals[current >>> 6] |= 1L << current;
+                        }
+                    }
+                    parents[i] = current;
+                    cursors[i] = end;
+                }
+            }
+            // 叶子没有子节点，区间起点取下一个节点的起点
+            firstChildren[nodes] = nodes;
+            for (int node = nodes - 1; node >= 0; node--) {
+                if (firstChildren[node] < 0) {
+                    firstChildren[node] = firstChildren[node + 1];
+                }
+            }
+
+            // 位数取 2 的幂，每个域名 10~20 位
+            long bits = Math.min(Long.highestOneBit(Math.max((long) size * BLOOM_BITS_PER_DOMAIN, BLOOM_BLOCK_BITS)) << 1,
+                    1L << 30);
+            long[] bloom = new long[(int) (bits >>> 6)];
+            DomainSuffixSet set = new DomainSuffixSet(labelOffsets, labels, firstChildren, terminals, bloom, size);
+            for (int i = 0; i < size; i++) {
+                set.addToBloom(hash(HASH_SEED, sorted[i], 0, sorted[i].length));
+                sorted[i] = null;
+            }
+            return set;
+        }
+
+        /**
+         * 解析为反转标签顺序的小写键（每个标签前为长度字节，不含根标签）
+         *
+         * @return 不合法或标签数少于 minLabels 时返回 null
+         */
+        static byte[] reversedKey(String domain, int minLabels) {
+            if (domain == null) {
+                return null;
+            }
+            int start = domain.startsWith("*.") ? 2 : 0;
+            int end = domain.length();
+            if (end > start && domain.charAt(end - 1) == '.') {
+                end--;
+            }
+            if (end <= start || end - start + 2 > MAX_NAME_LENGTH) {
+                return null;
+            }
+            byte[] key = new byte[end - start + 1];
+            int out = 0;
+            int labelCount = 0;
+            int labelEnd = end;
+            for (int i = end - 1; i >= start - 1; i--) {
+                if (i >= start && domain.charAt(i) != '.') {
+                    continue;
+                }
+                int length = labelEnd - i - 1;
+                if (length == 0 || length > MAX_LABEL_LENGTH) {
+                    return null;
+                }
+                key[out++] = (byte) length;
+                for (int j = i + 1; j < labelEnd; j++) {
+                    char c = domain.charAt(j);
+                    if (c <= ' ' || c > '~') {
+                        return null;
+                    }
+                    key[out++] = (byte) (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+                }
+                labelEnd = i;
+                labelCount++;
+            }
+            return labelCount < minLabels ? null : key;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.npc2048.dns.common.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 域名后缀 Trie
+ * <p>
+ * 按反转的标签顺序（com → example → www）组织，每条规则对域名本身及其所有子域名生效，查询时取最长的匹配后缀。
+ * 构建后不可变，节点保存在平行的 int 数组中，子节点通过 (父节点, 标签) 开放寻址哈希表查找；
+ * 每个节点预先记录自身或最近祖先的规则值，查询直接读取小写线格式名称，耗时与标签数成正比且不分配对象
+ *
+ * @param <T> 规则值类型
+ * @author yuelong.liang
+ */
+public final class DomainSuffixTrie<T> {
+
+    private static final int ROOT = 0;
+
+    private static final int MAX_LABEL_LENGTH = 63;
+
+    private static final int MAX_NAME_LENGTH = 255;
+
+    private static final DomainSuffixTrie<?> EMPTY = new Builder<>().build();
+
+    /**
+     * 节点 -> 父节点
+     */
+    private final int[] parents;
+
+    /**
+     * 节点 -> 标签在 {@link #labels} 中的偏移（长度字节 + 标签内容）
+     */
+    private final int[] labelOffsets;
+
+    private final byte[] labels;
+
+    /**
+     * 节点 -> 自身或最近祖先的规则值下标，-1 表示没有规则
+     */
+    private final int[] valueIndexes;
+
+    /**
+     * 开放寻址哈希表，保存节点下标 + 1，0 表示空槽
+     */
+    private final int[] slots;
+
+    private final Object[] values;
+
+    /**
+     * 规则数（去重后）
+     */
+    private final int size;
+
+    private DomainSuffixTrie(int[] parents, int[] labelOffsets, byte[] labels, int[] valueIndexes, int[] slots,
+                             Object[] values, int size) {
+        this.parents = parents;
+        this.labelOffsets = labelOffsets;
+        this.labels = labels;
+        this.valueIndexes = valueIndexes;
+        this.slots = slots;
+        this.values = values;
+        this.size = size;
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> DomainSuffixTrie<T> empty() {
+        return (DomainSuffixTrie<T>) EMPTY;
+    }
+
+    /**
+     * 查找最长匹配后缀的规则值
+     *
+     * @param name 小写线格式名称（含根标签），如 {@link com.npc2048.dns.model.DnsCacheKey#getName()}
+     * @return 规则值，没有匹配的规则时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public T match(byte[] name) {
+        if (size == 0 || name == null || name.length == 0) {
+            return null;
+        }
+        int node = descend(name, 0);
+        int index = valueIndexes[node < 0 ? -node - 1 : node];
+        return index < 0 ? null : (T) values[index];
+    }
+
+    /**
+     * 查找域名文本的最长匹配后缀的规则值
+     *
+     * @param domain 域名，如 "www.example.com"
+     * @return 规则值，没有匹配的规则时返回 null
+     * @throws IllegalArgumentException 域名不合法
+     */
+    public T match(String domain) {
+        List<byte[]> parsed = parse(domain);
+        byte[] wire = new byte[wireLength(parsed)];
+        int offset = 0;
+        for (byte[] label : parsed) {
+            wire[offset++] = (byte) label.length;
+            System.arraycopy(label, 0, wire, offset, label.length);
+            offset += label.length;
+        }
+        return match(wire);
+    }
+
+    /**
+     * 规则数（重复的后缀只计一次）
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 节点数（含根节点）
+     */
+    public int nodeCount() {
+        return parents.length;
+    }
+
+    /**
+     * 从右向左匹配 offset 起的后缀
+     *
+     * @return 后缀完整匹配时为对应节点；中途断开时为 -(能到达的最深节点 + 1)
+     */
+    private int descend(byte[] name, int offset) {
+        int length = name[offset] & 0xFF;
+        if (length == 0 || length > MAX_LABEL_LENGTH || offset + 1 + length >= name.length) {
+            return ROOT;
+        }
+        int node = descend(name, offset + 1 + length);
+        if (node < 0) {
+            return node;
+        }
+        int child = child(node, name, offset + 1, length);
+        return child < 0 ? -node - 1 : child;
+    }
+
+    private int child(int parent, byte[] name, int start, int length) {
+        int mask = slots.length - 1;
+        for (int slot = hash(parent, name, start, length) & mask; ; slot = (slot + 1) & mask) {
+            int node = slots[slot] - 1;
+            if (node < 0) {
+                return -1;
+            }
+            if (parents[node] == parent && labelEquals(labelOffsets[node], name, start, length)) {
+                return node;
+            }
+        }
+    }
+
+    private boolean labelEquals(int labelOffset, byte[] name, int start, int length) {
+        return (labels[labelOffset] & 0xFF) == length
+                && Arrays.equals(labels, labelOffset + 1, labelOffset + 1 + length, name, start, start + length);
+    }
+
+    private static int hash(int parent, byte[] bytes, int start, int length) {
+        int h = parent * 0x9E3779B1;
+        for (int i = start; i < start + length; i++) {
+            h = (h ^ bytes[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 解析域名文本为小写标签列表，忽略末尾的点与开头的 "*."，"." 与空字符串表示根域
+     *
+     * @throws IllegalArgumentException 域名不合法
+     */
+    private static List<byte[]> parse(String domain) {
+        if (domain == null) {
+            throw new IllegalArgumentException("域名不能为空");
+        }
+        String text = domain.trim().toLowerCase(Locale.ROOT);
+        if (text.startsWith("*.")) {
+            text = text.substring(2);
+        }
+        if (text.endsWith(".")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        List<byte[]> parsed = new ArrayList<>();
+        if (text.isEmpty()) {
+            return parsed;
+        }
+        for (String label : text.split("\\.", -1)) {
+            byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+            if (bytes.length == 0 || bytes.length > MAX_LABEL_LENGTH || !StandardCharsets.US_ASCII.newEncoder().canEncode(label)) {
+                throw new IllegalArgumentException("域名不合法: " + domain);
+            }
+            parsed.add(bytes);
+        }
+        if (wireLength(parsed) > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("域名过长: " + domain);
+        }
+        return parsed;
+    }
+
+    private static int wireLength(List<byte[]> parsed) {
+        int length = 1;
+        for (byte[] label : parsed) {
+            length += label.length + 1;
+        }
+        return length;
+    }
+
+    /**
+     * 构建器，同一后缀重复出现时以先加入的为准
+     *
+     * @param <T> 规则值类型
+     */
+    public static final class Builder<T> {
+
+        private final List<Entry> entries = new ArrayList<>();
+        private final List<T> values = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * 加入一条规则
+         *
+         * @param domain 后缀，如 "corp.internal" 或 "*.corp.internal"，"." 匹配所有域名
+         * @param value  规则值
+         * @throws IllegalArgumentException 域名不合法
+         */
+        public Builder<T> put(String domain, T value) {
+            List<byte[]> parsed = parse(domain);
+            // 反转标签顺序，每个标签前加长度字节，字节序排序后共享后缀的规则相邻
+            byte[] key = new byte[wireLength(parsed) - 1];
+            int offset = 0;
+            for (int i = parsed.size() - 1; i >= 0; i--) {
+                byte[] label = parsed.get(i);
+                key[offset++] = (byte) label.length;
+                System.arraycopy(label, 0, key, offset, label.length);
+                offset += label.length;
+            }
+            entries.add(new Entry(key, values.size()));
+            values.add(value);
+            return this;
+        }
+
+        public DomainSuffixTrie<T> build() {
+            // 稳定排序，相同后缀保持加入顺序
+            entries.sort(Comparator.comparing(Entry::key, Arrays::compareUnsigned));
+            int capacity = 1;
+            int labelBytes = 0;
+            for (Entry entry : entries) {
+                capacity += labelCount(entry.key());
+                labelBytes += entry.key().length;
+            }
+            int[] parents = new int[capacity];
+            int[] labelOffsets = new int[capacity];
+            byte[] labels = new byte[labelBytes];
+            int[] ownValues = new int[capacity];
+            Arrays.fill(ownValues, -1);
+            parents[ROOT] = -1;
+
+            int nodes = 1;
+            int labelLength = 0;
+            int size = 0;
+            int[] path = new int[MAX_NAME_LENGTH / 2 + 1];
+            byte[] previous = null;
+            for (Entry entry : entries) {
+                byte[] key = entry.key();
+                int depth = 0;
+                int offset = 0;
+                // 与上一条规则共享的标签前缀沿用已有节点
+                while (previous != null && offset < key.length && offset < previous.length) {
+                    int end = offset + 1 + (key[offset] & 0xFF);
+                    if (end > previous.length || !Arrays.equals(key, offset, end, previous, offset, end)) {
+                        break;
+                    }
+                    offset = end;
+                    depth++;
+                }
+                int node = path[depth];
+                while (offset < key.length) {
+                    int end = offset + 1 + (key[offset] & 0xFF);
+                    parents[nodes] = node;
+                    labelOffsets[nodes] = labelLength;
+                    System.arraycopy(key, offset, labels, labelLength, end - offset);
+                    labelLength += end - offset;
+                    node = nodes++;
+                    path[++depth] = node;
+                    offset = end;
+                }
+                if (ownValues[node] < 0) {
+                    ownValues[node] = entry.index();
+                    size++;
+                }
+                previous = key;
+            }
+
+            // 父节点总是先于子节点创建，按下标顺序继承最近祖先的规则值
+            int[] valueIndexes = Arrays.copyOf(ownValues, nodes);
+            for (int node = 1; node < nodes; node++) {
+                if (valueIndexes[node] < 0) {
+                    valueIndexes[node] = valueIndexes[parents[node]];
+                }
+            }
+            parents = Arrays.copyOf(parents, nodes);
+            labelOffsets = Arrays.copyOf(labelOffsets, nodes);
+            labels = Arrays.copyOf(labels, labelLength);
+
+            int[] slots = new int[Math.max(Integer.highestOneBit(Math.max(nodes - 1, 1)) << 2, 2)];
+            int mask = slots.length - 1;
+            for (int node = 1; node < nodes; node++) {
+                int offset = labelOffsets[node];
+                int slot = hash(parents[node], labels, offset + 1, labels[offset] & 0xFF) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = node + 1;
+            }
+            return new DomainSuffixTrie<>(parents, labelOffsets, labels, valueIndexes, slots, values.toArray(), size);
+        }
+
+        private static int labelCount(byte[] key) {
+            int count = 0;
+            for (int offset = 0; offset < key.length; offset += 1 + (key[offset] & 0xFF)) {
+                count++;
+            }
+            return count;
+        }
+
+        private record Entry(byte[] key, int index) {
+        }
+    }
+}
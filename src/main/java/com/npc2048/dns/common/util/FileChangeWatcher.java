@@ -0,0 +1,120 @@
+package com.npc2048.dns.common.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 文件变化监视
+ * <p>
+ * WatchService 只能监视目录，因此注册文件所在目录并按文件名过滤事件。
+ * 编辑器保存常伴随多次写入与重命名，收到事件后等待一段时间，合并期间的所有事件后回调一次
+ *
+ * @author yuelong.liang
+ */
+@Slf4j
+public final class FileChangeWatcher implements Closeable {
+
+    private final WatchService watchService;
+    private final long delay;
+    private final Runnable onChange;
+    private final Set<Path> watchedDirs = new HashSet<>();
+
+    private volatile Set<Path> files = Set.of();
+
+    /**
+     * 创建并启动后台监视线程（守护线程）
+     *
+     * @param threadName 线程名
+     * @param delay      防抖等待时间（毫秒）
+     * @param onChange   文件变化后的回调，在监视线程中执行
+     */
+    public FileChangeWatcher(String threadName, long delay, Runnable onChange) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.delay = delay;
+        this.onChange = onChange;
+        Thread.ofPlatform().daemon().name(threadName).start(this::watch);
+    }
+
+    /**
+     * 替换监视的文件集合，新出现的目录随即注册
+     *
+     * @param paths 绝对路径
+     */
+    public synchronized void watch(Collection<Path> paths) {
+        files = Set.copyOf(paths);
+        for (Path file : files) {
+            Path dir = file.getParent();
+            if (dir == null || !Files.isDirectory(dir) || watchedDirs.contains(dir)) {
+                continue;
+            }
+            try {
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirs.add(dir);
+            } catch (IOException | ClosedWatchServiceException e) {
+                log.warn("无法监视目录 {}: {}", dir, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                if (!drain(key)) {
+                    continue;
+                }
+                Thread.sleep(delay);
+                while ((key = watchService.poll()) != null) {
+                    drain(key);
+                }
+                try {
+                    onChange.run();
+                } catch (RuntimeException e) {
+                    log.warn("处理文件变化失败", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            log.debug("文件监视已停止");
+        }
+    }
+
+    /**
+     * 取出事件并重置监视键
+     *
+     * @return 是否涉及监视的文件
+     */
+    private boolean drain(WatchKey key) {
+        Path dir = (Path) key.watchable();
+        Set<Path> current = files;
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || event.context() instanceof Path name && current.contains(dir.resolve(name))) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+}
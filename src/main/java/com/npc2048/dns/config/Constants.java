@@ -43,6 +43,161 @@ public final class Constants {
      */
     public static final int MAX_PORT_VALUE = 65535;
 
+    /**
+     * NIO 模式下服务端事件循环线程数
+     */
+    public static final int SERVER_EVENT_LOOP_THREADS = 4;
+
+    /**
+     * 是否启用 epoll + SO_REUSEPORT 多套接字监听
+     */
+    public static final boolean EPOLL_ENABLED = false;
+
+    /**
+     * 监听套接字数量，0 表示按 CPU 核数
+     */
+    public static final int SERVER_SOCKET_COUNT_AUTO = 0;
+
+    /**
+     * 套接字缓冲区大小，0 表示使用系统默认值
+     */
+    public static final int SOCKET_BUFFER_SIZE_DEFAULT = 0;
+
+    /**
+     * 上游查询事件循环线程数
+     */
+    public static final int UPSTREAM_EVENT_LOOP_THREADS = 2;
+
+    /**
+     * 每个上游 DNS 保持的 UDP 套接字数量
+     */
+    public static final int UPSTREAM_UDP_POOL_SIZE = 4;
+
+    /**
+     * 上游 UDP 接收缓冲区大小（UDP 报文上限，客户端 EDNS 通告的载荷大小由客户端决定，小于报文时会被截断）
+     */
+    public static final int UPSTREAM_UDP_RECEIVE_BUFFER_SIZE = 65535;
+
+    /**
+     * 上游传输协议：UDP（默认，应答被截断时自动改用 TCP 重新查询）
+     */
+    public static final String UPSTREAM_PROTOCOL_UDP = "UDP";
+
+    /**
+     * 上游传输协议：TCP（RFC 7766，长连接、流水线）
+     */
+    public static final String UPSTREAM_PROTOCOL_TCP = "TCP";
+
+    /**
+     * 每个上游 DNS 保持的 TCP 连接数量
+     */
+    public static final int UPSTREAM_TCP_POOL_SIZE = 2;
+
+    /**
+     * 上游 TCP 建立连接的超时时间（毫秒）
+     */
+    public static final int UPSTREAM_TCP_CONNECT_TIMEOUT = 3000;
+
+    /**
+     * 上游 TCP 连接空闲多久后主动关闭（毫秒），下次查询时重新建立
+     */
+    public static final int UPSTREAM_TCP_IDLE_TIMEOUT = 30000;
+
+    /**
+     * 上游传输协议：DOT（RFC 7858，TLS 长连接、流水线）
+     */
+    public static final String UPSTREAM_PROTOCOL_DOT = "DOT";
+
+    /**
+     * DoT 默认端口
+     */
+    public static final int DEFAULT_DOT_PORT = 853;
+
+    /**
+     * 上游 TLS 会话缓存数量，重连时复用会话（会话票据）以省去完整握手
+     */
+    public static final int UPSTREAM_TLS_SESSION_CACHE_SIZE = 1024;
+
+    /**
+     * 上游 TLS 会话缓存有效期（秒）
+     */
+    public static final int UPSTREAM_TLS_SESSION_TIMEOUT = 3600;
+
+    /**
+     * 上游连接建立失败后的最小重连退避（毫秒），连续失败时翻倍
+     */
+    public static final int UPSTREAM_RECONNECT_BACKOFF_MIN = 200;
+
+    /**
+     * 上游连接建立失败后的最大重连退避（毫秒）
+     */
+    public static final int UPSTREAM_RECONNECT_BACKOFF_MAX = 30000;
+
+    /**
+     * 上游传输协议：DOH（RFC 8484，HTTP/2 长连接、多路复用）
+     */
+    public static final String UPSTREAM_PROTOCOL_DOH = "DOH";
+
+    /**
+     * DoH 默认端口
+     */
+    public static final int DEFAULT_DOH_PORT = 443;
+
+    /**
+     * DoH 默认请求路径
+     */
+    public static final String DEFAULT_DOH_PATH = "/dns-query";
+
+    /**
+     * DoH 报文的媒体类型
+     */
+    public static final String DOH_CONTENT_TYPE = "application/dns-message";
+
+    /**
+     * 每个 DoH 上游保持的 HTTP/2 连接数量，查询在连接内以并发流复用
+     */
+    public static final int UPSTREAM_DOH_POOL_SIZE = 2;
+
+    /**
+     * DoH 连接无数据读入多久后发送 PING 保活（毫秒），上一个 PING 未确认时关闭连接
+     */
+    public static final int UPSTREAM_DOH_PING_INTERVAL = 15000;
+
+    /**
+     * DoH 连接无查询多久后主动关闭（毫秒），下次查询时重新建立
+     */
+    public static final int UPSTREAM_DOH_IDLE_TIMEOUT = 120000;
+
+    /**
+     * DNS 报文最大长度（TCP 两字节长度前缀的上限）
+     */
+    public static final int DNS_MAX_MESSAGE_LENGTH = 65535;
+
+    /**
+     * 代理类型：HTTP（经 CONNECT 建立 TCP 隧道）
+     */
+    public static final String PROXY_TYPE_HTTP = "HTTP";
+
+    /**
+     * 代理类型：SOCKS5（TCP 经 CONNECT，UDP 经 UDP ASSOCIATE）
+     */
+    public static final String PROXY_TYPE_SOCKS5 = "SOCKS5";
+
+    /**
+     * SOCKS5 UDP 关联无查询多久后关闭（毫秒），下次查询时重新建立
+     */
+    public static final int UPSTREAM_SOCKS5_IDLE_TIMEOUT = 300000;
+
+    /**
+     * 上游超时时间轮刻度（毫秒）
+     */
+    public static final int UPSTREAM_TIMER_TICK_MS = 10;
+
+    /**
+     * DNS 报文头长度
+     */
+    public static final int DNS_HEADER_LENGTH = 12;
+
     // ==================== 超时配置 ====================
 
     /**
@@ -55,6 +210,56 @@ public final class Constants {
      */
     public static final int CACHE_DEFAULT_TTL = 300;
 
+    /**
+     * 否定应答（NXDOMAIN/NODATA）最长缓存时间（秒，RFC 2308 建议 1~3 小时）
+     */
+    public static final int NEGATIVE_CACHE_MAX_TTL = 10800;
+
+    /**
+     * 上游 SERVFAIL 缓存时间（秒，0 表示不缓存）
+     */
+    public static final int SERVFAIL_CACHE_TTL = 5;
+
+    /**
+     * 是否启用热点条目预取
+     */
+    public static final boolean PREFETCH_ENABLED = true;
+
+    /**
+     * 剩余 TTL 低于原 TTL 的该百分比时触发预取
+     */
+    public static final int PREFETCH_THRESHOLD_PERCENT = 10;
+
+    /**
+     * 触发预取所需的最少命中次数
+     */
+    public static final int PREFETCH_MIN_HITS = 3;
+
+    /**
+     * 是否启用过期数据应答（RFC 8767 serve-stale）
+     */
+    public static final boolean SERVE_STALE_ENABLED = true;
+
+    /**
+     * 条目过期后仍保留用于应答的时间（秒）
+     */
+    public static final int STALE_WINDOW = 86400;
+
+    /**
+     * 在途查询在总超时之外的保护余量（毫秒），超过后强制移出在途表并以 SERVFAIL 应答等待者
+     */
+    public static final int IN_FLIGHT_GUARD_MARGIN = 1000;
+
+    /**
+     * 有过期数据可用时等待上游的最长时间（毫秒，RFC 8767 建议 1.8 秒）
+     */
+    public static final int CLIENT_RESPONSE_DEADLINE = 1800;
+
+    /**
+     * 过期数据应答中使用的 TTL（秒，RFC 8767 建议 30 秒）
+     */
+    public static final int STALE_ANSWER_TTL = 30;
+
     /**
      * Sa-Token 超时时间（秒）
      */
@@ -104,6 +309,31 @@ public final class Constants {
      */
     public static final int RETRY_COUNT = 3;
 
+    /**
+     * 首次尝试的超时时间（毫秒），之后每次重试翻倍
+     */
+    public static final int ATTEMPT_TIMEOUT = 400;
+
+    /**
+     * 剩余期限低于该值（毫秒）时不再发起新的尝试
+     */
+    public static final int MIN_ATTEMPT_TIMEOUT = 50;
+
+    /**
+     * 自适应超时（RTO）下限（毫秒），低 RTT 上游的抖动（GC、排队）不应触发重试
+     */
+    public static final int RTO_MIN = 200;
+
+    /**
+     * 自适应超时（RTO）上限（毫秒），同时不超过上游自身的 timeout
+     */
+    public static final int RTO_MAX = 3000;
+
+    /**
+     * 连续超时后 RTO 指数退避的最大次数
+     */
+    public static final int RTO_MAX_BACKOFF = 6;
+
     // ==================== 上游 DNS 配置 ====================
 
     /**
@@ -126,6 +356,181 @@ public final class Constants {
      */
     public static final int DEFAULT_UPSTREAM_PRIORITY = 1;
 
+    /**
+     * 默认上游 DNS 权重
+     */
+    public static final int DEFAULT_UPSTREAM_WEIGHT = 1;
+
+    /**
+     * 本地区域数据内跟随 CNAME 的最大次数
+     */
+    public static final int LOCAL_ZONE_MAX_CNAME_CHAIN = 8;
+
+    /**
+     * hosts 文件记录的默认 TTL（秒）
+     */
+    public static final int LOCAL_HOSTS_TTL = 60;
+
+    /**
+     * 是否监视本地区域与 hosts 文件的变化并自动重新加载
+     */
+    public static final boolean LOCAL_ZONE_WATCH_ENABLED = true;
+
+    /**
+     * 文件变化后延迟重新加载的时间（毫秒），合并编辑器保存时的连续事件
+     */
+    public static final long LOCAL_ZONE_RELOAD_DELAY = 500;
+
+    /**
+     * 拦截名单应答方式：NXDOMAIN
+     */
+    public static final String BLOCKLIST_MODE_NXDOMAIN = "NXDOMAIN";
+
+    /**
+     * 拦截名单应答方式：A/AAAA 查询应答黑洞地址，其他类型应答 NODATA
+     */
+    public static final String BLOCKLIST_MODE_SINKHOLE = "SINKHOLE";
+
+    /**
+     * 默认黑洞 IPv4 地址
+     */
+    public static final String BLOCKLIST_SINKHOLE_IPV4 = "0.0.0.0";
+
+    /**
+     * 默认黑洞 IPv6 地址
+     */
+    public static final String BLOCKLIST_SINKHOLE_IPV6 = "::";
+
+    /**
+     * 黑洞地址记录的 TTL（秒）
+     */
+    public static final int BLOCKLIST_TTL = 60;
+
+    /**
+     * 默认监视拦截名单文件并自动重新加载
+     */
+    public static final boolean BLOCKLIST_WATCH_ENABLED = true;
+
+    /**
+     * 拦截名单文件变化后延迟重新加载的时间（毫秒），大文件常分多次写入
+     */
+    public static final long BLOCKLIST_RELOAD_DELAY = 2000;
+
+    /**
+     * 默认上游分组：未配置 group 的上游，以及没有匹配转发规则的查询使用该分组
+     */
+    public static final String DEFAULT_UPSTREAM_GROUP = "default";
+
+    /**
+     * 上游选择策略 - 严格优先级
+     */
+    public static final String UPSTREAM_STRATEGY_PRIORITY = "PRIORITY";
+
+    /**
+     * 上游选择策略 - 加权轮询
+     */
+    public static final String UPSTREAM_STRATEGY_WEIGHTED_ROUND_ROBIN = "WEIGHTED_ROUND_ROBIN";
+
+    /**
+     * 上游选择策略 - 最低 EWMA 延迟
+     */
+    public static final String UPSTREAM_STRATEGY_LOWEST_LATENCY = "LOWEST_LATENCY";
+
+    /**
+     * 最低延迟策略随机探索其他上游的概率（百分比）
+     */
+    public static final int UPSTREAM_EXPLORATION_PERCENT = 5;
+
+    /**
+     * 上游 RTT 指数加权移动平均的平滑系数
+     */
+    public static final double UPSTREAM_RTT_EWMA_ALPHA = 0.3;
+
+    /**
+     * 计算 RTT 分位数的滑动窗口大小（最近 N 个样本）
+     */
+    public static final int UPSTREAM_RTT_WINDOW_SIZE = 128;
+
+    /**
+     * RTT 分位数生效所需的最少样本数
+     */
+    public static final int UPSTREAM_RTT_MIN_SAMPLES = 16;
+
+    /**
+     * 是否启用对冲请求
+     */
+    public static final boolean HEDGE_ENABLED = false;
+
+    /**
+     * 对冲等待的 RTT 分位数
+     */
+    public static final int HEDGE_PERCENTILE = 95;
+
+    /**
+     * 对冲请求占上游查询的最大比例（百分比）
+     */
+    public static final int HEDGE_MAX_PERCENT = 10;
+
+    /**
+     * 对冲额度的最大积累量（次），限制空闲后的突发
+     */
+    public static final int HEDGE_BURST = 10;
+
+    /**
+     * 是否启用上游并发限制
+     */
+    public static final boolean CONCURRENCY_LIMIT_ENABLED = true;
+
+    /**
+     * 上游并发限制初始值
+     */
+    public static final int CONCURRENCY_LIMIT_INITIAL = 64;
+
+    /**
+     * 上游并发限制下限
+     */
+    public static final int CONCURRENCY_LIMIT_MIN = 4;
+
+    /**
+     * 上游并发限制上限
+     */
+    public static final int CONCURRENCY_LIMIT_MAX = 1024;
+
+    /**
+     * 超时后并发限制的乘性减小系数
+     */
+    public static final double CONCURRENCY_LIMIT_BACKOFF_RATIO = 0.5;
+
+    /**
+     * 两次乘性减小的最小间隔（毫秒），同一波超时只减小一次
+     */
+    public static final int CONCURRENCY_LIMIT_DECREASE_INTERVAL = 100;
+
+    /**
+     * 每个上游排队等待并发额度的最大查询数
+     */
+    public static final int UPSTREAM_QUEUE_SIZE = 1024;
+
+    /**
+     * 是否启用上游熔断
+     */
+    public static final boolean CIRCUIT_BREAKER_ENABLED = true;
+
+    /**
+     * 上游连续失败多少次后熔断
+     */
+    public static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+
+    /**
+     * 熔断上游的探测间隔（毫秒）
+     */
+    public static final int HEALTH_CHECK_INTERVAL = 5000;
+
+    /**
+     * 探测使用的金丝雀查询域名（查询 NS 记录）
+     */
+    public static final String HEALTH_CHECK_DOMAIN = ".";
+
     /**
      * 启用状态
      */
@@ -219,6 +624,51 @@ public final class Constants {
      */
     public static final String CONFIG_KEY_CACHE_DEFAULT_TTL = "cacheDefaultTtl";
 
+    /**
+     * 否定应答最长缓存时间配置键
+     */
+    public static final String CONFIG_KEY_NEGATIVE_CACHE_MAX_TTL = "negativeCacheMaxTtl";
+
+    /**
+     * SERVFAIL 缓存时间配置键
+     */
+    public static final String CONFIG_KEY_SERVFAIL_CACHE_TTL = "servfailCacheTtl";
+
+    /**
+     * 预取启用配置键
+     */
+    public static final String CONFIG_KEY_PREFETCH_ENABLED = "prefetchEnabled";
+
+    /**
+     * 预取阈值配置键
+     */
+    public static final String CONFIG_KEY_PREFETCH_THRESHOLD_PERCENT = "prefetchThresholdPercent";
+
+    /**
+     * 预取最少命中次数配置键
+     */
+    public static final String CONFIG_KEY_PREFETCH_MIN_HITS = "prefetchMinHits";
+
+    /**
+     * 过期数据应答启用配置键
+     */
+    public static final String CONFIG_KEY_SERVE_STALE_ENABLED = "serveStaleEnabled";
+
+    /**
+     * 过期数据保留时间配置键
+     */
+    public static final String CONFIG_KEY_STALE_WINDOW = "staleWindow";
+
+    /**
+     * 客户端应答期限配置键
+     */
+    public static final String CONFIG_KEY_CLIENT_RESPONSE_DEADLINE = "clientResponseDeadline";
+
+    /**
+     * 过期数据应答 TTL 配置键
+     */
+    public static final String CONFIG_KEY_STALE_ANSWER_TTL = "staleAnswerTtl";
+
     /**
      * 监听端口配置键
      */
@@ -293,4 +743,179 @@ public final class Constants {
      * 优先级配置键
      */
     public static final String CONFIG_KEY_PRIORITY = "priority";
+
+    /**
+     * 权重配置键
+     */
+    public static final String CONFIG_KEY_WEIGHT = "weight";
+
+    /**
+     * 上游传输协议配置键
+     */
+    public static final String CONFIG_KEY_PROTOCOL = "protocol";
+
+    /**
+     * TLS 服务器名称配置键
+     */
+    public static final String CONFIG_KEY_SERVER_NAME = "serverName";
+
+    /**
+     * DoH 请求路径配置键
+     */
+    public static final String CONFIG_KEY_PATH = "path";
+
+    /**
+     * DoH 请求方法配置键
+     */
+    public static final String CONFIG_KEY_HTTP_METHOD = "httpMethod";
+
+    /**
+     * 本地区域文件配置键
+     */
+    public static final String CONFIG_KEY_LOCAL_ZONE_FILES = "localZoneFiles";
+
+    /**
+     * hosts 文件配置键
+     */
+    public static final String CONFIG_KEY_HOSTS_FILES = "hostsFiles";
+
+    /**
+     * hosts 记录 TTL 配置键
+     */
+    public static final String CONFIG_KEY_HOSTS_TTL = "hostsTtl";
+
+    /**
+     * 本地区域文件监视配置键
+     */
+    public static final String CONFIG_KEY_LOCAL_ZONE_WATCH_ENABLED = "localZoneWatchEnabled";
+
+    /**
+     * 拦截名单文件配置键
+     */
+    public static final String CONFIG_KEY_BLOCKLIST_FILES = "blocklistFiles";
+
+    /**
+     * 拦截名单应答方式配置键
+     */
+    public static final String CONFIG_KEY_BLOCKLIST_MODE = "blocklistMode";
+
+    /**
+     * 黑洞 IPv4 地址配置键
+     */
+    public static final String CONFIG_KEY_BLOCKLIST_SINKHOLE_IPV4 = "blocklistSinkholeIpv4";
+
+    /**
+     * 黑洞 IPv6 地址配置键
+     */
+    public static final String CONFIG_KEY_BLOCKLIST_SINKHOLE_IPV6 = "blocklistSinkholeIpv6";
+
+    /**
+     * 黑洞地址 TTL 配置键
+     */
+    public static final String CONFIG_KEY_BLOCKLIST_TTL = "blocklistTtl";
+
+    /**
+     * 拦截名单文件监视配置键
+     */
+    public static final String CONFIG_KEY_BLOCKLIST_WATCH_ENABLED = "blocklistWatchEnabled";
+
+    /**
+     * 上游分组配置键
+     */
+    public static final String CONFIG_KEY_GROUP = "group";
+
+    /**
+     * 条件转发规则配置键
+     */
+    public static final String CONFIG_KEY_FORWARD_RULES = "forwardRules";
+
+    /**
+     * 转发规则域名后缀列表配置键
+     */
+    public static final String CONFIG_KEY_DOMAINS = "domains";
+
+    /**
+     * 上游选择策略配置键
+     */
+    public static final String CONFIG_KEY_UPSTREAM_STRATEGY = "upstreamStrategy";
+
+    /**
+     * 上游探索概率配置键
+     */
+    public static final String CONFIG_KEY_UPSTREAM_EXPLORATION_PERCENT = "upstreamExplorationPercent";
+
+    /**
+     * 上游熔断开关配置键
+     */
+    public static final String CONFIG_KEY_CIRCUIT_BREAKER_ENABLED = "circuitBreakerEnabled";
+
+    /**
+     * 熔断失败阈值配置键
+     */
+    public static final String CONFIG_KEY_CIRCUIT_FAILURE_THRESHOLD = "circuitFailureThreshold";
+
+    /**
+     * 探测间隔配置键
+     */
+    public static final String CONFIG_KEY_HEALTH_CHECK_INTERVAL = "healthCheckInterval";
+
+    /**
+     * 探测域名配置键
+     */
+    public static final String CONFIG_KEY_HEALTH_CHECK_DOMAIN = "healthCheckDomain";
+
+    /**
+     * 上游健康状态键（只读）
+     */
+    public static final String CONFIG_KEY_UPSTREAM_HEALTH = "upstreamHealth";
+
+    /**
+     * 首次尝试超时配置键
+     */
+    public static final String CONFIG_KEY_ATTEMPT_TIMEOUT = "attemptTimeout";
+
+    /**
+     * RTO 下限配置键
+     */
+    public static final String CONFIG_KEY_RTO_MIN = "rtoMin";
+
+    /**
+     * RTO 上限配置键
+     */
+    public static final String CONFIG_KEY_RTO_MAX = "rtoMax";
+
+    /**
+     * 对冲开关配置键
+     */
+    public static final String CONFIG_KEY_HEDGE_ENABLED = "hedgeEnabled";
+
+    /**
+     * 对冲分位数配置键
+     */
+    public static final String CONFIG_KEY_HEDGE_PERCENTILE = "hedgePercentile";
+
+    /**
+     * 对冲比例上限配置键
+     */
+    public static final String CONFIG_KEY_HEDGE_MAX_PERCENT = "hedgeMaxPercent";
+
+    /**
+     * 并发限制开关配置键
+     */
+    public static final String CONFIG_KEY_CONCURRENCY_LIMIT_ENABLED = "concurrencyLimitEnabled";
+
+    /**
+     * 并发限制下限配置键
+     */
+    public static final String CONFIG_KEY_CONCURRENCY_LIMIT_MIN = "concurrencyLimitMin";
+
+    /**
+     * 并发限制上限配置键
+     */
+    public static final String CONFIG_KEY_CONCURRENCY_LIMIT_MAX = "concurrencyLimitMax";
+
+    /**
+     * 上游排队长度配置键
+     */
+    public static final String CONFIG_KEY_UPSTREAM_QUEUE_SIZE = "upstreamQueueSize";
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.npc2048.dns.config;
 
+import com.npc2048.dns.model.ForwardRule;
 import com.npc2048.dns.model.UpstreamDnsConfig;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -29,15 +30,150 @@ public class DnsConfig {
     private List<UpstreamDnsConfig> upstreamDns = new ArrayList<>();
 
     /**
-     * 默认上游 DNS 超时时间（毫秒）
+     * 条件转发规则：域名后缀 -> 上游分组，最长后缀优先，没有匹配的查询使用 default 分组
+     */
+    private List<ForwardRule> forwardRules = new ArrayList<>();
+
+    /**
+     * 本地区域文件（RFC 1035 主文件格式，需含 $ORIGIN 或使用绝对名称），优先于缓存与上游应答
+     */
+    private List<String> localZoneFiles = new ArrayList<>();
+
+    /**
+     * hosts 格式文件（每行 "地址 名称..."，名称可用 "*." 通配），优先于缓存与上游应答
+     */
+    private List<String> hostsFiles = new ArrayList<>();
+
+    /**
+     * hosts 文件记录的 TTL（秒）
+     */
+    private Integer hostsTtl = Constants.LOCAL_HOSTS_TTL;
+
+    /**
+     * 是否监视本地区域与 hosts 文件的变化并自动重新加载
+     */
+    private Boolean localZoneWatchEnabled = Constants.LOCAL_ZONE_WATCH_ENABLED;
+
+    /**
+     * 拦截名单文件（每行一个域名，兼容 hosts 格式与 "||domain^" 格式），名单中的域名及其子域名被拦截
+     */
+    private List<String> blocklistFiles = new ArrayList<>();
+
+    /**
+     * 拦截应答方式：NXDOMAIN 或 SINKHOLE
+     */
+    private String blocklistMode = Constants.BLOCKLIST_MODE_NXDOMAIN;
+
+    /**
+     * SINKHOLE 方式下 A 查询应答的地址
+     */
+    private String blocklistSinkholeIpv4 = Constants.BLOCKLIST_SINKHOLE_IPV4;
+
+    /**
+     * SINKHOLE 方式下 AAAA 查询应答的地址
+     */
+    private String blocklistSinkholeIpv6 = Constants.BLOCKLIST_SINKHOLE_IPV6;
+
+    /**
+     * 黑洞地址记录的 TTL（秒）
+     */
+    private Integer blocklistTtl = Constants.BLOCKLIST_TTL;
+
+    /**
+     * 是否监视拦截名单文件的变化并自动重新加载
+     */
+    private Boolean blocklistWatchEnabled = Constants.BLOCKLIST_WATCH_ENABLED;
+
+    /**
+     * 上游选择策略：PRIORITY、WEIGHTED_ROUND_ROBIN、LOWEST_LATENCY
+     */
+    private String upstreamStrategy = Constants.UPSTREAM_STRATEGY_PRIORITY;
+
+    /**
+     * 最低延迟策略随机探索其他上游的概率（百分比）
+     */
+    private Integer upstreamExplorationPercent = Constants.UPSTREAM_EXPLORATION_PERCENT;
+
+    /**
+     * 是否启用上游熔断：连续失败的上游暂时移出选择，后台探测恢复后再加入
+     */
+    private Boolean circuitBreakerEnabled = Constants.CIRCUIT_BREAKER_ENABLED;
+
+    /**
+     * 上游连续失败（超时、SERVFAIL、REFUSED）多少次后熔断
+     */
+    private Integer circuitFailureThreshold = Constants.CIRCUIT_FAILURE_THRESHOLD;
+
+    /**
+     * 熔断上游的探测间隔（毫秒）
+     */
+    private Integer healthCheckInterval = Constants.HEALTH_CHECK_INTERVAL;
+
+    /**
+     * 探测使用的金丝雀查询域名（查询 NS 记录）
+     */
+    private String healthCheckDomain = Constants.HEALTH_CHECK_DOMAIN;
+
+    /**
+     * 单次查询访问上游的总期限（毫秒），包含所有重试
      */
     private Integer defaultTimeout = Constants.DEFAULT_UPSTREAM_TIMEOUT;
 
     /**
-     * 重试次数
+     * 重试次数（首次尝试之外），每次重试切换到下一个上游
      */
     private Integer retryCount = Constants.RETRY_COUNT;
 
+    /**
+     * 上游尚无 RTT 样本时首次尝试的超时时间（毫秒），之后每次重试翻倍，不超过上游自身的 timeout 与剩余期限
+     */
+    private Integer attemptTimeout = Constants.ATTEMPT_TIMEOUT;
+
+    /**
+     * 自适应超时（RTO）下限（毫秒）
+     */
+    private Integer rtoMin = Constants.RTO_MIN;
+
+    /**
+     * 自适应超时（RTO）上限（毫秒），同时不超过上游自身的 timeout
+     */
+    private Integer rtoMax = Constants.RTO_MAX;
+
+    /**
+     * 是否启用对冲请求：上游在其 RTT 分位数内未应答时，向另一个上游发送同一查询，取先到的应答
+     */
+    private Boolean hedgeEnabled = Constants.HEDGE_ENABLED;
+
+    /**
+     * 对冲等待的 RTT 分位数（如 90、95）
+     */
+    private Integer hedgePercentile = Constants.HEDGE_PERCENTILE;
+
+    /**
+     * 对冲请求占上游查询的最大比例（百分比）
+     */
+    private Integer hedgeMaxPercent = Constants.HEDGE_MAX_PERCENT;
+
+    /**
+     * 是否启用上游并发限制（AIMD：正常应答时加性增大，超时时乘性减小）
+     */
+    private Boolean concurrencyLimitEnabled = Constants.CONCURRENCY_LIMIT_ENABLED;
+
+    /**
+     * 上游并发限制下限
+     */
+    private Integer concurrencyLimitMin = Constants.CONCURRENCY_LIMIT_MIN;
+
+    /**
+     * 上游并发限制上限
+     */
+    private Integer concurrencyLimitMax = Constants.CONCURRENCY_LIMIT_MAX;
+
+    /**
+     * 所有候选上游都满载时，每个上游排队等待并发额度的最大查询数
+     */
+    private Integer upstreamQueueSize = Constants.UPSTREAM_QUEUE_SIZE;
+
     /**
      * 缓存最大条目数
      */
@@ -64,11 +200,76 @@ public class DnsConfig {
      */
     private Integer cacheDefaultTtl = Constants.CACHE_DEFAULT_TTL;
 
+    /**
+     * 否定应答最长缓存时间（秒）
+     */
+    private Integer negativeCacheMaxTtl = Constants.NEGATIVE_CACHE_MAX_TTL;
+
+    /**
+     * 上游 SERVFAIL 缓存时间（秒，0 表示不缓存）
+     */
+    private Integer servfailCacheTtl = Constants.SERVFAIL_CACHE_TTL;
+
+    /**
+     * 是否启用热点条目预取
+     */
+    private Boolean prefetchEnabled = Constants.PREFETCH_ENABLED;
+
+    /**
+     * 剩余 TTL 低于原 TTL 的该百分比时触发预取
+     */
+    private Integer prefetchThresholdPercent = Constants.PREFETCH_THRESHOLD_PERCENT;
+
+    /**
+     * 触发预取所需的最少命中次数
+     */
+    private Integer prefetchMinHits = Constants.PREFETCH_MIN_HITS;
+
+    /**
+     * 是否启用过期数据应答（RFC 8767）
+     */
+    private Boolean serveStaleEnabled = Constants.SERVE_STALE_ENABLED;
+
+    /**
+     * 条目过期后仍保留用于应答的时间（秒）
+     */
+    private Integer staleWindow = Constants.STALE_WINDOW;
+
+    /**
+     * 有过期数据可用时等待上游的最长时间（毫秒）
+     */
+    private Integer clientResponseDeadline = Constants.CLIENT_RESPONSE_DEADLINE;
+
+    /**
+     * 过期数据应答中使用的 TTL（秒）
+     */
+    private Integer staleAnswerTtl = Constants.STALE_ANSWER_TTL;
+
     /**
      * 监听端口
      */
     private Integer listenPort = Constants.DNS_SERVER_PORT;
 
+    /**
+     * 是否使用 epoll 传输并以 SO_REUSEPORT 绑定多个监听套接字（仅 Linux）
+     */
+    private Boolean epollEnabled = Constants.EPOLL_ENABLED;
+
+    /**
+     * 监听套接字数量（epoll 模式生效），0 表示按 CPU 核数
+     */
+    private Integer serverSocketCount = Constants.SERVER_SOCKET_COUNT_AUTO;
+
+    /**
+     * 监听套接字 SO_RCVBUF（字节），0 表示使用系统默认值
+     */
+    private Integer socketReceiveBufferSize = Constants.SOCKET_BUFFER_SIZE_DEFAULT;
+
+    /**
+     * 监听套接字 SO_SNDBUF（字节），0 表示使用系统默认值
+     */
+    private Integer socketSendBufferSize = Constants.SOCKET_BUFFER_SIZE_DEFAULT;
+
     /**
      * 是否启用缓存
      */
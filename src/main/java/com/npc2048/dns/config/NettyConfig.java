@@ -0,0 +1,40 @@
+package com.npc2048.dns.config;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Netty 公共资源配置
+ * <p>
+ * 上游传输共享同一个事件循环组与时间轮，避免每个传输各自创建线程
+ *
+ * @author yuelong.liang
+ */
+@Configuration
+public class NettyConfig {
+
+    /**
+     * 上游查询专用的事件循环组，与服务端监听线程隔离
+     */
+    @Bean(destroyMethod = "shutdownGracefully")
+    public EventLoopGroup upstreamEventLoopGroup() {
+        return new MultiThreadIoEventLoopGroup(Constants.UPSTREAM_EVENT_LOOP_THREADS,
+                new DefaultThreadFactory("dns-upstream", true), NioIoHandler.newFactory());
+    }
+
+    /**
+     * 上游请求超时使用的时间轮
+     */
+    @Bean(destroyMethod = "stop")
+    public HashedWheelTimer upstreamTimer() {
+        return new HashedWheelTimer(new DefaultThreadFactory("dns-upstream-timer", true),
+                Constants.UPSTREAM_TIMER_TICK_MS, TimeUnit.MILLISECONDS);
+    }
+}
@@ -2,6 +2,7 @@ package com.npc2048.dns.controller;
 
 import cn.dev33.satoken.annotation.SaCheckLogin;
 import cn.dev33.satoken.util.SaResult;
+import com.npc2048.dns.model.DnsCacheKey;
 import com.npc2048.dns.service.CacheService;
 import com.npc2048.dns.service.CacheService.CacheStats;
 import lombok.RequiredArgsConstructor;
@@ -9,7 +10,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -37,7 +37,9 @@ public class DnsCacheController {
      */
     @GetMapping("/keys")
     public SaResult getAllKeys() {
-        Set<String> keys = cacheService.getCache().asMap().keySet();
+        Set<String> keys = cacheService.getCache().asMap().keySet().stream()
+                .map(DnsCacheKey::toString)
+                .collect(Collectors.toSet());
         return SaResult.data(keys);
     }
 
@@ -46,15 +48,23 @@ public class DnsCacheController {
      */
     @GetMapping("/item/{key}")
     public SaResult getCacheItem(@PathVariable String key) {
-        com.github.benmanes.caffeine.cache.Cache<String, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
-        com.npc2048.dns.model.CacheEntry entry = cache.getIfPresent(key);
+        DnsCacheKey cacheKey;
+        try {
+            cacheKey = DnsCacheKey.parse(key);
+        } catch (IllegalArgumentException e) {
+            return SaResult.error(e.getMessage());
+        }
+        com.github.benmanes.caffeine.cache.Cache<DnsCacheKey, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
+        com.npc2048.dns.model.CacheEntry entry = cache.getIfPresent(cacheKey);
         if (entry != null) {
             Map<String, Object> item = new HashMap<>();
             item.put("key", key);
-            item.put("data", entry.getData());
+            item.put("data", entry.toByteArray());
             item.put("ttl", entry.getTtl());
-            item.put("createdTime", System.currentTimeMillis());
-            item.put("expireTime", System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(entry.getTtl()));
+            item.put("kind", entry.getKind());
+            item.put("hits", entry.getHits());
+            item.put("createdTime", entry.getCreatedTime());
+            item.put("expireTime", entry.getExpireTime());
             return SaResult.data(item);
         }
         return SaResult.error("Cache item not found");
@@ -72,8 +82,8 @@ public class DnsCacheController {
             return SaResult.error("Invalid pagination parameters");
         }
 
-        com.github.benmanes.caffeine.cache.Cache<String, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
-        Map<String, com.npc2048.dns.model.CacheEntry> cacheMap = cache.asMap();
+        com.github.benmanes.caffeine.cache.Cache<DnsCacheKey, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
+        Map<DnsCacheKey, com.npc2048.dns.model.CacheEntry> cacheMap = cache.asMap();
         List<Map<String, Object>> items = new ArrayList<>();
 
         cacheMap.entrySet().stream()
@@ -82,11 +92,13 @@ public class DnsCacheController {
                 .forEach(entry -> {
                     com.npc2048.dns.model.CacheEntry value = entry.getValue();
                     Map<String, Object> item = new HashMap<>();
-                    item.put("key", entry.getKey());
-                    item.put("data", value.getData());
+                    item.put("key", entry.getKey().toString());
+                    item.put("data", value.toByteArray());
                     item.put("ttl", value.getTtl());
-                    item.put("createdTime", System.currentTimeMillis());
-                    item.put("expireTime", System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(value.getTtl()));
+                    item.put("kind", value.getKind());
+                    item.put("hits", value.getHits());
+                    item.put("createdTime", value.getCreatedTime());
+                    item.put("expireTime", value.getExpireTime());
                     items.add(item);
                 });
 
@@ -108,8 +120,8 @@ public class DnsCacheController {
             @RequestParam(required = false) Integer maxTtl,
             @RequestParam(required = false) String keyword) {
 
-        com.github.benmanes.caffeine.cache.Cache<String, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
-        Map<String, com.npc2048.dns.model.CacheEntry> cacheMap = cache.asMap();
+        com.github.benmanes.caffeine.cache.Cache<DnsCacheKey, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
+        Map<DnsCacheKey, com.npc2048.dns.model.CacheEntry> cacheMap = cache.asMap();
         List<Map<String, Object>> results = new ArrayList<>();
 
         cacheMap.forEach((key, value) -> {
@@ -118,14 +130,16 @@ public class DnsCacheController {
             if (maxTtl != null && value.getTtl() > maxTtl) return;
 
             // 关键词过滤
-            if (keyword != null && !key.contains(keyword)) return;
+            if (keyword != null && !key.toString().contains(keyword)) return;
 
             Map<String, Object> item = new HashMap<>();
-            item.put("key", key);
-            item.put("data", value.getData());
+            item.put("key", key.toString());
+            item.put("data", value.toByteArray());
             item.put("ttl", value.getTtl());
-            item.put("createdTime", System.currentTimeMillis());
-            item.put("expireTime", System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(value.getTtl()));
+            item.put("kind", value.getKind());
+            item.put("hits", value.getHits());
+            item.put("createdTime", value.getCreatedTime());
+            item.put("expireTime", value.getExpireTime());
             results.add(item);
         });
 
@@ -140,18 +154,20 @@ public class DnsCacheController {
             @RequestParam int minTtl,
             @RequestParam int maxTtl) {
 
-        com.github.benmanes.caffeine.cache.Cache<String, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
-        Map<String, com.npc2048.dns.model.CacheEntry> cacheMap = cache.asMap();
+        com.github.benmanes.caffeine.cache.Cache<DnsCacheKey, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
+        Map<DnsCacheKey, com.npc2048.dns.model.CacheEntry> cacheMap = cache.asMap();
         List<Map<String, Object>> results = new ArrayList<>();
 
         cacheMap.forEach((key, value) -> {
             if (value.getTtl() >= minTtl && value.getTtl() <= maxTtl) {
                 Map<String, Object> item = new HashMap<>();
-                item.put("key", key);
-                item.put("data", value.getData());
+                item.put("key", key.toString());
+                item.put("data", value.toByteArray());
                 item.put("ttl", value.getTtl());
-                item.put("createdTime", System.currentTimeMillis());
-                item.put("expireTime", System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(value.getTtl()));
+                item.put("kind", value.getKind());
+                item.put("hits", value.getHits());
+                item.put("createdTime", value.getCreatedTime());
+                item.put("expireTime", value.getExpireTime());
                 results.add(item);
             }
         });
@@ -165,14 +181,19 @@ public class DnsCacheController {
     @GetMapping("/details")
     public SaResult getCacheDetails() {
         CacheStats stats = cacheService.getStats();
-        com.github.benmanes.caffeine.cache.Cache<String, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
+        com.github.benmanes.caffeine.cache.Cache<DnsCacheKey, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
 
         Map<String, Object> details = new HashMap<>();
         details.put("stats", Map.of(
                 "hits", stats.hits(),
                 "misses", stats.misses(),
                 "size", stats.size(),
-                "hitRate", stats.getHitRate()
+                "hitRate", stats.getHitRate(),
+                "negativeHits", stats.negativeHits(),
+                "negativeMisses", stats.negativeMisses(),
+                "negativeHitRate", stats.getNegativeHitRate(),
+                "prefetches", stats.prefetches(),
+                "staleHits", stats.staleHits()
         ));
         details.put("cacheSize", cacheService.size());
         details.put("evictionCount", cache.stats().evictionCount());
@@ -187,8 +208,14 @@ public class DnsCacheController {
      */
     @GetMapping("/contains/{key}")
     public SaResult containsKey(@PathVariable String key) {
-        com.github.benmanes.caffeine.cache.Cache<String, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
-        boolean contains = cache.getIfPresent(key) != null;
+        DnsCacheKey cacheKey;
+        try {
+            cacheKey = DnsCacheKey.parse(key);
+        } catch (IllegalArgumentException e) {
+            return SaResult.error(e.getMessage());
+        }
+        com.github.benmanes.caffeine.cache.Cache<DnsCacheKey, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
+        boolean contains = cache.getIfPresent(cacheKey) != null;
         return SaResult.data(Map.of("contains", contains));
     }
 
@@ -197,18 +224,26 @@ public class DnsCacheController {
      */
     @PostMapping("/batch-get")
     public SaResult batchGet(@RequestBody List<String> keys) {
-        com.github.benmanes.caffeine.cache.Cache<String, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
+        com.github.benmanes.caffeine.cache.Cache<DnsCacheKey, com.npc2048.dns.model.CacheEntry> cache = cacheService.getCache();
         List<Map<String, Object>> results = new ArrayList<>();
 
         keys.forEach(key -> {
-            com.npc2048.dns.model.CacheEntry entry = cache.getIfPresent(key);
+            com.npc2048.dns.model.CacheEntry entry;
+            try {
+                entry = cache.getIfPresent(DnsCacheKey.parse(key));
+            } catch (IllegalArgumentException e) {
+                log.debug("忽略无效缓存键: {}", key);
+                return;
+            }
             if (entry != null) {
                 Map<String, Object> item = new HashMap<>();
                 item.put("key", key);
-                item.put("data", entry.getData());
+                item.put("data", entry.toByteArray());
                 item.put("ttl", entry.getTtl());
-                item.put("createdTime", System.currentTimeMillis());
-                item.put("expireTime", System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(entry.getTtl()));
+                item.put("kind", entry.getKind());
+                item.put("hits", entry.getHits());
+                item.put("createdTime", entry.getCreatedTime());
+                item.put("expireTime", entry.getExpireTime());
                 results.add(item);
             }
         });
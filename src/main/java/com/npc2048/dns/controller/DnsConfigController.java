@@ -4,18 +4,31 @@ import cn.dev33.satoken.annotation.SaCheckLogin;
 import cn.dev33.satoken.annotation.SaCheckRole;
 import cn.dev33.satoken.util.SaResult;
 import com.google.common.collect.Maps;
+import com.npc2048.dns.common.util.DomainSuffixTrie;
 import com.npc2048.dns.config.Constants;
 import com.npc2048.dns.config.DnsConfig;
 import com.npc2048.dns.model.DnsQueryResult;
+import com.npc2048.dns.model.ForwardRule;
 import com.npc2048.dns.model.UpstreamDnsConfig;
+import com.npc2048.dns.model.UpstreamState;
 import com.npc2048.dns.network.NettyDnsServer;
+import com.npc2048.dns.network.UpstreamProxy;
+import com.npc2048.dns.service.BlocklistService;
+import com.npc2048.dns.service.DnsForwarder;
 import com.npc2048.dns.service.DnsService;
+import com.npc2048.dns.service.LocalZoneService;
+import com.npc2048.dns.service.UpstreamSelector;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpMethod;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -33,6 +46,10 @@ public class DnsConfigController {
     private final DnsConfig dnsConfig;
     private final DnsService dnsService;
     private final NettyDnsServer nettyDnsServer;
+    private final UpstreamSelector upstreamSelector;
+    private final DnsForwarder dnsForwarder;
+    private final LocalZoneService localZoneService;
+    private final BlocklistService blocklistService;
 
     /**
      * 获取 DNS 配置
@@ -41,15 +58,52 @@ public class DnsConfigController {
     @GetMapping("/config")
     public SaResult getConfig() {
         try {
-            Map<String, Object> config = Maps.newHashMapWithExpectedSize(11);
+            Map<String, Object> config = Maps.newHashMapWithExpectedSize(21);
             config.put(Constants.CONFIG_KEY_UPSTREAM_DNS, dnsConfig.getUpstreamDns());
+            config.put(Constants.CONFIG_KEY_FORWARD_RULES, dnsConfig.getForwardRules());
+            config.put(Constants.CONFIG_KEY_LOCAL_ZONE_FILES, dnsConfig.getLocalZoneFiles());
+            config.put(Constants.CONFIG_KEY_HOSTS_FILES, dnsConfig.getHostsFiles());
+            config.put(Constants.CONFIG_KEY_HOSTS_TTL, dnsConfig.getHostsTtl());
+            config.put(Constants.CONFIG_KEY_LOCAL_ZONE_WATCH_ENABLED, dnsConfig.getLocalZoneWatchEnabled());
+            config.put(Constants.CONFIG_KEY_BLOCKLIST_FILES, dnsConfig.getBlocklistFiles());
+            config.put(Constants.CONFIG_KEY_BLOCKLIST_MODE, dnsConfig.getBlocklistMode());
+            config.put(Constants.CONFIG_KEY_BLOCKLIST_SINKHOLE_IPV4, dnsConfig.getBlocklistSinkholeIpv4());
+            config.put(Constants.CONFIG_KEY_BLOCKLIST_SINKHOLE_IPV6, dnsConfig.getBlocklistSinkholeIpv6());
+            config.put(Constants.CONFIG_KEY_BLOCKLIST_TTL, dnsConfig.getBlocklistTtl());
+            config.put(Constants.CONFIG_KEY_BLOCKLIST_WATCH_ENABLED, dnsConfig.getBlocklistWatchEnabled());
+            config.put(Constants.CONFIG_KEY_UPSTREAM_STRATEGY, dnsConfig.getUpstreamStrategy());
+            config.put(Constants.CONFIG_KEY_UPSTREAM_EXPLORATION_PERCENT, dnsConfig.getUpstreamExplorationPercent());
+            config.put(Constants.CONFIG_KEY_CIRCUIT_BREAKER_ENABLED, dnsConfig.getCircuitBreakerEnabled());
+            config.put(Constants.CONFIG_KEY_CIRCUIT_FAILURE_THRESHOLD, dnsConfig.getCircuitFailureThreshold());
+            config.put(Constants.CONFIG_KEY_HEALTH_CHECK_INTERVAL, dnsConfig.getHealthCheckInterval());
+            config.put(Constants.CONFIG_KEY_HEALTH_CHECK_DOMAIN, dnsConfig.getHealthCheckDomain());
+            config.put(Constants.CONFIG_KEY_UPSTREAM_HEALTH, upstreamSelector.getHealth());
             config.put(Constants.CONFIG_KEY_DEFAULT_TIMEOUT, dnsConfig.getDefaultTimeout());
             config.put(Constants.CONFIG_KEY_RETRY_COUNT, dnsConfig.getRetryCount());
+            config.put(Constants.CONFIG_KEY_ATTEMPT_TIMEOUT, dnsConfig.getAttemptTimeout());
+            config.put(Constants.CONFIG_KEY_RTO_MIN, dnsConfig.getRtoMin());
+            config.put(Constants.CONFIG_KEY_RTO_MAX, dnsConfig.getRtoMax());
+            config.put(Constants.CONFIG_KEY_HEDGE_ENABLED, dnsConfig.getHedgeEnabled());
+            config.put(Constants.CONFIG_KEY_HEDGE_PERCENTILE, dnsConfig.getHedgePercentile());
+            config.put(Constants.CONFIG_KEY_HEDGE_MAX_PERCENT, dnsConfig.getHedgeMaxPercent());
+            config.put(Constants.CONFIG_KEY_CONCURRENCY_LIMIT_ENABLED, dnsConfig.getConcurrencyLimitEnabled());
+            config.put(Constants.CONFIG_KEY_CONCURRENCY_LIMIT_MIN, dnsConfig.getConcurrencyLimitMin());
+            config.put(Constants.CONFIG_KEY_CONCURRENCY_LIMIT_MAX, dnsConfig.getConcurrencyLimitMax());
+            config.put(Constants.CONFIG_KEY_UPSTREAM_QUEUE_SIZE, dnsConfig.getUpstreamQueueSize());
             config.put(Constants.CONFIG_KEY_CACHE_MAX_SIZE, dnsConfig.getCacheMaxSize());
             config.put(Constants.CONFIG_KEY_CACHE_MAX_WEIGHT, dnsConfig.getCacheMaxWeight());
             config.put(Constants.CONFIG_KEY_CACHE_CAPACITY_MODE, dnsConfig.getCacheCapacityMode());
             config.put(Constants.CONFIG_KEY_CACHE_REBUILD_STRATEGY, dnsConfig.getCacheRebuildStrategy());
             config.put(Constants.CONFIG_KEY_CACHE_DEFAULT_TTL, dnsConfig.getCacheDefaultTtl());
+            config.put(Constants.CONFIG_KEY_NEGATIVE_CACHE_MAX_TTL, dnsConfig.getNegativeCacheMaxTtl());
+            config.put(Constants.CONFIG_KEY_SERVFAIL_CACHE_TTL, dnsConfig.getServfailCacheTtl());
+            config.put(Constants.CONFIG_KEY_PREFETCH_ENABLED, dnsConfig.getPrefetchEnabled());
+            config.put(Constants.CONFIG_KEY_PREFETCH_THRESHOLD_PERCENT, dnsConfig.getPrefetchThresholdPercent());
+            config.put(Constants.CONFIG_KEY_PREFETCH_MIN_HITS, dnsConfig.getPrefetchMinHits());
+            config.put(Constants.CONFIG_KEY_SERVE_STALE_ENABLED, dnsConfig.getServeStaleEnabled());
+            config.put(Constants.CONFIG_KEY_STALE_WINDOW, dnsConfig.getStaleWindow());
+            config.put(Constants.CONFIG_KEY_CLIENT_RESPONSE_DEADLINE, dnsConfig.getClientResponseDeadline());
+            config.put(Constants.CONFIG_KEY_STALE_ANSWER_TTL, dnsConfig.getStaleAnswerTtl());
             config.put(Constants.CONFIG_KEY_LISTEN_PORT, dnsConfig.getListenPort());
             config.put(Constants.CONFIG_KEY_CACHE_ENABLED, dnsConfig.getCacheEnabled());
             config.put(Constants.CONFIG_KEY_QUERY_LOG_ENABLED, dnsConfig.getQueryLogEnabled());
@@ -75,8 +129,118 @@ public class DnsConfigController {
                 List<UpstreamDnsConfig> upstreamConfigs = upstreamList.stream()
                         .map(this::mapToUpstreamConfig)
                         .toList();
+                for (UpstreamDnsConfig upstream : upstreamConfigs) {
+                    if (!dnsForwarder.supportsProtocol(UpstreamState.protocolOf(upstream))) {
+                        return SaResult.error("不支持的上游协议: " + upstream.getProtocol());
+                    }
+                    if (upstream.getHttpMethod() != null && !HttpMethod.GET.name().equalsIgnoreCase(upstream.getHttpMethod())
+                            && !HttpMethod.POST.name().equalsIgnoreCase(upstream.getHttpMethod())) {
+                        return SaResult.error("不支持的 DoH 请求方法: " + upstream.getHttpMethod());
+                    }
+                    if (Boolean.TRUE.equals(upstream.getUseProxy()) && !UpstreamProxy.isValid(upstream.getProxyConfig())) {
+                        return SaResult.error("代理配置无效（类型须为 HTTP 或 SOCKS5，且地址与端口有效）: "
+                                + UpstreamProxy.describe(upstream.getProxyConfig()));
+                    }
+                }
                 dnsConfig.setUpstreamDns(upstreamConfigs);
             }
+            if (config.containsKey(Constants.CONFIG_KEY_FORWARD_RULES)) {
+                @SuppressWarnings("unchecked")
+                List<Map<String, Object>> ruleList = (List<Map<String, Object>>) config.get(Constants.CONFIG_KEY_FORWARD_RULES);
+                List<ForwardRule> rules = ruleList.stream()
+                        .map(this::mapToForwardRule)
+                        .toList();
+                // 按查询时的方式编译一次，提前拒绝不合法的域名后缀
+                DomainSuffixTrie.Builder<String> routes = DomainSuffixTrie.builder();
+                for (ForwardRule rule : rules) {
+                    if (rule.getDomains() == null || rule.getDomains().isEmpty()) {
+                        return SaResult.error("转发规则缺少域名后缀: " + rule.getGroup());
+                    }
+                    try {
+                        rule.getDomains().forEach(domain -> routes.put(domain, rule.getGroup()));
+                    } catch (IllegalArgumentException e) {
+                        return SaResult.error("转发规则不合法: " + e.getMessage());
+                    }
+                }
+                dnsConfig.setForwardRules(rules);
+            }
+            boolean localZoneChanged = false;
+            if (config.containsKey(Constants.CONFIG_KEY_LOCAL_ZONE_FILES)) {
+                @SuppressWarnings("unchecked")
+                List<String> files = (List<String>) config.get(Constants.CONFIG_KEY_LOCAL_ZONE_FILES);
+                dnsConfig.setLocalZoneFiles(new ArrayList<>(files));
+                localZoneChanged = true;
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_HOSTS_FILES)) {
+                @SuppressWarnings("unchecked")
+                List<String> files = (List<String>) config.get(Constants.CONFIG_KEY_HOSTS_FILES);
+                dnsConfig.setHostsFiles(new ArrayList<>(files));
+                localZoneChanged = true;
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_HOSTS_TTL)) {
+                dnsConfig.setHostsTtl((Integer) config.get(Constants.CONFIG_KEY_HOSTS_TTL));
+                localZoneChanged = true;
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_LOCAL_ZONE_WATCH_ENABLED)) {
+                dnsConfig.setLocalZoneWatchEnabled((Boolean) config.get(Constants.CONFIG_KEY_LOCAL_ZONE_WATCH_ENABLED));
+            }
+            if (localZoneChanged) {
+                try {
+                    localZoneService.reload();
+                } catch (IOException e) {
+                    return SaResult.error("加载本地区域失败（保留原数据）: " + e.getMessage());
+                }
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_BLOCKLIST_MODE)
+                    || config.containsKey(Constants.CONFIG_KEY_BLOCKLIST_SINKHOLE_IPV4)
+                    || config.containsKey(Constants.CONFIG_KEY_BLOCKLIST_SINKHOLE_IPV6)
+                    || config.containsKey(Constants.CONFIG_KEY_BLOCKLIST_TTL)) {
+                String mode = (String) config.getOrDefault(Constants.CONFIG_KEY_BLOCKLIST_MODE, dnsConfig.getBlocklistMode());
+                String ipv4 = (String) config.getOrDefault(Constants.CONFIG_KEY_BLOCKLIST_SINKHOLE_IPV4, dnsConfig.getBlocklistSinkholeIpv4());
+                String ipv6 = (String) config.getOrDefault(Constants.CONFIG_KEY_BLOCKLIST_SINKHOLE_IPV6, dnsConfig.getBlocklistSinkholeIpv6());
+                Integer ttl = (Integer) config.getOrDefault(Constants.CONFIG_KEY_BLOCKLIST_TTL, dnsConfig.getBlocklistTtl());
+                try {
+                    blocklistService.updateAnswers(mode, ipv4, ipv6, ttl);
+                } catch (IllegalArgumentException e) {
+                    return SaResult.error(e.getMessage());
+                }
+                dnsConfig.setBlocklistMode(mode.toUpperCase(Locale.ROOT));
+                dnsConfig.setBlocklistSinkholeIpv4(ipv4);
+                dnsConfig.setBlocklistSinkholeIpv6(ipv6);
+                dnsConfig.setBlocklistTtl(ttl);
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_BLOCKLIST_WATCH_ENABLED)) {
+                dnsConfig.setBlocklistWatchEnabled((Boolean) config.get(Constants.CONFIG_KEY_BLOCKLIST_WATCH_ENABLED));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_BLOCKLIST_FILES)) {
+                @SuppressWarnings("unchecked")
+                List<String> files = (List<String>) config.get(Constants.CONFIG_KEY_BLOCKLIST_FILES);
+                dnsConfig.setBlocklistFiles(new ArrayList<>(files));
+                // 大名单构建耗时较长，在后台完成后替换，结果见运行统计
+                blocklistService.reload();
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_UPSTREAM_STRATEGY)) {
+                String strategy = (String) config.get(Constants.CONFIG_KEY_UPSTREAM_STRATEGY);
+                if (!upstreamSelector.hasStrategy(strategy)) {
+                    return SaResult.error("不支持的上游选择策略: " + strategy);
+                }
+                dnsConfig.setUpstreamStrategy(strategy);
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_UPSTREAM_EXPLORATION_PERCENT)) {
+                dnsConfig.setUpstreamExplorationPercent((Integer) config.get(Constants.CONFIG_KEY_UPSTREAM_EXPLORATION_PERCENT));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_CIRCUIT_BREAKER_ENABLED)) {
+                dnsConfig.setCircuitBreakerEnabled((Boolean) config.get(Constants.CONFIG_KEY_CIRCUIT_BREAKER_ENABLED));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_CIRCUIT_FAILURE_THRESHOLD)) {
+                dnsConfig.setCircuitFailureThreshold((Integer) config.get(Constants.CONFIG_KEY_CIRCUIT_FAILURE_THRESHOLD));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_HEALTH_CHECK_INTERVAL)) {
+                dnsConfig.setHealthCheckInterval((Integer) config.get(Constants.CONFIG_KEY_HEALTH_CHECK_INTERVAL));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_HEALTH_CHECK_DOMAIN)) {
+                dnsConfig.setHealthCheckDomain((String) config.get(Constants.CONFIG_KEY_HEALTH_CHECK_DOMAIN));
+            }
 
             // 更新其他配置
             if (config.containsKey(Constants.CONFIG_KEY_DEFAULT_TIMEOUT)) {
@@ -85,6 +249,36 @@ public class DnsConfigController {
             if (config.containsKey(Constants.CONFIG_KEY_RETRY_COUNT)) {
                 dnsConfig.setRetryCount((Integer) config.get(Constants.CONFIG_KEY_RETRY_COUNT));
             }
+            if (config.containsKey(Constants.CONFIG_KEY_ATTEMPT_TIMEOUT)) {
+                dnsConfig.setAttemptTimeout((Integer) config.get(Constants.CONFIG_KEY_ATTEMPT_TIMEOUT));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_RTO_MIN)) {
+                dnsConfig.setRtoMin((Integer) config.get(Constants.CONFIG_KEY_RTO_MIN));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_RTO_MAX)) {
+                dnsConfig.setRtoMax((Integer) config.get(Constants.CONFIG_KEY_RTO_MAX));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_HEDGE_ENABLED)) {
+                dnsConfig.setHedgeEnabled((Boolean) config.get(Constants.CONFIG_KEY_HEDGE_ENABLED));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_HEDGE_PERCENTILE)) {
+                dnsConfig.setHedgePercentile((Integer) config.get(Constants.CONFIG_KEY_HEDGE_PERCENTILE));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_HEDGE_MAX_PERCENT)) {
+                dnsConfig.setHedgeMaxPercent((Integer) config.get(Constants.CONFIG_KEY_HEDGE_MAX_PERCENT));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_CONCURRENCY_LIMIT_ENABLED)) {
+                dnsConfig.setConcurrencyLimitEnabled((Boolean) config.get(Constants.CONFIG_KEY_CONCURRENCY_LIMIT_ENABLED));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_CONCURRENCY_LIMIT_MIN)) {
+                dnsConfig.setConcurrencyLimitMin((Integer) config.get(Constants.CONFIG_KEY_CONCURRENCY_LIMIT_MIN));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_CONCURRENCY_LIMIT_MAX)) {
+                dnsConfig.setConcurrencyLimitMax((Integer) config.get(Constants.CONFIG_KEY_CONCURRENCY_LIMIT_MAX));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_UPSTREAM_QUEUE_SIZE)) {
+                dnsConfig.setUpstreamQueueSize((Integer) config.get(Constants.CONFIG_KEY_UPSTREAM_QUEUE_SIZE));
+            }
             if (config.containsKey(Constants.CONFIG_KEY_CACHE_MAX_SIZE)) {
                 dnsConfig.setCacheMaxSize((Integer) config.get(Constants.CONFIG_KEY_CACHE_MAX_SIZE));
             }
@@ -100,6 +294,33 @@ public class DnsConfigController {
             if (config.containsKey(Constants.CONFIG_KEY_CACHE_DEFAULT_TTL)) {
                 dnsConfig.setCacheDefaultTtl((Integer) config.get(Constants.CONFIG_KEY_CACHE_DEFAULT_TTL));
             }
+            if (config.containsKey(Constants.CONFIG_KEY_NEGATIVE_CACHE_MAX_TTL)) {
+                dnsConfig.setNegativeCacheMaxTtl((Integer) config.get(Constants.CONFIG_KEY_NEGATIVE_CACHE_MAX_TTL));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_SERVFAIL_CACHE_TTL)) {
+                dnsConfig.setServfailCacheTtl((Integer) config.get(Constants.CONFIG_KEY_SERVFAIL_CACHE_TTL));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_PREFETCH_ENABLED)) {
+                dnsConfig.setPrefetchEnabled((Boolean) config.get(Constants.CONFIG_KEY_PREFETCH_ENABLED));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_PREFETCH_THRESHOLD_PERCENT)) {
+                dnsConfig.setPrefetchThresholdPercent((Integer) config.get(Constants.CONFIG_KEY_PREFETCH_THRESHOLD_PERCENT));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_PREFETCH_MIN_HITS)) {
+                dnsConfig.setPrefetchMinHits((Integer) config.get(Constants.CONFIG_KEY_PREFETCH_MIN_HITS));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_SERVE_STALE_ENABLED)) {
+                dnsConfig.setServeStaleEnabled((Boolean) config.get(Constants.CONFIG_KEY_SERVE_STALE_ENABLED));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_STALE_WINDOW)) {
+                dnsConfig.setStaleWindow((Integer) config.get(Constants.CONFIG_KEY_STALE_WINDOW));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_CLIENT_RESPONSE_DEADLINE)) {
+                dnsConfig.setClientResponseDeadline((Integer) config.get(Constants.CONFIG_KEY_CLIENT_RESPONSE_DEADLINE));
+            }
+            if (config.containsKey(Constants.CONFIG_KEY_STALE_ANSWER_TTL)) {
+                dnsConfig.setStaleAnswerTtl((Integer) config.get(Constants.CONFIG_KEY_STALE_ANSWER_TTL));
+            }
             if (config.containsKey(Constants.CONFIG_KEY_LISTEN_PORT)) {
                 dnsConfig.setListenPort((Integer) config.get(Constants.CONFIG_KEY_LISTEN_PORT));
                 nettyDnsServer.stopServer();
@@ -147,13 +368,53 @@ public class DnsConfigController {
                     .priority(2)
                     .build()
             ));
+            dnsConfig.setForwardRules(new ArrayList<>());
+            dnsConfig.setLocalZoneFiles(new ArrayList<>());
+            dnsConfig.setHostsFiles(new ArrayList<>());
+            dnsConfig.setHostsTtl(Constants.LOCAL_HOSTS_TTL);
+            dnsConfig.setLocalZoneWatchEnabled(Constants.LOCAL_ZONE_WATCH_ENABLED);
+            dnsConfig.setBlocklistFiles(new ArrayList<>());
+            dnsConfig.setBlocklistMode(Constants.BLOCKLIST_MODE_NXDOMAIN);
+            dnsConfig.setBlocklistSinkholeIpv4(Constants.BLOCKLIST_SINKHOLE_IPV4);
+            dnsConfig.setBlocklistSinkholeIpv6(Constants.BLOCKLIST_SINKHOLE_IPV6);
+            dnsConfig.setBlocklistTtl(Constants.BLOCKLIST_TTL);
+            dnsConfig.setBlocklistWatchEnabled(Constants.BLOCKLIST_WATCH_ENABLED);
+            blocklistService.updateAnswers(Constants.BLOCKLIST_MODE_NXDOMAIN, Constants.BLOCKLIST_SINKHOLE_IPV4,
+                    Constants.BLOCKLIST_SINKHOLE_IPV6, Constants.BLOCKLIST_TTL);
+            localZoneService.reload();
+            blocklistService.reload();
+            dnsConfig.setUpstreamStrategy(Constants.UPSTREAM_STRATEGY_PRIORITY);
+            dnsConfig.setUpstreamExplorationPercent(Constants.UPSTREAM_EXPLORATION_PERCENT);
+            dnsConfig.setCircuitBreakerEnabled(Constants.CIRCUIT_BREAKER_ENABLED);
+            dnsConfig.setCircuitFailureThreshold(Constants.CIRCUIT_FAILURE_THRESHOLD);
+            dnsConfig.setHealthCheckInterval(Constants.HEALTH_CHECK_INTERVAL);
+            dnsConfig.setHealthCheckDomain(Constants.HEALTH_CHECK_DOMAIN);
             dnsConfig.setDefaultTimeout(5000);
             dnsConfig.setRetryCount(3);
+            dnsConfig.setAttemptTimeout(Constants.ATTEMPT_TIMEOUT);
+            dnsConfig.setRtoMin(Constants.RTO_MIN);
+            dnsConfig.setRtoMax(Constants.RTO_MAX);
+            dnsConfig.setHedgeEnabled(Constants.HEDGE_ENABLED);
+            dnsConfig.setHedgePercentile(Constants.HEDGE_PERCENTILE);
+            dnsConfig.setHedgeMaxPercent(Constants.HEDGE_MAX_PERCENT);
+            dnsConfig.setConcurrencyLimitEnabled(Constants.CONCURRENCY_LIMIT_ENABLED);
+            dnsConfig.setConcurrencyLimitMin(Constants.CONCURRENCY_LIMIT_MIN);
+            dnsConfig.setConcurrencyLimitMax(Constants.CONCURRENCY_LIMIT_MAX);
+            dnsConfig.setUpstreamQueueSize(Constants.UPSTREAM_QUEUE_SIZE);
             dnsConfig.setCacheMaxSize(10000);
             dnsConfig.setCacheMaxWeight(10485760L);
             dnsConfig.setCacheCapacityMode(Constants.CACHE_CAPACITY_ENTRIES);
             dnsConfig.setCacheRebuildStrategy(Constants.CACHE_REBUILD_CLEAR);
             dnsConfig.setCacheDefaultTtl(300);
+            dnsConfig.setNegativeCacheMaxTtl(Constants.NEGATIVE_CACHE_MAX_TTL);
+            dnsConfig.setServfailCacheTtl(Constants.SERVFAIL_CACHE_TTL);
+            dnsConfig.setPrefetchEnabled(Constants.PREFETCH_ENABLED);
+            dnsConfig.setPrefetchThresholdPercent(Constants.PREFETCH_THRESHOLD_PERCENT);
+            dnsConfig.setPrefetchMinHits(Constants.PREFETCH_MIN_HITS);
+            dnsConfig.setServeStaleEnabled(Constants.SERVE_STALE_ENABLED);
+            dnsConfig.setStaleWindow(Constants.STALE_WINDOW);
+            dnsConfig.setClientResponseDeadline(Constants.CLIENT_RESPONSE_DEADLINE);
+            dnsConfig.setStaleAnswerTtl(Constants.STALE_ANSWER_TTL);
             dnsConfig.setCacheEnabled(true);
             dnsConfig.setQueryLogEnabled(true);
 
@@ -179,6 +440,8 @@ public class DnsConfigController {
         try {
             // 重新加载配置（如果有配置源的话）
             // 这里可以添加从数据库或其他地方重新加载配置的逻辑
+            localZoneService.reload();
+            blocklistService.reload();
             nettyDnsServer.stopServer();
             nettyDnsServer.startServer();
 
@@ -190,6 +453,26 @@ public class DnsConfigController {
         }
     }
 
+    /**
+     * 获取 DNS 服务运行统计
+     * GET /dns/stats
+     */
+    @GetMapping("/stats")
+    public SaResult getStats() {
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("server", nettyDnsServer.getStats());
+            stats.put("resolver", dnsService.getStats());
+            stats.put("upstreams", upstreamSelector.getStats());
+            stats.put("localZone", localZoneService.getStats());
+            stats.put("blocklist", blocklistService.getStats());
+            return SaResult.data(stats);
+        } catch (Exception e) {
+            log.error("获取 DNS 运行统计失败", e);
+            return SaResult.error(e.getMessage());
+        }
+    }
+
     /**
      * 查询域名（用于前端测试DNS服务）
      * POST /dns/query
@@ -231,11 +514,28 @@ public class DnsConfigController {
         return UpstreamDnsConfig.builder()
                 .address((String) map.get(Constants.CONFIG_KEY_ADDRESS))
                 .port((Integer) map.get(Constants.CONFIG_KEY_PORT))
+                .protocol((String) map.get(Constants.CONFIG_KEY_PROTOCOL))
+                .serverName((String) map.get(Constants.CONFIG_KEY_SERVER_NAME))
+                .path((String) map.get(Constants.CONFIG_KEY_PATH))
+                .httpMethod((String) map.get(Constants.CONFIG_KEY_HTTP_METHOD))
                 .timeout((Integer) map.get(Constants.CONFIG_KEY_TIMEOUT))
                 .useProxy((Boolean) map.get(Constants.CONFIG_KEY_USE_PROXY))
                 .proxyConfig(proxyConfig)
                 .enabled(map.containsKey(Constants.CONFIG_KEY_ENABLED) ? (Boolean) map.get(Constants.CONFIG_KEY_ENABLED) : Constants.ENABLED)
                 .priority(map.containsKey(Constants.CONFIG_KEY_PRIORITY) ? (Integer) map.get(Constants.CONFIG_KEY_PRIORITY) : Constants.DEFAULT_UPSTREAM_PRIORITY)
+                .weight(map.containsKey(Constants.CONFIG_KEY_WEIGHT) ? (Integer) map.get(Constants.CONFIG_KEY_WEIGHT) : Constants.DEFAULT_UPSTREAM_WEIGHT)
+                .group((String) map.get(Constants.CONFIG_KEY_GROUP))
+                .build();
+    }
+
+    /**
+     * 将 Map 转换为 ForwardRule
+     */
+    @SuppressWarnings("unchecked")
+    private ForwardRule mapToForwardRule(Map<String, Object> map) {
+        return ForwardRule.builder()
+                .domains((List<String>) map.get(Constants.CONFIG_KEY_DOMAINS))
+                .group((String) map.get(Constants.CONFIG_KEY_GROUP))
                 .build();
     }
 }
\ No newline at end of file
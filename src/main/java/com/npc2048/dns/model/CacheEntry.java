@@ -1,22 +1,218 @@
 package com.npc2048.dns.model;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import com.npc2048.dns.common.util.DnsUtils;
+import com.npc2048.dns.config.Constants;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author yuelong.liang
  */
-@Data
-@AllArgsConstructor
+@Getter
 public class CacheEntry {
 
     /**
      * 响应数据
+     * <p>
+     * 只读、不可释放的直接内存缓冲区，由所有命中共享，调用方只能通过 slice/duplicate 读取
      */
-    private byte[] data;
+    private final ByteBuf data;
     /**
      * ttl
      */
-    private int ttl;
+    private final int ttl;
+    /**
+     * 响应中各资源记录 TTL 字段的偏移
+     */
+    private final int[] ttlOffsets;
+    /**
+     * 写入缓存的时间（毫秒时间戳）
+     */
+    private final long createdTime;
+    /**
+     * 条目类型
+     */
+    private final Kind kind;
+    /**
+     * 命中次数
+     */
+    @Getter(AccessLevel.NONE)
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * 是否已有预取在进行，保证每个条目只触发一次后台刷新
+     */
+    @Getter(AccessLevel.NONE)
+    private final AtomicBoolean prefetching = new AtomicBoolean();
+
+    public CacheEntry(byte[] data, int ttl, int[] ttlOffsets, Kind kind) {
+        // 使用 JDK 直接内存，条目被淘汰后由 GC 回收，不依赖引用计数
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length).put(data).flip();
+        this.data = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(direct).asReadOnly());
+        this.ttl = ttl;
+        this.ttlOffsets = ttlOffsets;
+        this.createdTime = System.currentTimeMillis();
+        this.kind = kind;
+    }
 
+    /**
+     * 记录一次命中
+     */
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * 获取命中次数
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * 尝试获取预取资格
+     * <p>
+     * 只有正常应答、命中次数足够且剩余寿命进入最后 thresholdPercent% 时才会预取，
+     * 同一条目只有第一个满足条件的调用返回 true
+     *
+     * @param thresholdPercent 剩余寿命百分比阈值
+     * @param minHits          最少命中次数
+     * @return 是否由调用方发起预取
+     */
+    public boolean tryClaimPrefetch(int thresholdPercent, int minHits) {
+        if (kind != Kind.POSITIVE || hits.get() < minHits || prefetching.get()) {
+            return false;
+        }
+        long remainingMs = getExpireTime() - System.currentTimeMillis();
+        if (remainingMs * 100 > ttl * 1000L * thresholdPercent) {
+            return false;
+        }
+        return prefetching.compareAndSet(false, true);
+    }
+
+    /**
+     * 预取失败时释放预取资格，允许后续命中重新触发
+     */
+    public void releasePrefetch() {
+        prefetching.set(false);
+    }
+
+    /**
+     * 是否为否定条目（NXDOMAIN/NODATA/SERVFAIL）
+     */
+    public boolean isNegative() {
+        return kind != Kind.POSITIVE;
+    }
+
+    /**
+     * 构造命中响应
+     * <p>
+     * DNS 报文的前两个字节是 ID，必须与请求报文一致。写入后的第一秒内 TTL 无需调整，
+     * 只新写 2 字节的 ID，其余部分以切片形式引用缓存数据；之后拷贝一份并按预先记录的偏移
+     * 把每个 TTL 减去已经过的秒数，不重新解析报文。问题名称按当前请求方的大小写写回
+     *
+     * @param alloc 分配器
+     * @param id    请求 ID
+     * @param qname 请求方的问题名称（线格式），为 null 时保留缓存中的名称
+     * @return 响应报文，由调用方释放
+     */
+    public ByteBuf toResponse(ByteBufAllocator alloc, int id, byte[] qname) {
+        int length = data.readableBytes();
+        if (length < 2) {
+            return data.duplicate();
+        }
+        long elapsed = (System.currentTimeMillis() - createdTime) / 1000;
+        if (elapsed <= 0 || ttlOffsets.length == 0) {
+            // 新写 ID 与问题名称，其余部分引用缓存数据
+            int nameLength = DnsUtils.questionNameLength(data);
+            int headerLength = nameLength > 0 && qname != null && qname.length == nameLength
+                    ? Constants.DNS_HEADER_LENGTH + nameLength : 2;
+            ByteBuf header = alloc.directBuffer(headerLength).writeShort(id);
+            if (headerLength > 2) {
+                header.writeBytes(data, data.readerIndex() + 2, Constants.DNS_HEADER_LENGTH - 2).writeBytes(qname);
+            }
+            return alloc.compositeDirectBuffer(2).addComponents(true, header,
+                    data.retainedSlice(data.readerIndex() + headerLength, length - headerLength));
+        }
+        ByteBuf response = copy(alloc, id, qname);
+        for (int offset : ttlOffsets) {
+            long remaining = response.getUnsignedInt(offset) - elapsed;
+            response.setInt(offset, (int) Math.max(remaining, 0));
+        }
+        return response;
+    }
+
+    /**
+     * 构造过期数据应答（RFC 8767），所有 TTL 统一改写为 staleTtl
+     *
+     * @param alloc    分配器
+     * @param id       请求 ID
+     * @param staleTtl 应答中使用的 TTL（秒）
+     * @param qname    请求方的问题名称（线格式），为 null 时保留缓存中的名称
+     * @return 响应报文，由调用方释放
+     */
+    public ByteBuf toStaleResponse(ByteBufAllocator alloc, int id, int staleTtl, byte[] qname) {
+        if (data.readableBytes() < 2) {
+            return data.duplicate();
+        }
+        ByteBuf response = copy(alloc, id, qname);
+        for (int offset : ttlOffsets) {
+            response.setInt(offset, staleTtl);
+        }
+        return response;
+    }
+
+    private ByteBuf copy(ByteBufAllocator alloc, int id, byte[] qname) {
+        int length = data.readableBytes();
+        ByteBuf response = alloc.directBuffer(length).writeBytes(data, data.readerIndex(), length);
+        response.setShort(0, id);
+        DnsUtils.restoreQuestionName(qname, response);
+        return response;
+    }
+
+    /**
+     * 是否仍在原始 TTL 内
+     */
+    public boolean isFresh() {
+        return System.currentTimeMillis() < getExpireTime();
+    }
+
+    /**
+     * 过期时间（毫秒时间戳）
+     */
+    public long getExpireTime() {
+        return createdTime + ttl * 1000L;
+    }
+
+    /**
+     * 复制响应数据为字节数组（管理接口使用）
+     */
+    public byte[] toByteArray() {
+        return ByteBufUtil.getBytes(data);
+    }
+
+    /**
+     * 缓存条目类型
+     */
+    public enum Kind {
+        /**
+         * 有回答记录的正常应答
+         */
+        POSITIVE,
+        /**
+         * NXDOMAIN 或 NODATA，按 SOA 计算 TTL
+         */
+        NEGATIVE,
+        /**
+         * 上游返回的 SERVFAIL，短暂缓存
+         */
+        SERVFAIL
+    }
 }
@@ -0,0 +1,221 @@
+package com.npc2048.dns.model;
+
+import io.netty.buffer.ByteBuf;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+import java.util.Arrays;
+
+/**
+ * DNS 缓存键
+ * <p>
+ * 不可变，保存小写化的线格式名称、QTYPE、QCLASS 以及影响应答内容的 DO/CD 位，
+ * 哈希值在构造时计算。直接从请求报文构造，名称大小写不同的查询共享同一缓存项
+ *
+ * @author yuelong.liang
+ */
+public final class DnsCacheKey {
+
+    /**
+     * 标志位：EDNS DO
+     */
+    public static final int FLAG_DNSSEC_OK = 0x1;
+
+    /**
+     * 标志位：CD
+     */
+    public static final int FLAG_CHECKING_DISABLED = 0x2;
+
+    /**
+     * 小写线格式名称（含根标签）
+     */
+    private final byte[] name;
+
+    /**
+     * 查询类型
+     */
+    private final int qtype;
+
+    /**
+     * 查询类
+     */
+    private final int qclass;
+
+    /**
+     * DO/CD 标志
+     */
+    private final int flags;
+
+    /**
+     * 预计算的哈希值
+     */
+    private final int hash;
+
+    private DnsCacheKey(byte[] name, int qtype, int qclass, int flags) {
+        this.name = name;
+        this.qtype = qtype;
+        this.qclass = qclass;
+        this.flags = flags;
+        int h = Arrays.hashCode(name);
+        h = 31 * h + qtype;
+        h = 31 * h + qclass;
+        this.hash = 31 * h + flags;
+    }
+
+    /**
+     * 从请求报文构造缓存键
+     *
+     * @param buf   请求报文
+     * @param query 解码后的问题段
+     * @return 缓存键
+     */
+    public static DnsCacheKey fromWire(ByteBuf buf, DnsWireQuery query) {
+        byte[] name = new byte[query.nameLength()];
+        buf.getBytes(buf.readerIndex() + query.nameOffset(), name);
+        // 标签长度字节均小于 'A'，可以整体按 ASCII 小写化
+        for (int i = 0; i < name.length; i++) {
+            byte b = name[i];
+            if (b >= 'A' && b <= 'Z') {
+                name[i] = (byte) (b + ('a' - 'A'));
+            }
+        }
+        return new DnsCacheKey(name, query.qtype(), query.qclass(),
+                flags(query.dnssecOk(), query.checkingDisabled()));
+    }
+
+    /**
+     * 从 dnsjava 名称构造缓存键
+     *
+     * @param name             查询名称
+     * @param qtype            查询类型
+     * @param qclass           查询类
+     * @param dnssecOk         DO 位
+     * @param checkingDisabled CD 位
+     * @return 缓存键
+     */
+    public static DnsCacheKey of(Name name, int qtype, int qclass, boolean dnssecOk, boolean checkingDisabled) {
+        return new DnsCacheKey(name.toWireCanonical(), qtype, qclass, flags(dnssecOk, checkingDisabled));
+    }
+
+    /**
+     * 解析 {@link #toString()} 的文本形式，如 {@code example.com:A}
+     *
+     * @param text 文本形式的缓存键
+     * @return 缓存键
+     * @throws IllegalArgumentException 格式不合法
+     */
+    public static DnsCacheKey parse(String text) {
+        int separator = text.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("缓存键格式应为 域名:类型");
+        }
+        String domain = text.substring(0, separator);
+        String typeText = text.substring(separator + 1);
+        boolean dnssecOk = false;
+        boolean checkingDisabled = false;
+        int plus;
+        while ((plus = typeText.lastIndexOf('+')) > 0) {
+            String flag = typeText.substring(plus + 1);
+            dnssecOk |= "DO".equalsIgnoreCase(flag);
+            checkingDisabled |= "CD".equalsIgnoreCase(flag);
+            typeText = typeText.substring(0, plus);
+        }
+        int qclass = DClass.IN;
+        int slash = typeText.indexOf('/');
+        if (slash > 0) {
+            qclass = DClass.value(typeText.substring(slash + 1));
+            typeText = typeText.substring(0, slash);
+        }
+        int qtype = Type.value(typeText);
+        if (qtype < 0 || qclass < 0) {
+            throw new IllegalArgumentException("未知的查询类型: " + text.substring(separator + 1));
+        }
+        try {
+            return of(Name.fromString(domain, Name.root), qtype, qclass, dnssecOk, checkingDisabled);
+        } catch (TextParseException e) {
+            throw new IllegalArgumentException("域名不合法: " + domain, e);
+        }
+    }
+
+    private static int flags(boolean dnssecOk, boolean checkingDisabled) {
+        return (dnssecOk ? FLAG_DNSSEC_OK : 0) | (checkingDisabled ? FLAG_CHECKING_DISABLED : 0);
+    }
+
+    /**
+     * 获取域名文本（不带末尾点）
+     */
+    public String getDomain() {
+        if (name.length <= 1) {
+            return ".";
+        }
+        StringBuilder sb = new StringBuilder(name.length);
+        int offset = 0;
+        int labelLength;
+        while (offset < name.length && (labelLength = name[offset] & 0xFF) != 0) {
+            if (!sb.isEmpty()) {
+                sb.append('.');
+            }
+            for (int i = 1; i <= labelLength; i++) {
+                sb.append((char) (name[offset + i] & 0xFF));
+            }
+            offset += labelLength + 1;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 获取小写线格式名称（调用方不得修改）
+     */
+    public byte[] getName() {
+        return name;
+    }
+
+    public int getQtype() {
+        return qtype;
+    }
+
+    public int getQclass() {
+        return qclass;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DnsCacheKey other)) {
+            return false;
+        }
+        return hash == other.hash
+                && qtype == other.qtype
+                && qclass == other.qclass
+                && flags == other.flags
+                && Arrays.equals(name, other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(getDomain()).append(':').append(Type.string(qtype));
+        if (qclass != DClass.IN) {
+            sb.append('/').append(DClass.string(qclass));
+        }
+        if ((flags & FLAG_DNSSEC_OK) != 0) {
+            sb.append("+DO");
+        }
+        if ((flags & FLAG_CHECKING_DISABLED) != 0) {
+            sb.append("+CD");
+        }
+        return sb.toString();
+    }
+}
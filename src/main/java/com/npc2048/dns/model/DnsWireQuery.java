@@ -0,0 +1,37 @@
+package com.npc2048.dns.model;
+
+/**
+ * 从报文直接解码出的 DNS 查询头部与问题段
+ * <p>
+ * 偏移量均相对于报文起始位置（ByteBuf 的 readerIndex），名称本身不做拷贝
+ *
+ * @param id          事务 ID
+ * @param flags       报文头标志位
+ * @param qdCount     问题数
+ * @param anCount     回答记录数
+ * @param nsCount     授权记录数
+ * @param arCount     附加记录数
+ * @param nameOffset  问题名称起始偏移
+ * @param nameLength  问题名称的线格式长度（含根标签）
+ * @param qtype       查询类型
+ * @param qclass      查询类
+ * @param questionEnd 问题段结束偏移
+ * @param dnssecOk    EDNS OPT 记录中的 DO 位
+ * @author yuelong.liang
+ */
+public record DnsWireQuery(int id, int flags, int qdCount, int anCount, int nsCount, int arCount,
+                           int nameOffset, int nameLength, int qtype, int qclass, int questionEnd,
+                           boolean dnssecOk) {
+
+    /**
+     * CD（Checking Disabled）标志位
+     */
+    public static final int FLAG_CD = 0x0010;
+
+    /**
+     * 是否设置了 CD 位
+     */
+    public boolean checkingDisabled() {
+        return (flags & FLAG_CD) != 0;
+    }
+}
@@ -0,0 +1,62 @@
+package com.npc2048.dns.model;
+
+import org.xbill.DNS.Rcode;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/**
+ * 单次扫描上游响应报文得到的摘要信息
+ * <p>
+ * 偏移量均相对于报文起始位置
+ *
+ * @param rcode         响应码
+ * @param truncated     TC 标志
+ * @param answerCount   回答记录数
+ * @param minTtl        回答、授权、附加段（OPT 除外）中最小的 TTL，没有记录时为 -1
+ * @param soaTtl        授权段 SOA 记录的 TTL，没有 SOA 时为 -1
+ * @param soaMinimum    授权段 SOA 记录的 MINIMUM 字段，没有 SOA 时为 -1
+ * @param ttlOffsets    各资源记录 TTL 字段的偏移（OPT 除外）
+ * @param addressOffset 首个 A/AAAA 回答的 RDATA 偏移，没有时为 -1
+ * @param addressLength 首个 A/AAAA 回答的 RDATA 长度
+ * @author yuelong.liang
+ */
+public record DnsWireResponse(int rcode, boolean truncated, int answerCount, long minTtl,
+                              long soaTtl, long soaMinimum, int[] ttlOffsets,
+                              int addressOffset, int addressLength) {
+
+    /**
+     * 是否为否定应答（NXDOMAIN 或没有回答记录的 NOERROR/NODATA）
+     */
+    public boolean negative() {
+        return rcode == Rcode.NXDOMAIN || (rcode == Rcode.NOERROR && answerCount == 0);
+    }
+
+    /**
+     * 否定应答的缓存时间，按 RFC 2308 取 SOA 记录 TTL 与 MINIMUM 字段的较小值
+     *
+     * @return 否定缓存时间（秒），没有 SOA 时返回 -1
+     */
+    public long negativeTtl() {
+        return soaTtl < 0 ? -1 : Math.min(soaTtl, soaMinimum);
+    }
+
+    /**
+     * 首个 A/AAAA 回答的地址文本
+     *
+     * @param message 扫描时使用的响应报文
+     * @return 地址，没有地址记录时返回 null
+     */
+    public String address(byte[] message) {
+        if (addressOffset < 0) {
+            return null;
+        }
+        try {
+            return InetAddress.getByAddress(Arrays.copyOfRange(message, addressOffset, addressOffset + addressLength))
+                    .getHostAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.npc2048.dns.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 条件转发规则
+ * 域名后缀（含其所有子域名）的查询只发往指定分组的上游
+ *
+ * @author yuelong.liang
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ForwardRule {
+
+    /**
+     * 域名后缀列表，如 "corp.internal"、"*.svc.cluster.local"
+     */
+    private List<String> domains;
+
+    /**
+     * 目标上游分组（对应上游的 group）
+     */
+    private String group;
+}
@@ -0,0 +1,414 @@
+package com.npc2048.dns.model;
+
+import com.npc2048.dns.common.util.DomainSuffixTrie;
+import com.npc2048.dns.config.Constants;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.xbill.DNS.CNAMERecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.DNSOutput;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 本地权威数据
+ * <p>
+ * 由区域文件与 hosts 文件的记录构建，构建后不可变。每个 (名称, 类型) 预先编码为应答的回答段或授权段，
+ * 查询名称作为所有者时以指向问题段的压缩指针表示，通配符记录因此可以直接用于任意匹配的名称；
+ * 应答只需写入报文头、拷贝请求的问题段并追加预编码的数据。查表使用开放寻址哈希，直接读取小写线格式名称，不分配对象。
+ * <p>
+ * 名称存在但没有所查类型的记录时应答 NODATA，本地区域（有 SOA 的区域文件）内不存在的名称应答 NXDOMAIN，
+ * 两者都在授权段附带区域的 SOA；CNAME 在本地数据内最多跟随 {@link Constants#LOCAL_ZONE_MAX_CNAME_CHAIN} 次
+ *
+ * @author yuelong.liang
+ */
+public final class LocalZone {
+
+    public static final LocalZone EMPTY = new Builder().build();
+
+    /**
+     * 类型标记：名称存在时其他类型的应答（NODATA，或名称为 CNAME 时只含 CNAME 链）
+     */
+    private static final int OTHER_TYPES = 0x10000;
+
+    /**
+     * 类型标记：通配符记录，名称为去掉 "*" 标签后的父名称
+     */
+    private static final int WILDCARD = 0x20000;
+
+    private static final int FLAGS_AUTHORITATIVE = 0x8000 | 0x0400 | 0x0080;
+
+    private static final int FLAG_RD = 0x0100;
+
+    private final byte[][] names;
+    private final int[] types;
+    private final Answer[] answers;
+
+    /**
+     * 开放寻址哈希表，保存条目下标 + 1，0 表示空槽
+     */
+    private final int[] slots;
+
+    /**
+     * 本地区域 -> NXDOMAIN 应答
+     */
+    private final DomainSuffixTrie<Answer> zones;
+
+    private final int nameCount;
+    private final long dataBytes;
+
+    private LocalZone(byte[][] names, int[] types, Answer[] answers, DomainSuffixTrie<Answer> zones, int nameCount) {
+        this.names = names;
+        this.types = types;
+        this.answers = answers;
+        this.zones = zones;
+        this.nameCount = nameCount;
+        this.slots = new int[Math.max(Integer.highestOneBit(Math.max(names.length, 1)) << 2, 4)];
+        int mask = slots.length - 1;
+        long bytes = 0;
+        for (int i = 0; i < names.length; i++) {
+            int slot = hash(names[i], 0, types[i]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+            bytes += names[i].length + answers[i].sections.length;
+        }
+        this.dataBytes = bytes;
+    }
+
+    /**
+     * 查找本地应答
+     * <p>
+     * 依次查找精确名称、最近的通配符（遇到已存在的名称时停止，RFC 4592），最后判断是否位于本地区域内
+     *
+     * @param name  小写线格式名称（含根标签）
+     * @param qtype 查询类型
+     * @return 本地应答，不由本地数据负责时返回 null
+     */
+    public Answer lookup(byte[] name, int qtype) {
+        if (names.length == 0 && zones.size() == 0) {
+            return null;
+        }
+        Answer answer = get(name, 0, qtype);
+        if (answer == null) {
+            answer = get(name, 0, OTHER_TYPES);
+        }
+        if (answer != null) {
+            return answer;
+        }
+        for (int offset = 1 + (name[0] & 0xFF); offset < name.length; offset += 1 + (name[offset] & 0xFF)) {
+            answer = get(name, offset, WILDCARD | qtype);
+            if (answer == null) {
+                answer = get(name, offset, WILDCARD | OTHER_TYPES);
+            }
+            if (answer != null || get(name, offset, OTHER_TYPES) != null || name[offset] == 0) {
+                break;
+            }
+        }
+        return answer != null ? answer : zones.match(name);
+    }
+
+    /**
+     * 名称数（含通配符与空非终结名称）
+     */
+    public int getNameCount() {
+        return nameCount;
+    }
+
+    /**
+     * 预编码的 (名称, 类型) 条目数
+     */
+    public int getEntryCount() {
+        return names.length;
+    }
+
+    /**
+     * 本地区域数
+     */
+    public int getZoneCount() {
+        return zones.size();
+    }
+
+    /**
+     * 名称与预编码应答占用的字节数
+     */
+    public long getDataBytes() {
+        return dataBytes;
+    }
+
+    private Answer get(byte[] name, int from, int type) {
+        int mask = slots.length - 1;
+        for (int slot = hash(name, from, type) & mask; ; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (index < 0) {
+                return null;
+            }
+            byte[] candidate = names[index];
+            if (types[index] == type && Arrays.equals(candidate, 0, candidate.length, name, from, name.length)) {
+                return answers[index];
+            }
+        }
+    }
+
+    private static int hash(byte[] name, int from, int type) {
+        int h = type * 0x9E3779B1;
+        for (int i = from; i < name.length; i++) {
+            h = (h ^ name[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 预编码的本地应答
+     */
+    public static final class Answer {
+
+        /**
+         * 报文头标志位（不含 RD，RD 按请求回显）
+         */
+        private final int flags;
+        private final int anCount;
+        private final int nsCount;
+
+        /**
+         * 回答段与授权段
+         */
+        private final byte[] sections;
+
+        private Answer(int rcode, int anCount, int nsCount, byte[] sections) {
+            this.flags = FLAGS_AUTHORITATIVE | rcode;
+            this.anCount = anCount;
+            this.nsCount = nsCount;
+            this.sections = sections;
+        }
+
+        /**
+         * 合成应答（如拦截名单的黑洞地址），回答记录的所有者一律写为查询名称，记录自身的名称被忽略
+         *
+         * @param rcode   响应码
+         * @param records 回答记录
+         */
+        public static Answer synthesize(int rcode, List<Record> records) {
+            DNSOutput out = new DNSOutput();
+            for (Record record : records) {
+                Builder.writeRecord(out, record, true, record.getTTL());
+            }
+            return new Answer(rcode, records.size(), 0, out.toByteArray());
+        }
+
+        /**
+         * 生成应答报文：写入报文头，拷贝请求的问题段（保留名称大小写），追加预编码的数据
+         *
+         * @param alloc      分配器
+         * @param request    请求报文（从 readerIndex 开始）
+         * @param id         事务 ID
+         * @param nameLength 问题名称的线格式长度
+         * @return 应答报文，由调用方释放
+         */
+        public ByteBuf toResponse(ByteBufAllocator alloc, ByteBuf request, int id, int nameLength) {
+            int base = request.readerIndex();
+            int questionLength = nameLength + 4;
+            ByteBuf response = alloc.buffer(Constants.DNS_HEADER_LENGTH + questionLength + sections.length);
+            response.writeShort(id)
+                    .writeShort(flags | (request.getUnsignedShort(base + 2) & FLAG_RD))
+                    .writeShort(1)
+                    .writeShort(anCount)
+                    .writeShort(nsCount)
+                    .writeShort(0);
+            response.writeBytes(request, base + Constants.DNS_HEADER_LENGTH, questionLength);
+            return response.writeBytes(sections);
+        }
+
+        public int getRcode() {
+            return flags & 0xF;
+        }
+
+        public int getAnswerCount() {
+            return anCount;
+        }
+    }
+
+    /**
+     * 构建器
+     * <p>
+     * 同一名称的同类记录合并为一个 RRset；只接受 IN 类记录，区域之外的记录视为 hosts 数据（无 SOA）
+     */
+    public static final class Builder {
+
+        /**
+         * 名称 -> 类型 -> RRset，按加入顺序
+         */
+        private final Map<Name, Map<Integer, List<Record>>> rrsets = new LinkedHashMap<>();
+        private final Map<Name, SOARecord> soas = new LinkedHashMap<>();
+
+        /**
+         * 加入一条记录，SOA 记录同时声明一个本地区域
+         */
+        public Builder add(Record record) {
+            if (record.getDClass() != DClass.IN) {
+                return this;
+            }
+            Name name = lowerCase(record.getName());
+            if (record instanceof SOARecord soa) {
+                soas.putIfAbsent(name, soa);
+            }
+            List<Record> rrset = rrsets.computeIfAbsent(name, n -> new LinkedHashMap<>())
+                    .computeIfAbsent(record.getType(), t -> new ArrayList<>());
+            if (!rrset.contains(record)) {
+                rrset.add(record);
+            }
+            return this;
+        }
+
+        public LocalZone build() {
+            Map<Name, Map<Integer, Answer>> entries = new LinkedHashMap<>();
+            for (Map.Entry<Name, Map<Integer, List<Record>>> entry : rrsets.entrySet()) {
+                Name name = entry.getKey();
+                SOARecord soa = zoneOf(name);
+                Map<Integer, Answer> byType = entries.computeIfAbsent(name, n -> new LinkedHashMap<>());
+                List<Record> cname = entry.getValue().get(Type.CNAME);
+                if (cname != null) {
+                    addCname(cname.getFirst(), byType);
+                } else {
+                    entry.getValue().forEach((type, rrset) -> byType.put(type, answer(List.of(rrset))));
+                    byType.put(OTHER_TYPES, nodata(soa));
+                }
+                addEmptyNonTerminals(name, soa, entries);
+            }
+
+            List<byte[]> names = new ArrayList<>();
+            List<Integer> types = new ArrayList<>();
+            List<Answer> answers = new ArrayList<>();
+            entries.forEach((name, byType) -> {
+                boolean wildcard = name.isWild();
+                byte[] key = (wildcard ? new Name(name, 1) : name).toWireCanonical();
+                byType.forEach((type, answer) -> {
+                    names.add(key);
+                    types.add(wildcard ? WILDCARD | type : type);
+                    answers.add(answer);
+                });
+            });
+
+            DomainSuffixTrie.Builder<Answer> zones = DomainSuffixTrie.builder();
+            soas.forEach((origin, soa) -> zones.put(origin.toString(), negative(Rcode.NXDOMAIN, soa)));
+            return new LocalZone(names.toArray(new byte[0][]), types.stream().mapToInt(Integer::intValue).toArray(),
+                    answers.toArray(new Answer[0]), zones.build(), entries.size());
+        }
+
+        /**
+         * CNAME 名称：目标在本地数据内时按目标的每种类型生成 CNAME 链加目标 RRset 的应答，
+         * 其他类型只应答 CNAME 链
+         */
+        private void addCname(Record cname, Map<Integer, Answer> byType) {
+            List<List<Record>> chain = new ArrayList<>();
+            chain.add(List.of(cname));
+            Name target = lowerCase(((CNAMERecord) cname).getTarget());
+            Map<Integer, List<Record>> targetRrsets = rrsets.get(target);
+            while (targetRrsets != null && targetRrsets.containsKey(Type.CNAME)
+                    && chain.size() < Constants.LOCAL_ZONE_MAX_CNAME_CHAIN) {
+                Record next = targetRrsets.get(Type.CNAME).getFirst();
+                chain.add(List.of(next));
+                target = lowerCase(((CNAMERecord) next).getTarget());
+                targetRrsets = rrsets.get(target);
+            }
+            if (targetRrsets != null && !targetRrsets.containsKey(Type.CNAME)) {
+                targetRrsets.forEach((type, rrset) -> {
+                    List<List<Record>> answer = new ArrayList<>(chain);
+                    answer.add(rrset);
+                    byType.put(type, answer(answer));
+                });
+            }
+            byType.put(Type.CNAME, answer(List.of(List.of(cname))));
+            byType.put(OTHER_TYPES, answer(chain));
+        }
+
+        /**
+         * 区域内记录的上级名称（直到区域顶点）即使没有记录也存在，应答 NODATA 而不是 NXDOMAIN
+         */
+        private void addEmptyNonTerminals(Name name, SOARecord soa, Map<Name, Map<Integer, Answer>> entries) {
+            if (soa == null) {
+                return;
+            }
+            Name origin = soa.getName();
+            for (Name parent = parentOf(name); parent != null && parent.subdomain(origin) && !parent.equals(origin);
+                 parent = parentOf(parent)) {
+                if (rrsets.containsKey(parent)) {
+                    continue;
+                }
+                entries.computeIfAbsent(parent, n -> new LinkedHashMap<>()).putIfAbsent(OTHER_TYPES, nodata(soa));
+            }
+        }
+
+        private SOARecord zoneOf(Name name) {
+            SOARecord closest = null;
+            for (Map.Entry<Name, SOARecord> entry : soas.entrySet()) {
+                if (name.subdomain(entry.getKey())
+                        && (closest == null || entry.getKey().labels() > closest.getName().labels())) {
+                    closest = entry.getValue();
+                }
+            }
+            return closest;
+        }
+
+        private static Answer nodata(SOARecord soa) {
+            return negative(Rcode.NOERROR, soa);
+        }
+
+        private static Answer negative(int rcode, SOARecord soa) {
+            if (soa == null) {
+                return new Answer(rcode, 0, 0, new byte[0]);
+            }
+            DNSOutput out = new DNSOutput();
+            // 否定应答的 TTL 取 SOA 自身 TTL 与 MINIMUM 的较小者（RFC 2308）
+            writeRecord(out, soa, false, Math.min(soa.getTTL(), soa.getMinimum()));
+            return new Answer(rcode, 0, 1, out.toByteArray());
+        }
+
+        /**
+         * 编码回答段：第一个 RRset 的所有者为查询名称，以压缩指针表示；后续 RRset（CNAME 链上的名称）写完整名称
+         */
+        private static Answer answer(List<List<Record>> rrsets) {
+            DNSOutput out = new DNSOutput();
+            int count = 0;
+            for (int i = 0; i < rrsets.size(); i++) {
+                for (Record record : rrsets.get(i)) {
+                    writeRecord(out, record, i == 0, record.getTTL());
+                    count++;
+                }
+            }
+            return new Answer(Rcode.NOERROR, count, 0, out.toByteArray());
+        }
+
+        private static void writeRecord(DNSOutput out, Record record, boolean ownerIsQuestion, long ttl) {
+            if (ownerIsQuestion) {
+                out.writeU16(0xC000 | Constants.DNS_HEADER_LENGTH);
+            } else {
+                out.writeByteArray(record.getName().toWireCanonical());
+            }
+            byte[] rdata = record.rdataToWireCanonical();
+            out.writeU16(record.getType());
+            out.writeU16(record.getDClass());
+            out.writeU32(ttl);
+            out.writeU16(rdata.length);
+            out.writeByteArray(rdata);
+        }
+
+        private static Name parentOf(Name name) {
+            return name.labels() > 1 ? new Name(name, 1) : null;
+        }
+
+        private static Name lowerCase(Name name) {
+            return name.canonicalize();
+        }
+    }
+}
@@ -23,10 +23,30 @@ public class UpstreamDnsConfig {
     private String address;
 
     /**
-     * DNS 服务器端口，默认 53
+     * DNS 服务器端口，默认 53（DOT 默认 853，DOH 默认 443）
      */
     private Integer port;
 
+    /**
+     * 传输协议：UDP（默认，应答被截断时自动改用 TCP）、TCP、DOT、DOH
+     */
+    private String protocol;
+
+    /**
+     * TLS 服务器名称（SNI 与证书校验），DOT、DOH 使用，默认为 address
+     */
+    private String serverName;
+
+    /**
+     * DoH 请求路径，默认 "/dns-query"
+     */
+    private String path;
+
+    /**
+     * DoH 请求方法：POST（默认）、GET
+     */
+    private String httpMethod;
+
     /**
      * 查询超时时间（毫秒）
      */
@@ -52,6 +72,16 @@ public class UpstreamDnsConfig {
      */
     private Integer priority;
 
+    /**
+     * 权重（加权轮询策略使用，默认 1）
+     */
+    private Integer weight;
+
+    /**
+     * 所属上游分组，未配置时为 "default"；转发规则把域名后缀路由到分组
+     */
+    private String group;
+
     /**
      * 代理配置
      */
@@ -0,0 +1,530 @@
+package com.npc2048.dns.model;
+
+import com.npc2048.dns.config.Constants;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 上游 DNS 运行状态
+ * <p>
+ * 以地址和端口标识，配置变更后同一上游的统计保留；配置本身替换为新的对象
+ *
+ * @author yuelong.liang
+ */
+public class UpstreamState {
+
+    /**
+     * 分位数快照的刷新间隔（样本数）
+     */
+    private static final int PERCENTILE_REFRESH_INTERVAL = 16;
+
+    /**
+     * 标识：地址:端口
+     */
+    @Getter
+    private final String key;
+
+    /**
+     * 当前配置
+     */
+    @Getter
+    private volatile UpstreamDnsConfig config;
+
+    /**
+     * RTT 的指数加权移动平均（纳秒），尚无样本时为 -1
+     */
+    private final AtomicLong ewmaRttNanos = new AtomicLong(-1);
+
+    /**
+     * 最近一次 RTT（纳秒）
+     */
+    private volatile long lastRttNanos = -1;
+
+    /**
+     * RFC 6298 重传超时估算：平滑 RTT、RTT 偏差（纳秒，尚无样本时为 -1）与连续超时的退避次数，
+     * 由 {@link #rtoLock} 保护
+     */
+    private final Object rtoLock = new Object();
+    private long srttNanos = -1;
+    private long rttvarNanos = -1;
+    private int rtoBackoff;
+
+    /**
+     * 并发控制：在途查询数、排队数与等待额度的任务；限制值与最近一次减小的时间由 {@link #limitLock} 保护
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Runnable> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 当前线程是否正在执行本上游的排队任务，嵌套的释放只归还额度，由外层循环继续执行
+     */
+    private final ThreadLocal<Boolean> draining = ThreadLocal.withInitial(() -> Boolean.FALSE);
+    private final Object limitLock = new Object();
+    private volatile double concurrencyLimit = Constants.CONCURRENCY_LIMIT_INITIAL;
+    private long lastDecreaseNanos;
+
+    /**
+     * 最近 RTT 样本的环形窗口（纳秒）
+     */
+    private final AtomicLongArray rttWindow = new AtomicLongArray(Constants.UPSTREAM_RTT_WINDOW_SIZE);
+    private final AtomicLong rttSamples = new AtomicLong();
+
+    /**
+     * 窗口的有序快照，每 {@link #PERCENTILE_REFRESH_INTERVAL} 个样本刷新一次，读取分位数时无需排序
+     */
+    private volatile long[] sortedRtts = new long[0];
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder errorResponses = new LongAdder();
+
+    /**
+     * 连续失败次数，正常应答后清零
+     */
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    /**
+     * 熔断状态
+     */
+    private final AtomicReference<CircuitState> circuitState = new AtomicReference<>(CircuitState.CLOSED);
+
+    /**
+     * 熔断状态最近一次变化的时间戳（毫秒），从未变化时为 0
+     */
+    private volatile long circuitChangedTime;
+
+    public UpstreamState(String key, UpstreamDnsConfig config) {
+        this.key = key;
+        this.config = config;
+    }
+
+    /**
+     * 计算上游标识，UDP 上游为 "地址:端口"，其他协议加协议前缀（如 "tcp://地址:端口"）
+     */
+    public static String keyOf(UpstreamDnsConfig config) {
+        String protocol = protocolOf(config);
+        String address = config.getAddress() + ":" + portOf(config);
+        return Constants.UPSTREAM_PROTOCOL_UDP.equals(protocol) ? address : protocol.toLowerCase() + "://" + address;
+    }
+
+    /**
+     * 上游使用的传输协议（大写），未配置时为 UDP
+     */
+    public static String protocolOf(UpstreamDnsConfig config) {
+        String protocol = config.getProtocol();
+        return protocol == null || protocol.isBlank() ? Constants.UPSTREAM_PROTOCOL_UDP : protocol.trim().toUpperCase();
+    }
+
+    /**
+     * 上游端口，未配置时使用协议的默认端口
+     */
+    public static int portOf(UpstreamDnsConfig config) {
+        if (config.getPort() != null) {
+            return config.getPort();
+        }
+        return switch (protocolOf(config)) {
+            case Constants.UPSTREAM_PROTOCOL_DOH -> Constants.DEFAULT_DOH_PORT;
+            case Constants.UPSTREAM_PROTOCOL_DOT -> Constants.DEFAULT_DOT_PORT;
+            default -> Constants.DEFAULT_DNS_PORT;
+        };
+    }
+
+    /**
+     * TLS 服务器名称（SNI 与证书校验），未配置时使用上游地址
+     */
+    public static String serverNameOf(UpstreamDnsConfig config) {
+        String serverName = config.getServerName();
+        return serverName == null || serverName.isBlank() ? config.getAddress() : serverName.trim();
+    }
+
+    /**
+     * 上游所属分组，未配置时为 default
+     */
+    public static String groupOf(UpstreamDnsConfig config) {
+        String group = config.getGroup();
+        return group == null || group.isBlank() ? Constants.DEFAULT_UPSTREAM_GROUP : group.trim();
+    }
+
+    /**
+     * 更新配置（统计保留）
+     */
+    public void updateConfig(UpstreamDnsConfig config) {
+        this.config = config;
+    }
+
+    public int getPriority() {
+        return config.getPriority() != null ? config.getPriority() : Constants.DEFAULT_UPSTREAM_PRIORITY;
+    }
+
+    public int getWeight() {
+        return config.getWeight() != null ? Math.max(config.getWeight(), 1) : Constants.DEFAULT_UPSTREAM_WEIGHT;
+    }
+
+    /**
+     * 记录一次正常应答
+     *
+     * @param rttNanos 往返时间（纳秒）
+     */
+    public void recordSuccess(long rttNanos) {
+        queries.increment();
+        consecutiveFailures.set(0);
+        recordRtt(rttNanos);
+    }
+
+    /**
+     * 记录一次 SERVFAIL/REFUSED 等错误应答
+     *
+     * @param rttNanos 往返时间（纳秒）
+     * @return 连续失败次数
+     */
+    public int recordErrorResponse(long rttNanos) {
+        queries.increment();
+        errorResponses.increment();
+        recordRtt(rttNanos);
+        return consecutiveFailures.incrementAndGet();
+    }
+
+    /**
+     * 记录一次超时或发送失败，以等待时长作为 RTT 样本，使慢或失联的上游的平均延迟升高
+     *
+     * @param elapsedNanos 等待时长（纳秒）
+     * @return 连续失败次数
+     */
+    public int recordFailure(long elapsedNanos) {
+        queries.increment();
+        failures.increment();
+        updateEwma(elapsedNanos);
+        backoffRto();
+        return consecutiveFailures.incrementAndGet();
+    }
+
+    /**
+     * 记录一次在总期限内未等满上游自身 timeout 的超时
+     * <p>
+     * 以等待时长作为 RTT 样本，但不计入失败与连续失败次数：期限内没有应答不代表上游不可用
+     *
+     * @param elapsedNanos 等待时长（纳秒）
+     */
+    public void recordAttemptTimeout(long elapsedNanos) {
+        queries.increment();
+        updateEwma(elapsedNanos);
+    }
+
+    /**
+     * 重传计时器到期，RTO 翻倍，直到下一个有效样本（RFC 6298 5.5）
+     */
+    public void backoffRto() {
+        synchronized (rtoLock) {
+            rtoBackoff = Math.min(rtoBackoff + 1, Constants.RTO_MAX_BACKOFF);
+        }
+    }
+
+    /**
+     * 熔断是否打开
+     */
+    public boolean isCircuitOpen() {
+        return circuitState.get() == CircuitState.OPEN;
+    }
+
+    /**
+     * 打开熔断
+     *
+     * @return 本次调用是否完成了状态切换
+     */
+    public boolean openCircuit() {
+        return transition(CircuitState.CLOSED, CircuitState.OPEN);
+    }
+
+    /**
+     * 关闭熔断
+     *
+     * @return 本次调用是否完成了状态切换
+     */
+    public boolean closeCircuit() {
+        return transition(CircuitState.OPEN, CircuitState.CLOSED);
+    }
+
+    /**
+     * 健康状态
+     */
+    public Map<String, Object> getHealth() {
+        Map<String, Object> health = new LinkedHashMap<>();
+        health.put("upstream", key);
+        health.put("circuit", circuitState.get().name());
+        health.put("consecutiveFailures", consecutiveFailures.get());
+        health.put("circuitChangedTime", circuitChangedTime);
+        return health;
+    }
+
+    /**
+     * RTT 的指数加权移动平均（毫秒），尚无样本时返回 -1
+     */
+    public double getEwmaRttMillis() {
+        long ewma = ewmaRttNanos.get();
+        return ewma < 0 ? -1 : ewma / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * RTT 的指数加权移动平均（纳秒），尚无样本时返回 -1
+     */
+    public long getEwmaRttNanos() {
+        return ewmaRttNanos.get();
+    }
+
+    /**
+     * 是否还有并发额度
+     */
+    public boolean hasCapacity() {
+        return inFlight.get() < limit();
+    }
+
+    /**
+     * 在并发额度内执行任务，额度已满时排队，由 {@link #release()} 释放额度后依次执行
+     * <p>
+     * 任务执行时已持有一个额度，完成后必须调用 {@link #release()}
+     *
+     * @param task      任务
+     * @param maxQueued 最大排队数
+     * @return 是否已执行或排队，排队已满时返回 false
+     */
+    public boolean submit(Runnable task, int maxQueued) {
+        if (tryAcquire()) {
+            task.run();
+            return true;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            return false;
+        }
+        waiters.offer(task);
+        // 入队前额度可能刚好被释放
+        drain();
+        return true;
+    }
+
+    /**
+     * 释放一个并发额度，并执行排队的任务
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+    /**
+     * 加性增大：只在额度使用过半时增大，约每一轮满额应答增加 1
+     *
+     * @param max 上限
+     */
+    public void increaseLimit(int max) {
+        synchronized (limitLock) {
+            double limit = concurrencyLimit;
+            if (inFlight.get() * 2 >= limit) {
+                limit += 1 / limit;
+            }
+            // 上限可能在运行时调小
+            concurrencyLimit = Math.min(max, limit);
+        }
+    }
+
+    /**
+     * 乘性减小：同一波超时（间隔不足平滑 RTT 与最小间隔的较大者）只减小一次
+     *
+     * @param min 下限
+     */
+    public void decreaseLimit(int min) {
+        synchronized (limitLock) {
+            long now = System.nanoTime();
+            long interval = TimeUnit.MILLISECONDS.toNanos(Constants.CONCURRENCY_LIMIT_DECREASE_INTERVAL);
+            synchronized (rtoLock) {
+                interval = Math.max(interval, srttNanos);
+            }
+            if (lastDecreaseNanos != 0 && now - lastDecreaseNanos < interval) {
+                return;
+            }
+            lastDecreaseNanos = now;
+            concurrencyLimit = Math.max(min, concurrencyLimit * Constants.CONCURRENCY_LIMIT_BACKOFF_RATIO);
+        }
+    }
+
+    private int limit() {
+        return Math.max(1, (int) concurrencyLimit);
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit()) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void drain() {
+        if (draining.get()) {
+            return;
+        }
+        draining.set(Boolean.TRUE);
+        try {
+            while (!waiters.isEmpty() && tryAcquire()) {
+                Runnable task = waiters.poll();
+                if (task == null) {
+                    inFlight.decrementAndGet();
+                    continue;
+                }
+                queued.decrementAndGet();
+                task.run();
+            }
+        } finally {
+            draining.set(Boolean.FALSE);
+        }
+    }
+
+    /**
+     * 重传超时 RTO = SRTT + max(G, 4 * RTTVAR)，连续超时后按退避次数翻倍
+     *
+     * @return RTO（毫秒），尚无样本时返回 -1
+     */
+    public long getRtoMillis() {
+        synchronized (rtoLock) {
+            if (srttNanos < 0) {
+                return -1;
+            }
+            long granularity = TimeUnit.MILLISECONDS.toNanos(Constants.UPSTREAM_TIMER_TICK_MS);
+            long rto = srttNanos + Math.max(granularity, 4 * rttvarNanos);
+            return TimeUnit.NANOSECONDS.toMillis(rto) << rtoBackoff;
+        }
+    }
+
+    /**
+     * 最近样本的 RTT 分位数（纳秒）
+     *
+     * @param percentile 分位数（1-100）
+     * @return RTT，样本不足时返回 -1
+     */
+    public long getRttPercentileNanos(int percentile) {
+        long[] sorted = sortedRtts;
+        if (sorted.length < Constants.UPSTREAM_RTT_MIN_SAMPLES) {
+            return -1;
+        }
+        int index = (int) Math.ceil(Math.clamp(percentile, 1, 100) / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)];
+    }
+
+    /**
+     * 运行统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("upstream", key);
+        stats.put("group", groupOf(config));
+        stats.put("priority", getPriority());
+        stats.put("weight", getWeight());
+        stats.put("enabled", Boolean.TRUE.equals(config.getEnabled()));
+        stats.put("queries", queries.sum());
+        stats.put("failures", failures.sum());
+        stats.put("errorResponses", errorResponses.sum());
+        stats.put("ewmaRttMs", round(getEwmaRttMillis()));
+        stats.put("lastRttMs", lastRttNanos < 0 ? -1 : round(lastRttNanos / (double) TimeUnit.MILLISECONDS.toNanos(1)));
+        synchronized (rtoLock) {
+            stats.put("srttMs", toMillis(srttNanos));
+            stats.put("rttvarMs", toMillis(rttvarNanos));
+        }
+        stats.put("rtoMs", getRtoMillis());
+        stats.put("p90RttMs", toMillis(getRttPercentileNanos(90)));
+        stats.put("p95RttMs", toMillis(getRttPercentileNanos(95)));
+        stats.put("circuit", circuitState.get().name());
+        stats.put("consecutiveFailures", consecutiveFailures.get());
+        stats.put("concurrencyLimit", limit());
+        stats.put("inFlight", inFlight.get());
+        stats.put("queued", queued.get());
+        return stats;
+    }
+
+    private boolean transition(CircuitState from, CircuitState to) {
+        if (circuitState.compareAndSet(from, to)) {
+            circuitChangedTime = System.currentTimeMillis();
+            return true;
+        }
+        return false;
+    }
+
+    private void recordRtt(long rttNanos) {
+        lastRttNanos = rttNanos;
+        updateEwma(rttNanos);
+        updateRto(rttNanos);
+        long count = rttSamples.incrementAndGet();
+        rttWindow.set((int) ((count - 1) % rttWindow.length()), rttNanos);
+        if (count % PERCENTILE_REFRESH_INTERVAL == 0) {
+            int size = (int) Math.min(count, rttWindow.length());
+            long[] snapshot = new long[size];
+            for (int i = 0; i < size; i++) {
+                snapshot[i] = rttWindow.get(i);
+            }
+            Arrays.sort(snapshot);
+            sortedRtts = snapshot;
+        }
+    }
+
+    /**
+     * RFC 6298 2.2/2.3：首个样本 SRTT = R、RTTVAR = R/2，之后 RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|，
+     * SRTT = 7/8 SRTT + 1/8 R；有效样本清除退避
+     */
+    private void updateRto(long rttNanos) {
+        synchronized (rtoLock) {
+            if (srttNanos < 0) {
+                srttNanos = rttNanos;
+                rttvarNanos = rttNanos / 2;
+            } else {
+                rttvarNanos = (3 * rttvarNanos + Math.abs(srttNanos - rttNanos)) / 4;
+                srttNanos = (7 * srttNanos + rttNanos) / 8;
+            }
+            rtoBackoff = 0;
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos < 0 ? -1 : round(nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private void updateEwma(long sampleNanos) {
+        long previous;
+        long next;
+        do {
+            previous = ewmaRttNanos.get();
+            next = previous < 0
+                    ? sampleNanos
+                    : previous + (long) (Constants.UPSTREAM_RTT_EWMA_ALPHA * (sampleNanos - previous));
+        } while (!ewmaRttNanos.compareAndSet(previous, next));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    /**
+     * 熔断状态
+     */
+    public enum CircuitState {
+        /**
+         * 正常参与选择
+         */
+        CLOSED,
+        /**
+         * 已熔断，只接受后台探测
+         */
+        OPEN
+    }
+}
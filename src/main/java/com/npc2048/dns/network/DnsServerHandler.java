@@ -1,7 +1,13 @@
 package com.npc2048.dns.network;
 
+import com.npc2048.dns.common.util.DnsUtils;
+import com.npc2048.dns.common.util.DnsWireDecoder;
+import com.npc2048.dns.model.DnsCacheKey;
+import com.npc2048.dns.model.DnsWireQuery;
 import com.npc2048.dns.service.DnsService;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.socket.DatagramPacket;
@@ -9,8 +15,8 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.xbill.DNS.*;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 
 /**
  * Netty DNS request handler
@@ -25,52 +31,89 @@ public class DnsServerHandler extends SimpleChannelInboundHandler<DatagramPacket
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+        InetSocketAddress sender = packet.sender();
         try {
-            // 读取请求数据
             ByteBuf content = packet.content();
-            byte[] requestData = new byte[content.readableBytes()];
-            content.readBytes(requestData);
 
-            // 解析 DNS 请求
-            Message dnsQuery = new Message(requestData);
-            org.xbill.DNS.Record question = dnsQuery.getQuestion();
-
-            if (question == null) {
-                log.warn("Invalid DNS request: no question found");
-                sendErrorResponse(ctx, packet, dnsQuery.getHeader().getID());
+            // 常规查询直接在 ByteBuf 上解码头部和问题段，不拷贝、不完整解析
+            DnsWireQuery query = DnsWireDecoder.decodeQuery(content);
+            if (query == null) {
+                handleWithDnsjava(ctx, sender, content);
                 return;
             }
 
-            String domain = question.getName().toString(true);
-            int type = question.getType();
+            // Handle DNS query asynchronously, the response is written from the completion callback
+            // so a slow upstream never holds the event loop
+            int id = query.id();
+            dnsService.handleDnsQuery(query, content)
+                    .whenComplete((responseData, e) -> writeResult(ctx, sender, id, responseData, e));
 
-            log.debug("Received DNS query: {} type: {}", domain, Type.string(type));
+        } catch (Exception e) {
+            log.error("Failed to handle DNS request", e);
+            sendErrorResponse(ctx, sender, 0);
+        }
+    }
 
-            // Handle DNS query (synchronous call)
-            byte[] responseData = dnsService.handleDnsQuery(domain, type, requestData);
+    /**
+     * Fall back to a full dnsjava parse for packets the wire decoder does not handle
+     */
+    private void handleWithDnsjava(ChannelHandlerContext ctx, InetSocketAddress sender, ByteBuf content)
+            throws IOException {
+        byte[] requestData = ByteBufUtil.getBytes(content);
+
+        // 解析 DNS 请求
+        Message dnsQuery = new Message(requestData);
+        org.xbill.DNS.Record question = dnsQuery.getQuestion();
+        int id = dnsQuery.getHeader().getID();
+
+        if (question == null) {
+            log.warn("Invalid DNS request: no question found");
+            sendErrorResponse(ctx, sender, id);
+            return;
+        }
 
-            // 发送响应
-            if (responseData != null && responseData.length > 0) {
-                sendResponse(ctx, packet, responseData);
-            } else {
-                log.warn("DNS query returned empty response: {}", domain);
-                sendErrorResponse(ctx, packet, dnsQuery.getHeader().getID());
-            }
+        String domain = question.getName().toString(true);
+        int type = question.getType();
 
-        } catch (Exception e) {
-            log.error("Failed to handle DNS request", e);
-            sendErrorResponse(ctx, packet, 0);
+        log.debug("Received DNS query: {} type: {}", domain, Type.string(type));
+
+        // 线路解码器不接受的问题段（如压缩指针）无法在上游按问题段匹配响应，按 dnsjava 的解析结果重新编码
+        if (DnsUtils.questionEnd(requestData) < 0) {
+            requestData = dnsQuery.toWire();
         }
+
+        OPTRecord opt = dnsQuery.getOPT();
+        DnsCacheKey key = DnsCacheKey.of(question.getName(), type, question.getDClass(),
+                opt != null && (opt.getFlags() & ExtendedFlags.DO) != 0,
+                dnsQuery.getHeader().getFlag(Flags.CD));
+        dnsService.handleDnsQuery(key, requestData)
+                .whenComplete((responseData, e) -> writeResult(ctx, sender, id, responseData, e));
     }
 
     /**
-     * Send DNS response
+     * Write query result or SERVFAIL
      */
-    private void sendResponse(ChannelHandlerContext ctx, DatagramPacket packet, byte[] responseData) {
-        ByteBuf buf = ctx.alloc().buffer(responseData.length);
-        buf.writeBytes(responseData);
+    private void writeResult(ChannelHandlerContext ctx, InetSocketAddress sender, int id, ByteBuf responseData,
+                             Throwable e) {
+        if (e != null) {
+            log.error("Failed to handle DNS request", e);
+            sendErrorResponse(ctx, sender, id);
+        } else if (responseData != null && responseData.isReadable()) {
+            sendResponse(ctx, sender, responseData);
+        } else {
+            log.warn("DNS query returned empty response, id: {}", id);
+            if (responseData != null) {
+                responseData.release();
+            }
+            sendErrorResponse(ctx, sender, id);
+        }
+    }
 
-        DatagramPacket response = new DatagramPacket(buf, packet.sender());
+    /**
+     * Send DNS response, the buffer is released once written
+     */
+    private void sendResponse(ChannelHandlerContext ctx, InetSocketAddress recipient, ByteBuf responseData) {
+        DatagramPacket response = new DatagramPacket(responseData, recipient);
         ctx.writeAndFlush(response).addListener(future -> {
             if (!future.isSuccess()) {
                 log.error("Failed to send DNS response", future.cause());
@@ -81,7 +124,7 @@ public class DnsServerHandler extends SimpleChannelInboundHandler<DatagramPacket
     /**
      * Send error response
      */
-    private void sendErrorResponse(ChannelHandlerContext ctx, DatagramPacket packet, int id) {
+    private void sendErrorResponse(ChannelHandlerContext ctx, InetSocketAddress recipient, int id) {
         try {
             Message response = new Message(id);
             Header header = response.getHeader();
@@ -90,7 +133,7 @@ public class DnsServerHandler extends SimpleChannelInboundHandler<DatagramPacket
             header.setFlag(Flags.RA);
 
             byte[] errorData = response.toWire();
-            sendResponse(ctx, packet, errorData);
+            sendResponse(ctx, recipient, Unpooled.wrappedBuffer(errorData));
         } catch (Exception e) {
             log.error("Failed to build error response", e);
         }
@@ -0,0 +1,535 @@
+package com.npc2048.dns.network;
+
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.model.UpstreamDnsConfig;
+import com.npc2048.dns.model.UpstreamState;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.DefaultHttp2PingFrame;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2GoAwayFrame;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2PingFrame;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.resolver.DefaultAddressResolverGroup;
+import io.netty.resolver.NoopAddressResolverGroup;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.Future;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.net.ssl.SSLException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 上游 DNS-over-HTTPS 传输（RFC 8484）
+ * <p>
+ * 每个上游保持少量 HTTP/2 长连接（TLS + ALPN h2），每个查询占用连接上的一个流，
+ * 同一连接并发承载多个查询，避免逐个查询握手。请求体为 DNS 线格式，支持 POST 与 GET（base64url 编码的 dns 参数），
+ * 事务 ID 按 RFC 8484 置 0 以利于 HTTP 缓存，收到应答后还原为请求 ID。
+ * 连接无数据读入时发送 PING 保活，PING 未确认或无查询超过 {@link Constants#UPSTREAM_DOH_IDLE_TIMEOUT} 时关闭，
+ * 下次查询时重新建立。上游启用代理时经 SOCKS5 CONNECT 或 HTTP CONNECT 建立隧道
+ *
+ * @author yuelong.liang
+ */
+@Slf4j
+@Component
+public class DohUpstreamTransport implements UpstreamTransport {
+
+    private final EventLoopGroup upstreamEventLoopGroup;
+    private final HashedWheelTimer upstreamTimer;
+    private final SslContext sslContext;
+
+    /**
+     * 上游标识 -> 连接池
+     */
+    private final ConcurrentHashMap<String, DohConnectionPool> pools = new ConcurrentHashMap<>();
+
+    @Autowired
+    public DohUpstreamTransport(EventLoopGroup upstreamEventLoopGroup, HashedWheelTimer upstreamTimer) {
+        this(upstreamEventLoopGroup, upstreamTimer, sslContext(SslContextBuilder.forClient()));
+    }
+
+    DohUpstreamTransport(EventLoopGroup upstreamEventLoopGroup, HashedWheelTimer upstreamTimer, SslContext sslContext) {
+        this.upstreamEventLoopGroup = upstreamEventLoopGroup;
+        this.upstreamTimer = upstreamTimer;
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * 创建协商 HTTP/2 的客户端 TLS 上下文，校验证书与主机名，启用会话缓存
+     *
+     * @param builder 客户端 TLS 上下文构建器（信任库等已设置）
+     */
+    static SslContext sslContext(SslContextBuilder builder) {
+        try {
+            return builder
+                    .endpointIdentificationAlgorithm("HTTPS")
+                    .sessionCacheSize(Constants.UPSTREAM_TLS_SESSION_CACHE_SIZE)
+                    .sessionTimeout(Constants.UPSTREAM_TLS_SESSION_TIMEOUT)
+                    .ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+                    .applicationProtocolConfig(new ApplicationProtocolConfig(
+                            ApplicationProtocolConfig.Protocol.ALPN,
+                            ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                            ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                            ApplicationProtocolNames.HTTP_2))
+                    .build();
+        } catch (SSLException e) {
+            throw new IllegalStateException("创建 DoH TLS 上下文失败", e);
+        }
+    }
+
+    @Override
+    public String getProtocol() {
+        return Constants.UPSTREAM_PROTOCOL_DOH;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> exchange(UpstreamDnsConfig upstream, byte[] requestData, long timeoutMs) {
+        if (requestData.length < Constants.DNS_HEADER_LENGTH) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("DNS 请求过短"));
+        }
+        UpstreamDnsConfig.ProxyConfig proxyConfig = UpstreamProxy.of(upstream);
+        if (proxyConfig != null && !UpstreamProxy.isValid(proxyConfig)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("代理配置无效: " + UpstreamProxy.describe(proxyConfig)));
+        }
+        String key = UpstreamState.keyOf(upstream);
+        DohConnectionPool pool = pools.get(key);
+        if (pool == null || !pool.matches(upstream)) {
+            // 服务器名称或代理变更时换用新的连接池
+            pool = pools.compute(key, (k, existing) -> {
+                if (existing != null && existing.matches(upstream)) {
+                    return existing;
+                }
+                if (existing != null) {
+                    existing.close();
+                }
+                return new DohConnectionPool(upstream);
+            });
+        }
+        return pool.exchange(upstream, requestData, timeoutMs);
+    }
+
+    @Override
+    public void retain(Collection<String> keys) {
+        pools.entrySet().removeIf(entry -> {
+            if (keys.contains(entry.getKey())) {
+                return false;
+            }
+            log.info("关闭已移除上游的 DoH 连接: {}", entry.getKey());
+            entry.getValue().close();
+            return true;
+        });
+    }
+
+    /**
+     * 关闭所有上游连接
+     */
+    @PreDestroy
+    public void shutdown() {
+        pools.values().forEach(DohConnectionPool::close);
+        pools.clear();
+    }
+
+    /**
+     * 一条 HTTP/2 连接
+     */
+    private static final class Connection {
+
+        /**
+         * TLS 握手并协商出 h2 后完成
+         */
+        private final CompletableFuture<Channel> ready = new CompletableFuture<>();
+
+        private volatile Channel channel;
+
+        /**
+         * 已收到 GOAWAY，不再承载新的查询
+         */
+        private volatile boolean draining;
+
+        private volatile long lastUsedNanos = System.nanoTime();
+
+        /**
+         * 连接中或已就绪且仍然打开
+         */
+        private boolean usable() {
+            if (!ready.isDone()) {
+                return true;
+            }
+            Channel readyChannel = ready.isCompletedExceptionally() ? null : ready.getNow(null);
+            return readyChannel != null && readyChannel.isActive() && !draining;
+        }
+    }
+
+    /**
+     * 单个上游的 HTTP/2 连接池
+     */
+    private final class DohConnectionPool {
+
+        private final InetSocketAddress remote;
+        private final String serverName;
+        private final String authority;
+
+        /**
+         * 代理配置，为 null 时直连
+         */
+        private final UpstreamDnsConfig.ProxyConfig proxyConfig;
+        private final Connection[] slots = new Connection[Constants.UPSTREAM_DOH_POOL_SIZE];
+        private final AtomicInteger next = new AtomicInteger();
+
+        private DohConnectionPool(UpstreamDnsConfig upstream) {
+            int port = UpstreamState.portOf(upstream);
+            this.remote = UpstreamProxy.remoteOf(upstream, port);
+            this.serverName = UpstreamState.serverNameOf(upstream);
+            this.authority = port == Constants.DEFAULT_DOH_PORT ? serverName : serverName + ":" + port;
+            this.proxyConfig = UpstreamProxy.of(upstream);
+        }
+
+        private boolean matches(UpstreamDnsConfig upstream) {
+            return Objects.equals(serverName, UpstreamState.serverNameOf(upstream))
+                    && Objects.equals(proxyConfig, UpstreamProxy.of(upstream));
+        }
+
+        private CompletableFuture<byte[]> exchange(UpstreamDnsConfig upstream, byte[] requestData, long timeoutMs) {
+            CompletableFuture<byte[]> future = new CompletableFuture<>();
+            // 建立连接与握手的时间计入本次超时
+            Timeout timeout = upstreamTimer.newTimeout(t -> future.completeExceptionally(
+                    new TimeoutException("上游 DoH 响应超时 (" + timeoutMs + "ms)")), timeoutMs, TimeUnit.MILLISECONDS);
+            future.whenComplete((r, e) -> timeout.cancel());
+
+            Connection connection = acquire(Math.floorMod(next.getAndIncrement(), slots.length));
+            connection.lastUsedNanos = System.nanoTime();
+            connection.ready.whenComplete((channel, e) -> {
+                if (e != null) {
+                    future.completeExceptionally(e);
+                } else if (!future.isDone()) {
+                    openStream(channel, upstream, requestData, future);
+                }
+            });
+            return future;
+        }
+
+        /**
+         * 在连接上打开一个流发送查询，查询超时或取消时重置该流
+         */
+        private void openStream(Channel channel, UpstreamDnsConfig upstream, byte[] requestData,
+                                CompletableFuture<byte[]> future) {
+            Future<Http2StreamChannel> open = new Http2StreamChannelBootstrap(channel)
+                    .handler(new StreamHandler(requestData, future))
+                    .open();
+            open.addListener(f -> {
+                if (!open.isSuccess()) {
+                    future.completeExceptionally(open.cause());
+                    return;
+                }
+                Http2StreamChannel stream = open.getNow();
+                future.whenComplete((r, e) -> stream.close());
+                writeRequest(stream, upstream, requestData).addListener(writeFuture -> {
+                    if (!writeFuture.isSuccess()) {
+                        future.completeExceptionally(writeFuture.cause());
+                    }
+                });
+            });
+        }
+
+        private ChannelFuture writeRequest(Http2StreamChannel stream, UpstreamDnsConfig upstream, byte[] requestData) {
+            byte[] message = requestData.clone();
+            message[0] = 0;
+            message[1] = 0;
+            String path = upstream.getPath() == null || upstream.getPath().isBlank()
+                    ? Constants.DEFAULT_DOH_PATH : upstream.getPath().trim();
+            Http2Headers headers = new DefaultHttp2Headers()
+                    .scheme("https")
+                    .authority(authority)
+                    .set(HttpHeaderNames.ACCEPT, Constants.DOH_CONTENT_TYPE);
+
+            if (HttpMethod.GET.name().equalsIgnoreCase(upstream.getHttpMethod())) {
+                String dns = Base64.getUrlEncoder().withoutPadding().encodeToString(message);
+                headers.method(HttpMethod.GET.asciiName())
+                        .path(path + (path.indexOf('?') < 0 ? "?dns=" : "&dns=") + dns);
+                return stream.writeAndFlush(new DefaultHttp2HeadersFrame(headers, true));
+            }
+            headers.method(HttpMethod.POST.asciiName())
+                    .path(path)
+                    .set(HttpHeaderNames.CONTENT_TYPE, Constants.DOH_CONTENT_TYPE)
+                    .setInt(HttpHeaderNames.CONTENT_LENGTH, message.length);
+            stream.write(new DefaultHttp2HeadersFrame(headers, false));
+            return stream.writeAndFlush(new DefaultHttp2DataFrame(Unpooled.wrappedBuffer(message), true));
+        }
+
+        /**
+         * 获取可用连接，未建立、已关闭、已收到 GOAWAY 或连接失败的槽位按需重新建立
+         */
+        private Connection acquire(int index) {
+            Connection current = slots[index];
+            if (current == null || !current.usable()) {
+                synchronized (this) {
+                    if (slots[index] == current) {
+                        slots[index] = connect();
+                    }
+                    current = slots[index];
+                }
+            }
+            return current;
+        }
+
+        private Connection connect() {
+            Connection connection = new Connection();
+            Bootstrap bootstrap = new Bootstrap()
+                    .group(upstreamEventLoopGroup)
+                    .channel(NioSocketChannel.class)
+                    // 经代理时不在本地解析上游域名
+                    .resolver(proxyConfig != null ? NoopAddressResolverGroup.INSTANCE : DefaultAddressResolverGroup.INSTANCE)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Constants.UPSTREAM_TCP_CONNECT_TIMEOUT)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            if (proxyConfig != null) {
+                                ch.pipeline().addLast(UpstreamProxy.newHandler(proxyConfig));
+                            }
+                            ch.pipeline().addLast(sslContext.newHandler(ch.alloc(), serverName, remote.getPort()));
+                            ch.pipeline().addLast(new ProtocolNegotiationHandler(connection));
+                        }
+                    });
+            ChannelFuture connectFuture = bootstrap.connect(remote);
+            connection.channel = connectFuture.channel();
+            connectFuture.addListener(f -> {
+                if (!f.isSuccess()) {
+                    connection.ready.completeExceptionally(f.cause());
+                }
+            });
+            connection.channel.closeFuture().addListener(f ->
+                    connection.ready.completeExceptionally(new ClosedChannelException()));
+            return connection;
+        }
+
+        private void close() {
+            for (Connection slot : slots) {
+                if (slot != null) {
+                    slot.channel.close();
+                }
+            }
+        }
+
+        /**
+         * TLS 握手完成后确认协商出 h2，再装配 HTTP/2 编解码与多路复用
+         */
+        private final class ProtocolNegotiationHandler extends ApplicationProtocolNegotiationHandler {
+
+            private final Connection connection;
+
+            private ProtocolNegotiationHandler(Connection connection) {
+                super(ApplicationProtocolNames.HTTP_1_1);
+                this.connection = connection;
+            }
+
+            @Override
+            protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+                if (!ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                    connection.ready.completeExceptionally(new IOException("上游 DoH 未协商 HTTP/2: " + protocol));
+                    ctx.close();
+                    return;
+                }
+                Http2FrameCodec codec = Http2FrameCodecBuilder.forClient()
+                        .initialSettings(Http2Settings.defaultSettings().pushEnabled(false))
+                        .build();
+                ctx.pipeline().addLast(codec);
+                ctx.pipeline().addLast(new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()));
+                ctx.pipeline().addLast(new IdleStateHandler(Constants.UPSTREAM_DOH_PING_INTERVAL, 0, 0,
+                        TimeUnit.MILLISECONDS));
+                ctx.pipeline().addLast(new ConnectionHandler(connection, codec));
+                connection.ready.complete(ctx.channel());
+            }
+
+            @Override
+            protected void handshakeFailure(ChannelHandlerContext ctx, Throwable cause) {
+                log.warn("上游 DoH TLS 握手失败: {} {}", remote, cause.toString());
+                connection.ready.completeExceptionally(cause);
+                ctx.close();
+            }
+        }
+
+        /**
+         * 连接级帧处理：PING 保活、GOAWAY 与空闲关闭
+         */
+        private final class ConnectionHandler extends ChannelInboundHandlerAdapter {
+
+            private final Connection connection;
+            private final Http2FrameCodec codec;
+            private boolean pingOutstanding;
+
+            private ConnectionHandler(Connection connection, Http2FrameCodec codec) {
+                this.connection = connection;
+                this.codec = codec;
+            }
+
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                try {
+                    if (msg instanceof Http2PingFrame ping && ping.ack()) {
+                        pingOutstanding = false;
+                    } else if (msg instanceof Http2GoAwayFrame) {
+                        log.debug("上游 DoH 连接收到 GOAWAY: {}", remote);
+                        connection.draining = true;
+                    }
+                } finally {
+                    ReferenceCountUtil.release(msg);
+                }
+            }
+
+            @Override
+            public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+                if (!(evt instanceof IdleStateEvent)) {
+                    super.userEventTriggered(ctx, evt);
+                    return;
+                }
+                long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connection.lastUsedNanos);
+                if (pingOutstanding) {
+                    log.warn("上游 DoH 连接 PING 无响应，关闭连接: {}", remote);
+                    ctx.close();
+                } else if (codec.connection().numActiveStreams() == 0
+                        && (connection.draining || idleMillis >= Constants.UPSTREAM_DOH_IDLE_TIMEOUT)) {
+                    log.debug("关闭空闲的上游 DoH 连接: {}", remote);
+                    ctx.close();
+                } else {
+                    pingOutstanding = true;
+                    ctx.writeAndFlush(new DefaultHttp2PingFrame(System.nanoTime()));
+                }
+            }
+
+            @Override
+            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                log.warn("上游 DoH 连接异常: {} {}", remote, cause.toString());
+                ctx.close();
+            }
+        }
+    }
+
+    /**
+     * 单个流的应答处理：校验状态码与媒体类型，汇总 DATA 帧，还原事务 ID
+     */
+    private static final class StreamHandler extends ChannelInboundHandlerAdapter {
+
+        private final byte[] requestData;
+        private final CompletableFuture<byte[]> future;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private boolean headersReceived;
+
+        private StreamHandler(byte[] requestData, CompletableFuture<byte[]> future) {
+            this.requestData = requestData;
+            this.future = future;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                if (msg instanceof Http2HeadersFrame headersFrame) {
+                    if (!headersReceived) {
+                        headersReceived = true;
+                        Http2Headers headers = headersFrame.headers();
+                        if (!HttpResponseStatus.OK.codeAsText().contentEquals(headers.status())) {
+                            fail(ctx, new IOException("上游 DoH 返回 HTTP " + headers.status()));
+                            return;
+                        }
+                        CharSequence contentType = headers.get(HttpHeaderNames.CONTENT_TYPE);
+                        if (contentType != null && !contentType.toString().toLowerCase().startsWith(Constants.DOH_CONTENT_TYPE)) {
+                            fail(ctx, new IOException("上游 DoH 应答类型错误: " + contentType));
+                            return;
+                        }
+                    }
+                    if (headersFrame.isEndStream()) {
+                        finish();
+                    }
+                } else if (msg instanceof Http2DataFrame dataFrame) {
+                    ByteBuf content = dataFrame.content();
+                    if (body.size() + content.readableBytes() > Constants.DNS_MAX_MESSAGE_LENGTH) {
+                        fail(ctx, new IOException("上游 DoH 应答过长"));
+                        return;
+                    }
+                    content.readBytes(body, content.readableBytes());
+                    if (dataFrame.isEndStream()) {
+                        finish();
+                    }
+                }
+            } catch (IOException e) {
+                fail(ctx, e);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        private void finish() {
+            byte[] response = body.toByteArray();
+            if (response.length < Constants.DNS_HEADER_LENGTH) {
+                future.completeExceptionally(new IOException("上游 DoH 应答过短"));
+                return;
+            }
+            response[0] = requestData[0];
+            response[1] = requestData[1];
+            future.complete(response);
+        }
+
+        private void fail(ChannelHandlerContext ctx, Throwable cause) {
+            future.completeExceptionally(cause);
+            ctx.close();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            future.completeExceptionally(new ClosedChannelException());
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            fail(ctx, cause);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.npc2048.dns.network;
+
+import com.npc2048.dns.config.Constants;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.util.HashedWheelTimer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.net.ssl.SSLException;
+
+/**
+ * 上游 DNS-over-TLS 传输（RFC 7858）
+ * <p>
+ * 在 TCP 传输的长连接、流水线与乱序匹配之上加一层 TLS。所有连接共享同一个客户端 TLS 上下文，
+ * 会话（TLS 1.3 会话票据 / TLS 1.2 会话 ID）按 (服务器名称, 端口) 缓存，重连时恢复会话以省去完整握手
+ *
+ * @author yuelong.liang
+ */
+@Component
+public class DotUpstreamTransport extends TcpUpstreamTransport {
+
+    @Autowired
+    public DotUpstreamTransport(EventLoopGroup upstreamEventLoopGroup, HashedWheelTimer upstreamTimer) {
+        this(upstreamEventLoopGroup, upstreamTimer, sslContext(SslContextBuilder.forClient()));
+    }
+
+    DotUpstreamTransport(EventLoopGroup upstreamEventLoopGroup, HashedWheelTimer upstreamTimer, SslContext sslContext) {
+        super(upstreamEventLoopGroup, upstreamTimer, sslContext);
+    }
+
+    /**
+     * 创建客户端 TLS 上下文，校验证书与主机名，启用会话缓存
+     *
+     * @param builder 客户端 TLS 上下文构建器（信任库等已设置）
+     */
+    static SslContext sslContext(SslContextBuilder builder) {
+        try {
+            return builder
+                    .endpointIdentificationAlgorithm("HTTPS")
+                    .sessionCacheSize(Constants.UPSTREAM_TLS_SESSION_CACHE_SIZE)
+                    .sessionTimeout(Constants.UPSTREAM_TLS_SESSION_TIMEOUT)
+                    .build();
+        } catch (SSLException e) {
+            throw new IllegalStateException("创建 DoT TLS 上下文失败", e);
+        }
+    }
+
+    @Override
+    public String getProtocol() {
+        return Constants.UPSTREAM_PROTOCOL_DOT;
+    }
+}
@@ -1,11 +1,16 @@
 package com.npc2048.dns.network;
 
+import com.npc2048.dns.config.Constants;
 import com.npc2048.dns.config.DnsConfig;
 import com.npc2048.dns.service.DnsService;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollIoHandler;
 import io.netty.channel.nio.NioIoHandler;
 import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.unix.UnixChannelOption;
 import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -13,6 +18,15 @@ import org.jspecify.annotations.NonNull;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
 /**
  * Netty-based UDP DNS server
  *
@@ -23,11 +37,17 @@ import org.springframework.stereotype.Component;
 @RequiredArgsConstructor
 public class NettyDnsServer implements CommandLineRunner {
 
+    /**
+     * 内核 UDP 套接字统计文件
+     */
+    private static final List<Path> PROC_NET_UDP = List.of(Path.of("/proc/net/udp"), Path.of("/proc/net/udp6"));
+
     private final DnsConfig dnsConfig;
     private final DnsService dnsService;
 
     private EventLoopGroup workerGroup;
-    private Channel channel;
+    private final List<Channel> channels = new ArrayList<>();
+    private boolean epollActive;
 
     @Override
     public void run(@NonNull String... args) {
@@ -36,26 +56,49 @@ public class NettyDnsServer implements CommandLineRunner {
 
     /**
      * 启动 DNS 服务器
+     * <p>
+     * 默认使用 NIO 单通道；开启 epoll 后以 SO_REUSEPORT 在同一端口绑定多个套接字，
+     * 由内核把报文分散到各个事件循环线程
      */
     public void startServer() {
-        workerGroup = new MultiThreadIoEventLoopGroup(4, NioIoHandler.newFactory());
+        epollActive = Boolean.TRUE.equals(dnsConfig.getEpollEnabled()) && Epoll.isAvailable();
+        if (Boolean.TRUE.equals(dnsConfig.getEpollEnabled()) && !epollActive) {
+            log.warn("epoll 不可用，回退到 NIO 传输", Epoll.unavailabilityCause());
+        }
+        int socketCount = epollActive ? resolveSocketCount() : 1;
+        workerGroup = epollActive
+                ? new MultiThreadIoEventLoopGroup(socketCount, EpollIoHandler.newFactory())
+                : new MultiThreadIoEventLoopGroup(Constants.SERVER_EVENT_LOOP_THREADS, NioIoHandler.newFactory());
 
         try {
             Bootstrap bootstrap = new Bootstrap();
             bootstrap.group(workerGroup)
-                    .channel(NioDatagramChannel.class)
+                    .channel(epollActive ? EpollDatagramChannel.class : NioDatagramChannel.class)
                     .option(ChannelOption.SO_BROADCAST, false)
-                    .handler(new ChannelInitializer<NioDatagramChannel>() {
+                    .handler(new ChannelInitializer<Channel>() {
                         @Override
-                        protected void initChannel(NioDatagramChannel ch) {
+                        protected void initChannel(Channel ch) {
                             ChannelPipeline pipeline = ch.pipeline();
                             // 添加DNS编解码器（使用dnsjava的Netty集成）
                             pipeline.addLast(new DnsServerHandler(dnsService));
                         }
                     });
+            if (epollActive) {
+                bootstrap.option(UnixChannelOption.SO_REUSEPORT, true);
+            }
+            if (dnsConfig.getSocketReceiveBufferSize() != null && dnsConfig.getSocketReceiveBufferSize() > 0) {
+                bootstrap.option(ChannelOption.SO_RCVBUF, dnsConfig.getSocketReceiveBufferSize());
+            }
+            if (dnsConfig.getSocketSendBufferSize() != null && dnsConfig.getSocketSendBufferSize() > 0) {
+                bootstrap.option(ChannelOption.SO_SNDBUF, dnsConfig.getSocketSendBufferSize());
+            }
 
-            channel = bootstrap.bind(dnsConfig.getListenPort()).sync().channel();
-            log.info("Netty DNS服务器启动成功，监听端口: {}", dnsConfig.getListenPort());
+            // 每次 bind 的通道注册到下一个事件循环，epoll 模式下一个套接字对应一个线程
+            for (int i = 0; i < socketCount; i++) {
+                channels.add(bootstrap.bind(dnsConfig.getListenPort()).sync().channel());
+            }
+            log.info("Netty DNS服务器启动成功，监听端口: {}，传输: {}，套接字数: {}",
+                    dnsConfig.getListenPort(), epollActive ? "epoll" : "nio", socketCount);
             log.info("上游 DNS 配置: {}", dnsConfig.getUpstreamDns());
 
         } catch (InterruptedException e) {
@@ -69,9 +112,10 @@ public class NettyDnsServer implements CommandLineRunner {
      */
     @PreDestroy
     public void stopServer() {
-        if (channel != null) {
+        for (Channel channel : channels) {
             channel.close().awaitUninterruptibly();
         }
+        channels.clear();
         if (workerGroup != null) {
             workerGroup.shutdownGracefully();
         }
@@ -82,6 +126,58 @@ public class NettyDnsServer implements CommandLineRunner {
      * 检查服务器是否在运行
      */
     public boolean isRunning() {
-        return channel != null && channel.isActive();
+        return !channels.isEmpty() && channels.stream().allMatch(Channel::isActive);
+    }
+
+    /**
+     * 获取服务器运行统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("running", isRunning());
+        stats.put("transport", epollActive ? "epoll" : "nio");
+        stats.put("socketCount", channels.size());
+        stats.put("receiveBufferDrops", getReceiveBufferDrops());
+        return stats;
+    }
+
+    /**
+     * 获取监听端口上因接收缓冲区满而被内核丢弃的报文数
+     * <p>
+     * 汇总 /proc/net/udp(6) 中本端口所有监听套接字的 drops 列
+     *
+     * @return 丢包数，非 Linux 系统返回 -1
+     */
+    public long getReceiveBufferDrops() {
+        String localPort = String.format(Locale.ROOT, ":%04X", dnsConfig.getListenPort());
+        long drops = 0;
+        boolean found = false;
+        for (Path path : PROC_NET_UDP) {
+            if (!Files.isReadable(path)) {
+                continue;
+            }
+            try {
+                for (String line : Files.readAllLines(path)) {
+                    String[] columns = line.trim().split("\\s+");
+                    // sl local_address rem_address st ... drops
+                    if (columns.length < 13 || !columns[1].endsWith(localPort)) {
+                        continue;
+                    }
+                    drops += Long.parseLong(columns[columns.length - 1]);
+                    found = true;
+                }
+            } catch (IOException | NumberFormatException e) {
+                log.debug("读取 {} 失败", path, e);
+            }
+        }
+        return found ? drops : -1;
+    }
+
+    /**
+     * 计算监听套接字数量
+     */
+    private int resolveSocketCount() {
+        Integer configured = dnsConfig.getServerSocketCount();
+        return configured != null && configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,170 @@
+package com.npc2048.dns.network;
+
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.common.util.DnsUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 上游待响应请求表
+ * <p>
+ * 同一个上游连接/套接字上复用多个查询：发送前把事务 ID 改写为本表内唯一的值，
+ * 收到响应后按 (ID, 问题段) 匹配请求、还原客户端原始 ID 并完成对应的 Future。
+ * 超时由共享的 {@link HashedWheelTimer} 驱动
+ *
+ * @author yuelong.liang
+ */
+public class PendingQueries {
+
+    /**
+     * 单表最多同时挂起的请求数（16 位事务 ID 空间）
+     */
+    private static final int MAX_PENDING = 0xFFFF;
+
+    private final ConcurrentHashMap<Integer, PendingQuery> pending = new ConcurrentHashMap<>();
+    private final HashedWheelTimer timer;
+
+    public PendingQueries(HashedWheelTimer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * 登记请求并生成改写 ID 后的待发送报文
+     *
+     * @param requestData 客户端原始请求
+     * @param future      响应完成时回调的 Future
+     * @param timeoutMs   超时时间（毫秒）
+     * @param alloc       缓冲区分配器
+     * @return 改写 ID 后的请求报文，调用方负责写出
+     */
+    public ByteBuf register(byte[] requestData, CompletableFuture<byte[]> future, long timeoutMs, ByteBufAllocator alloc) {
+        int questionEnd = DnsUtils.questionEnd(requestData);
+        if (questionEnd < 0) {
+            throw new IllegalArgumentException("请求报文不合法");
+        }
+        if (pending.size() >= MAX_PENDING) {
+            throw new IllegalStateException("上游待响应请求已满");
+        }
+
+        int originalId = ((requestData[0] & 0xFF) << 8) | (requestData[1] & 0xFF);
+        PendingQuery query = new PendingQuery(originalId, requestData, questionEnd, future);
+        int id;
+        do {
+            id = ThreadLocalRandom.current().nextInt(MAX_PENDING + 1);
+        } while (pending.putIfAbsent(id, query) != null);
+
+        int rewrittenId = id;
+        query.timeout = timer.newTimeout(t -> {
+            if (pending.remove(rewrittenId, query)) {
+                future.completeExceptionally(new TimeoutException("上游 DNS 响应超时 (" + timeoutMs + "ms)"));
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        // 无论正常完成、超时还是被调用方取消，都释放占用的 ID
+        future.whenComplete((responseData, e) -> {
+            query.timeout.cancel();
+            pending.remove(rewrittenId, query);
+        });
+
+        ByteBuf buf = alloc.buffer(requestData.length);
+        buf.writeBytes(requestData);
+        buf.setShort(0, rewrittenId);
+        return buf;
+    }
+
+    /**
+     * 匹配上游响应并完成对应请求
+     *
+     * @param response 上游响应报文
+     * @return 是否匹配到挂起的请求
+     */
+    public boolean complete(ByteBuf response) {
+        if (response.readableBytes() < Constants.DNS_HEADER_LENGTH) {
+            return false;
+        }
+        int id = response.getUnsignedShort(response.readerIndex());
+        PendingQuery query = pending.get(id);
+        if (query == null || !query.matches(response)) {
+            return false;
+        }
+        if (!pending.remove(id, query)) {
+            return false;
+        }
+        byte[] responseData = ByteBufUtil.getBytes(response);
+        responseData[0] = (byte) (query.originalId >> 8);
+        responseData[1] = (byte) query.originalId;
+        query.future.complete(responseData);
+        return true;
+    }
+
+    /**
+     * 以指定异常结束所有挂起请求（连接关闭时使用）
+     */
+    public void failAll(Throwable cause) {
+        pending.values().forEach(query -> query.future.completeExceptionally(cause));
+        pending.clear();
+    }
+
+    /**
+     * 当前挂起的请求数
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * 挂起的请求
+     */
+    private static final class PendingQuery {
+        private final int originalId;
+        private final byte[] requestData;
+        private final int questionEnd;
+        private final CompletableFuture<byte[]> future;
+        private volatile Timeout timeout;
+
+        private PendingQuery(int originalId, byte[] requestData, int questionEnd, CompletableFuture<byte[]> future) {
+            this.originalId = originalId;
+            this.requestData = requestData;
+            this.questionEnd = questionEnd;
+            this.future = future;
+        }
+
+        /**
+         * 响应的问题段必须与请求一致（忽略大小写），防止 ID 碰撞或伪造响应
+         */
+        private boolean matches(ByteBuf response) {
+            int base = response.readerIndex();
+            if (response.readableBytes() < questionEnd) {
+                return false;
+            }
+            if (questionEnd > Constants.DNS_HEADER_LENGTH && response.getUnsignedShort(base + 4) == 0) {
+                return false;
+            }
+            // 名称部分忽略大小写，QTYPE/QCLASS 精确比较
+            int nameEnd = Math.max(Constants.DNS_HEADER_LENGTH, questionEnd - 4);
+            for (int i = Constants.DNS_HEADER_LENGTH; i < nameEnd; i++) {
+                if (toLowerCase(requestData[i]) != toLowerCase(response.getByte(base + i))) {
+                    return false;
+                }
+            }
+            for (int i = nameEnd; i < questionEnd; i++) {
+                if (requestData[i] != response.getByte(base + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static byte toLowerCase(byte b) {
+            return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+        }
+    }
+}
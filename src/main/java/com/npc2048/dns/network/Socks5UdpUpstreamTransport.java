@@ -0,0 +1,391 @@
+package com.npc2048.dns.network;
+
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.model.UpstreamDnsConfig;
+import com.npc2048.dns.model.UpstreamState;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.DecoderResultProvider;
+import io.netty.handler.codec.socksx.v5.DefaultSocks5CommandRequest;
+import io.netty.handler.codec.socksx.v5.DefaultSocks5InitialRequest;
+import io.netty.handler.codec.socksx.v5.DefaultSocks5PasswordAuthRequest;
+import io.netty.handler.codec.socksx.v5.Socks5AddressType;
+import io.netty.handler.codec.socksx.v5.Socks5AuthMethod;
+import io.netty.handler.codec.socksx.v5.Socks5ClientEncoder;
+import io.netty.handler.codec.socksx.v5.Socks5CommandResponse;
+import io.netty.handler.codec.socksx.v5.Socks5CommandResponseDecoder;
+import io.netty.handler.codec.socksx.v5.Socks5CommandStatus;
+import io.netty.handler.codec.socksx.v5.Socks5CommandType;
+import io.netty.handler.codec.socksx.v5.Socks5InitialResponse;
+import io.netty.handler.codec.socksx.v5.Socks5InitialResponseDecoder;
+import io.netty.handler.codec.socksx.v5.Socks5PasswordAuthResponse;
+import io.netty.handler.codec.socksx.v5.Socks5PasswordAuthResponseDecoder;
+import io.netty.handler.codec.socksx.v5.Socks5PasswordAuthStatus;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.NetUtil;
+import io.netty.util.Timeout;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 经 SOCKS5 代理转发 UDP 上游查询（RFC 1928 UDP ASSOCIATE）
+ * <p>
+ * 每个代理建立一次 UDP 关联：控制 TCP 连接完成认证（无认证或用户名/密码）与 UDP ASSOCIATE 后保持打开，
+ * 所有经该代理的查询（可发往不同上游）都通过同一个本地 UDP 套接字发往代理的中继地址，
+ * 按 (ID, 问题段) 匹配应答。控制连接关闭时关联失效，挂起的查询随之失败，下次查询时重新建立；
+ * 关联超过 {@link Constants#UPSTREAM_SOCKS5_IDLE_TIMEOUT} 无查询时主动关闭
+ *
+ * @author yuelong.liang
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class Socks5UdpUpstreamTransport {
+
+    /**
+     * SOCKS5 UDP 请求头中 RSV(2) + FRAG(1) + ATYP(1) 的长度
+     */
+    private static final int UDP_HEADER_PREFIX_LENGTH = 4;
+
+    private final EventLoopGroup upstreamEventLoopGroup;
+    private final HashedWheelTimer upstreamTimer;
+
+    /**
+     * 代理配置 -> UDP 关联
+     */
+    private final ConcurrentHashMap<UpstreamDnsConfig.ProxyConfig, Association> associations = new ConcurrentHashMap<>();
+
+    /**
+     * 经上游配置的 SOCKS5 代理与上游交换一次查询
+     *
+     * @param upstream    上游 DNS 配置（启用了 SOCKS5 代理）
+     * @param requestData 原始请求数据
+     * @param timeoutMs   超时时间（毫秒），建立关联的时间计入其中
+     * @return 响应数据（事务 ID 已还原为请求 ID）
+     */
+    public CompletableFuture<byte[]> exchange(UpstreamDnsConfig upstream, byte[] requestData, long timeoutMs) {
+        UpstreamDnsConfig.ProxyConfig proxyConfig = UpstreamProxy.of(upstream);
+        if (!UpstreamProxy.isValid(proxyConfig) || !Constants.PROXY_TYPE_SOCKS5.equals(UpstreamProxy.typeOf(proxyConfig))) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("SOCKS5 代理配置无效: " + UpstreamProxy.describe(proxyConfig)));
+        }
+        Association association = associations.get(proxyConfig);
+        if (association == null || association.closed) {
+            association = associations.compute(proxyConfig,
+                    (k, existing) -> existing != null && !existing.closed ? existing : new Association(proxyConfig));
+        }
+        return association.exchange(upstream, requestData, timeoutMs);
+    }
+
+    /**
+     * 关闭所有 UDP 关联
+     */
+    @PreDestroy
+    public void shutdown() {
+        associations.values().forEach(association -> association.close(new ClosedChannelException()));
+        associations.clear();
+    }
+
+    /**
+     * SOCKS5 UDP 请求头：RSV、FRAG 为 0，目标为上游地址（IP 字面量或域名，由代理解析）
+     */
+    private static ByteBuf udpHeader(UpstreamDnsConfig upstream) {
+        byte[] ip = NetUtil.createByteArrayFromIpAddressString(upstream.getAddress());
+        ByteBuf header = Unpooled.buffer(UDP_HEADER_PREFIX_LENGTH + 1 + 255 + 2);
+        header.writeShort(0).writeByte(0);
+        if (ip != null) {
+            header.writeByte(ip.length == 4 ? Socks5AddressType.IPv4.byteValue() : Socks5AddressType.IPv6.byteValue());
+            header.writeBytes(ip);
+        } else {
+            byte[] domain = upstream.getAddress().getBytes(StandardCharsets.US_ASCII);
+            header.writeByte(Socks5AddressType.DOMAIN.byteValue()).writeByte(domain.length).writeBytes(domain);
+        }
+        return header.writeShort(UpstreamState.portOf(upstream));
+    }
+
+    /**
+     * SOCKS5 UDP 应答头的长度
+     *
+     * @return 头长度；分片或格式不合法时返回 -1
+     */
+    private static int udpHeaderLength(ByteBuf packet) {
+        int start = packet.readerIndex();
+        if (packet.readableBytes() < UDP_HEADER_PREFIX_LENGTH || packet.getByte(start + 2) != 0) {
+            return -1;
+        }
+        byte addressType = packet.getByte(start + 3);
+        int addressLength;
+        if (addressType == Socks5AddressType.IPv4.byteValue()) {
+            addressLength = 4;
+        } else if (addressType == Socks5AddressType.IPv6.byteValue()) {
+            addressLength = 16;
+        } else if (addressType == Socks5AddressType.DOMAIN.byteValue() && packet.readableBytes() > UDP_HEADER_PREFIX_LENGTH) {
+            addressLength = 1 + packet.getUnsignedByte(start + UDP_HEADER_PREFIX_LENGTH);
+        } else {
+            return -1;
+        }
+        int length = UDP_HEADER_PREFIX_LENGTH + addressLength + 2;
+        return length <= packet.readableBytes() ? length : -1;
+    }
+
+    /**
+     * 一个代理上的 UDP 关联
+     */
+    private final class Association {
+
+        private final UpstreamDnsConfig.ProxyConfig proxyConfig;
+        private final PendingQueries pending = new PendingQueries(upstreamTimer);
+
+        /**
+         * UDP ASSOCIATE 成功后完成，值为代理的中继地址
+         */
+        private final CompletableFuture<InetSocketAddress> ready = new CompletableFuture<>();
+
+        private final Channel udpChannel;
+        private volatile Channel control;
+        private volatile long lastUsedNanos = System.nanoTime();
+        private volatile boolean closed;
+
+        private Association(UpstreamDnsConfig.ProxyConfig proxyConfig) {
+            this.proxyConfig = proxyConfig;
+            ChannelFuture bindFuture = new Bootstrap()
+                    .group(upstreamEventLoopGroup)
+                    .channel(NioDatagramChannel.class)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR,
+                            new FixedRecvByteBufAllocator(Constants.UPSTREAM_UDP_RECEIVE_BUFFER_SIZE))
+                    .handler(new RelayHandler())
+                    .bind(0);
+            udpChannel = bindFuture.channel();
+            Timeout handshakeTimeout = upstreamTimer.newTimeout(t -> close(
+                    new TimeoutException("建立 SOCKS5 UDP 关联超时: " + UpstreamProxy.addressOf(proxyConfig))),
+                    Constants.UPSTREAM_TCP_CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+            ready.whenComplete((relay, e) -> handshakeTimeout.cancel());
+            bindFuture.addListener(f -> {
+                if (!f.isSuccess()) {
+                    close(f.cause());
+                } else {
+                    openControl(((InetSocketAddress) udpChannel.localAddress()).getPort());
+                }
+            });
+        }
+
+        private CompletableFuture<byte[]> exchange(UpstreamDnsConfig upstream, byte[] requestData, long timeoutMs) {
+            long startNanos = System.nanoTime();
+            lastUsedNanos = startNanos;
+            CompletableFuture<byte[]> future = new CompletableFuture<>();
+            if (!ready.isDone()) {
+                // 关联建立期间由本计时器负责超时，登记后由待响应表负责
+                Timeout timeout = upstreamTimer.newTimeout(t -> future.completeExceptionally(
+                        new TimeoutException("上游 DNS 响应超时 (" + timeoutMs + "ms)")), timeoutMs, TimeUnit.MILLISECONDS);
+                future.whenComplete((r, e) -> timeout.cancel());
+            }
+            ready.whenComplete((relay, e) -> {
+                if (e != null) {
+                    future.completeExceptionally(e);
+                    return;
+                }
+                long remaining = timeoutMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                if (remaining <= 0 || future.isDone()) {
+                    future.completeExceptionally(new TimeoutException("建立 SOCKS5 UDP 关联超时 (" + timeoutMs + "ms)"));
+                    return;
+                }
+                try {
+                    ByteBuf request = pending.register(requestData, future, remaining, udpChannel.alloc());
+                    ByteBuf packet = Unpooled.wrappedBuffer(udpHeader(upstream), request);
+                    udpChannel.writeAndFlush(new DatagramPacket(packet, relay)).addListener(writeFuture -> {
+                        if (!writeFuture.isSuccess()) {
+                            future.completeExceptionally(writeFuture.cause());
+                        }
+                    });
+                } catch (Exception ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+            return future;
+        }
+
+        /**
+         * 建立控制连接，声明本地 UDP 端口后请求 UDP ASSOCIATE
+         */
+        private void openControl(int udpPort) {
+            ChannelFuture connectFuture = new Bootstrap()
+                    .group(upstreamEventLoopGroup)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .option(ChannelOption.SO_KEEPALIVE, true)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Constants.UPSTREAM_TCP_CONNECT_TIMEOUT)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(Socks5ClientEncoder.DEFAULT);
+                            ch.pipeline().addLast(new Socks5InitialResponseDecoder());
+                            ch.pipeline().addLast(new IdleStateHandler(0, 0, Constants.UPSTREAM_SOCKS5_IDLE_TIMEOUT,
+                                    TimeUnit.MILLISECONDS));
+                            ch.pipeline().addLast(new ControlHandler(udpPort));
+                        }
+                    })
+                    .connect(UpstreamProxy.addressOf(proxyConfig));
+            control = connectFuture.channel();
+            connectFuture.addListener(f -> {
+                if (!f.isSuccess()) {
+                    close(f.cause());
+                }
+            });
+            control.closeFuture().addListener(f -> close(new ClosedChannelException()));
+        }
+
+        /**
+         * 关闭关联，结束挂起的查询
+         */
+        private void close(Throwable cause) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            associations.remove(proxyConfig, this);
+            ready.completeExceptionally(cause);
+            pending.failAll(cause);
+            if (control != null) {
+                control.close();
+            }
+            udpChannel.close();
+        }
+
+        /**
+         * SOCKS5 控制连接：认证并请求 UDP ASSOCIATE，之后保持打开以维持关联
+         */
+        private final class ControlHandler extends SimpleChannelInboundHandler<DecoderResultProvider> {
+
+            private final int udpPort;
+
+            private ControlHandler(int udpPort) {
+                this.udpPort = udpPort;
+            }
+
+            private boolean hasCredentials() {
+                return proxyConfig.getUsername() != null && !proxyConfig.getUsername().isEmpty();
+            }
+
+            @Override
+            public void channelActive(ChannelHandlerContext ctx) {
+                ctx.writeAndFlush(hasCredentials()
+                        ? new DefaultSocks5InitialRequest(Socks5AuthMethod.NO_AUTH, Socks5AuthMethod.PASSWORD)
+                        : new DefaultSocks5InitialRequest(Socks5AuthMethod.NO_AUTH));
+            }
+
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, DecoderResultProvider msg) throws Exception {
+                if (msg.decoderResult().isFailure()) {
+                    throw new ProtocolException("SOCKS5 应答格式错误");
+                }
+                if (msg instanceof Socks5InitialResponse response) {
+                    if (Socks5AuthMethod.PASSWORD.equals(response.authMethod()) && hasCredentials()) {
+                        ctx.pipeline().replace(Socks5InitialResponseDecoder.class, null, new Socks5PasswordAuthResponseDecoder());
+                        String password = proxyConfig.getPassword() != null ? proxyConfig.getPassword() : "";
+                        ctx.writeAndFlush(new DefaultSocks5PasswordAuthRequest(proxyConfig.getUsername(), password));
+                    } else if (Socks5AuthMethod.NO_AUTH.equals(response.authMethod())) {
+                        ctx.pipeline().replace(Socks5InitialResponseDecoder.class, null, new Socks5CommandResponseDecoder());
+                        associate(ctx);
+                    } else {
+                        throw new ProtocolException("SOCKS5 代理要求不支持的认证方式: " + response.authMethod());
+                    }
+                } else if (msg instanceof Socks5PasswordAuthResponse response) {
+                    if (!Socks5PasswordAuthStatus.SUCCESS.equals(response.status())) {
+                        throw new ProtocolException("SOCKS5 代理认证失败");
+                    }
+                    ctx.pipeline().replace(Socks5PasswordAuthResponseDecoder.class, null, new Socks5CommandResponseDecoder());
+                    associate(ctx);
+                } else if (msg instanceof Socks5CommandResponse response) {
+                    if (!Socks5CommandStatus.SUCCESS.equals(response.status())) {
+                        throw new ProtocolException("SOCKS5 UDP ASSOCIATE 失败: " + response.status());
+                    }
+                    ctx.pipeline().remove(Socks5CommandResponseDecoder.class);
+                    // 中继地址为未指定地址时使用代理自身的地址
+                    InetAddress relayAddress = InetAddress.getByName(response.bndAddr());
+                    if (relayAddress.isAnyLocalAddress()) {
+                        relayAddress = ((InetSocketAddress) ctx.channel().remoteAddress()).getAddress();
+                    }
+                    InetSocketAddress relay = new InetSocketAddress(relayAddress, response.bndPort());
+                    log.info("SOCKS5 UDP 关联已建立: {} 中继 {}", ctx.channel().remoteAddress(), relay);
+                    ready.complete(relay);
+                }
+            }
+
+            private void associate(ChannelHandlerContext ctx) {
+                ctx.writeAndFlush(new DefaultSocks5CommandRequest(Socks5CommandType.UDP_ASSOCIATE,
+                        Socks5AddressType.IPv4, "0.0.0.0", udpPort));
+            }
+
+            @Override
+            public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+                if (evt instanceof IdleStateEvent) {
+                    long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastUsedNanos);
+                    if (idleMillis >= Constants.UPSTREAM_SOCKS5_IDLE_TIMEOUT && pending.size() == 0) {
+                        log.debug("关闭空闲的 SOCKS5 UDP 关联: {}", ctx.channel().remoteAddress());
+                        ctx.close();
+                    }
+                    return;
+                }
+                super.userEventTriggered(ctx, evt);
+            }
+
+            @Override
+            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                log.warn("SOCKS5 控制连接异常: {} {}", UpstreamProxy.addressOf(proxyConfig), cause.toString());
+                close(cause);
+            }
+        }
+
+        /**
+         * 接收中继转回的应答：只接受来自中继地址、未分片的报文，去掉 SOCKS5 头后匹配
+         */
+        private final class RelayHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+                ByteBuf content = packet.content();
+                int headerLength = udpHeaderLength(content);
+                InetSocketAddress relay = ready.isCompletedExceptionally() ? null : ready.getNow(null);
+                if (headerLength < 0 || !packet.sender().equals(relay)) {
+                    log.debug("丢弃无效的 SOCKS5 中继报文: {}", packet.sender());
+                    return;
+                }
+                content.skipBytes(headerLength);
+                if (!pending.complete(content)) {
+                    log.debug("丢弃无法匹配的上游响应: {}", packet.sender());
+                }
+            }
+
+            @Override
+            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                log.warn("SOCKS5 UDP 通道异常: {} {}", UpstreamProxy.addressOf(proxyConfig), cause.toString());
+            }
+        }
+    }
+}
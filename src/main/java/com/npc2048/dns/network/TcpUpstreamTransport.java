@@ -0,0 +1,402 @@
+package com.npc2048.dns.network;
+
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.model.UpstreamDnsConfig;
+import com.npc2048.dns.model.UpstreamState;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.proxy.ProxyHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.resolver.DefaultAddressResolverGroup;
+import io.netty.resolver.NoopAddressResolverGroup;
+import io.netty.util.HashedWheelTimer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 上游 TCP 传输（RFC 7766）
+ * <p>
+ * 每个上游保持少量长连接，查询以两字节长度前缀成帧后流水线写出，不等待前一个应答；
+ * 应答可以乱序到达，按 (ID, 问题段) 匹配。连接空闲超过 {@link Constants#UPSTREAM_TCP_IDLE_TIMEOUT}
+ * 后主动关闭，下次查询时重新建立；仍在使用中的连接被上游关闭时在后台立即重连。
+ * 建立连接失败后按 {@link Constants#UPSTREAM_RECONNECT_BACKOFF_MIN} 起指数退避，退避期间的查询直接失败。
+ * 配置了 TLS 上下文时即为 DoT 传输（见 {@link DotUpstreamTransport}）；上游启用代理时经 SOCKS5 CONNECT 或 HTTP CONNECT 建立隧道
+ *
+ * @author yuelong.liang
+ */
+@Slf4j
+@Component
+public class TcpUpstreamTransport implements UpstreamTransport {
+
+    private final EventLoopGroup upstreamEventLoopGroup;
+    private final HashedWheelTimer upstreamTimer;
+
+    /**
+     * TLS 上下文，为 null 时使用明文 TCP。所有连接共享同一上下文，重连时复用其会话缓存
+     */
+    private final SslContext sslContext;
+
+    /**
+     * 上游标识 -> 连接池
+     */
+    private final ConcurrentHashMap<String, TcpConnectionPool> pools = new ConcurrentHashMap<>();
+
+    @Autowired
+    public TcpUpstreamTransport(EventLoopGroup upstreamEventLoopGroup, HashedWheelTimer upstreamTimer) {
+        this(upstreamEventLoopGroup, upstreamTimer, null);
+    }
+
+    protected TcpUpstreamTransport(EventLoopGroup upstreamEventLoopGroup, HashedWheelTimer upstreamTimer,
+                                   SslContext sslContext) {
+        this.upstreamEventLoopGroup = upstreamEventLoopGroup;
+        this.upstreamTimer = upstreamTimer;
+        this.sslContext = sslContext;
+    }
+
+    @Override
+    public String getProtocol() {
+        return Constants.UPSTREAM_PROTOCOL_TCP;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> exchange(UpstreamDnsConfig upstream, byte[] requestData, long timeoutMs) {
+        UpstreamDnsConfig.ProxyConfig proxyConfig = UpstreamProxy.of(upstream);
+        if (proxyConfig != null && !UpstreamProxy.isValid(proxyConfig)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("代理配置无效: " + UpstreamProxy.describe(proxyConfig)));
+        }
+        String key = UpstreamState.keyOf(upstream);
+        TcpConnectionPool pool = pools.get(key);
+        if (pool == null || !pool.matches(upstream)) {
+            // 服务器名称或代理变更时换用新的连接池
+            pool = pools.compute(key, (k, existing) -> {
+                if (existing != null && existing.matches(upstream)) {
+                    return existing;
+                }
+                if (existing != null) {
+                    existing.close();
+                }
+                return new TcpConnectionPool(upstream);
+            });
+        }
+        return pool.exchange(requestData, timeoutMs);
+    }
+
+    @Override
+    public void retain(Collection<String> keys) {
+        pools.entrySet().removeIf(entry -> {
+            if (keys.contains(entry.getKey())) {
+                return false;
+            }
+            log.info("关闭已移除上游的 {} 连接: {}", getProtocol(), entry.getKey());
+            entry.getValue().close();
+            return true;
+        });
+    }
+
+    /**
+     * 关闭所有上游连接
+     */
+    @PreDestroy
+    public void shutdown() {
+        pools.values().forEach(TcpConnectionPool::close);
+        pools.clear();
+    }
+
+    /**
+     * 一条连接及其待响应表
+     */
+    private static final class Connection {
+
+        private final ChannelFuture channelFuture;
+
+        /**
+         * 该连接上挂起的查询
+         */
+        private final PendingQueries pending;
+
+        /**
+         * 因空闲被本端关闭，关闭后不在后台重连
+         */
+        private volatile boolean idleClosed;
+
+        private Connection(ChannelFuture channelFuture, PendingQueries pending) {
+            this.channelFuture = channelFuture;
+            this.pending = pending;
+        }
+
+        /**
+         * 连接中或已建立且仍然打开
+         */
+        private boolean usable() {
+            return !channelFuture.isDone() || channelFuture.isSuccess() && channelFuture.channel().isActive();
+        }
+    }
+
+    /**
+     * 单个上游的 TCP 连接池
+     */
+    private final class TcpConnectionPool {
+
+        private final InetSocketAddress remote;
+        private final String serverName;
+
+        /**
+         * 代理配置，为 null 时直连
+         */
+        private final UpstreamDnsConfig.ProxyConfig proxyConfig;
+        private final Connection[] slots = new Connection[Constants.UPSTREAM_TCP_POOL_SIZE];
+        private final AtomicInteger next = new AtomicInteger();
+        private volatile long lastUsedNanos = System.nanoTime();
+        private volatile boolean closed;
+
+        /**
+         * 连续建立连接失败的次数（受 this 保护）
+         */
+        private int connectFailures;
+
+        /**
+         * 退避结束时间（受 this 保护）
+         */
+        private long nextConnectNanos;
+
+        private TcpConnectionPool(UpstreamDnsConfig upstream) {
+            this.remote = UpstreamProxy.remoteOf(upstream, UpstreamState.portOf(upstream));
+            this.serverName = UpstreamState.serverNameOf(upstream);
+            this.proxyConfig = UpstreamProxy.of(upstream);
+        }
+
+        private boolean matches(UpstreamDnsConfig upstream) {
+            return Objects.equals(serverName, UpstreamState.serverNameOf(upstream))
+                    && Objects.equals(proxyConfig, UpstreamProxy.of(upstream));
+        }
+
+        private CompletableFuture<byte[]> exchange(byte[] requestData, long timeoutMs) {
+            long startNanos = System.nanoTime();
+            lastUsedNanos = startNanos;
+            Connection connection;
+            try {
+                connection = acquire(Math.floorMod(next.getAndIncrement(), slots.length));
+            } catch (ConnectException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            CompletableFuture<byte[]> future = new CompletableFuture<>();
+            ChannelFuture channelFuture = connection.channelFuture;
+            channelFuture.addListener(f -> {
+                if (!f.isSuccess()) {
+                    future.completeExceptionally(f.cause());
+                    return;
+                }
+                // 建立连接的时间计入本次超时；TLS 握手期间写出的查询由 SslHandler 暂存，握手完成后发送
+                long remaining = timeoutMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                if (remaining <= 0) {
+                    future.completeExceptionally(new TimeoutException("上游 DNS 建立 TCP 连接超时 (" + timeoutMs + "ms)"));
+                    return;
+                }
+                try {
+                    Channel channel = channelFuture.channel();
+                    ByteBuf request = connection.pending.register(requestData, future, remaining, channel.alloc());
+                    channel.writeAndFlush(request).addListener(writeFuture -> {
+                        if (!writeFuture.isSuccess()) {
+                            future.completeExceptionally(writeFuture.cause());
+                        }
+                    });
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+            return future;
+        }
+
+        /**
+         * 获取可用连接，未建立、已关闭或连接失败的槽位按需重新建立，重连退避期间抛出异常
+         */
+        private Connection acquire(int index) throws ConnectException {
+            Connection current = slots[index];
+            if (current != null && current.usable()) {
+                return current;
+            }
+            synchronized (this) {
+                current = slots[index];
+                if (current == null || !current.usable()) {
+                    if (connectFailures > 0 && System.nanoTime() - nextConnectNanos < 0) {
+                        throw new ConnectException("上游连接失败，重连退避中: " + remote);
+                    }
+                    current = connect(index);
+                    slots[index] = current;
+                }
+                return current;
+            }
+        }
+
+        /**
+         * 建立新连接，每个连接有自己的待响应表，旧连接关闭时只结束它自己的查询
+         */
+        private Connection connect(int index) {
+            PendingQueries pending = new PendingQueries(upstreamTimer);
+            Bootstrap bootstrap = new Bootstrap()
+                    .group(upstreamEventLoopGroup)
+                    .channel(NioSocketChannel.class)
+                    // 经代理时不在本地解析上游域名
+                    .resolver(proxyConfig != null ? NoopAddressResolverGroup.INSTANCE : DefaultAddressResolverGroup.INSTANCE)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Constants.UPSTREAM_TCP_CONNECT_TIMEOUT)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ChannelPipeline pipeline = ch.pipeline();
+                            if (proxyConfig != null) {
+                                // 代理隧道建立前写出的查询由 ProxyHandler 暂存，隧道建立后发送
+                                ProxyHandler proxyHandler = UpstreamProxy.newHandler(proxyConfig);
+                                if (sslContext == null) {
+                                    proxyHandler.connectFuture().addListener(f -> recordConnect(f.isSuccess()));
+                                }
+                                pipeline.addLast(proxyHandler);
+                            }
+                            if (sslContext != null) {
+                                SslHandler sslHandler = sslContext.newHandler(ch.alloc(), serverName, remote.getPort());
+                                sslHandler.handshakeFuture().addListener(f -> recordConnect(f.isSuccess()));
+                                pipeline.addLast(sslHandler);
+                            }
+                            pipeline.addLast(new IdleStateHandler(0, 0, Constants.UPSTREAM_TCP_IDLE_TIMEOUT,
+                                    TimeUnit.MILLISECONDS));
+                            pipeline.addLast(new LengthFieldBasedFrameDecoder(Constants.DNS_MAX_MESSAGE_LENGTH + 2,
+                                    0, 2, 0, 2));
+                            pipeline.addLast(new LengthFieldPrepender(2));
+                            pipeline.addLast(new ResponseHandler(pending));
+                        }
+                    });
+            Connection connection = new Connection(bootstrap.connect(remote), pending);
+            connection.channelFuture.addListener(f -> {
+                if (!f.isSuccess() || sslContext == null && proxyConfig == null) {
+                    recordConnect(f.isSuccess());
+                }
+            });
+            connection.channelFuture.channel().closeFuture().addListener(f -> onClosed(index, connection));
+            return connection;
+        }
+
+        /**
+         * 记录连接建立结果（TLS 以握手完成、代理以隧道建立为准），失败时延长退避
+         */
+        private synchronized void recordConnect(boolean success) {
+            if (success) {
+                connectFailures = 0;
+                return;
+            }
+            connectFailures++;
+            long backoff = Math.min((long) Constants.UPSTREAM_RECONNECT_BACKOFF_MIN << Math.min(connectFailures - 1, 16),
+                    Constants.UPSTREAM_RECONNECT_BACKOFF_MAX);
+            nextConnectNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+        }
+
+        /**
+         * 连接关闭后，若上游仍在使用中则在后台重连（建立失败时按退避延迟），
+         * 使下一个查询不必等待建立连接与握手
+         */
+        private void onClosed(int index, Connection connection) {
+            long idleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastUsedNanos);
+            if (closed || connection.idleClosed || slots[index] != connection
+                    || idleMillis >= Constants.UPSTREAM_TCP_IDLE_TIMEOUT) {
+                return;
+            }
+            long delayNanos;
+            synchronized (this) {
+                delayNanos = connectFailures > 0 ? Math.max(nextConnectNanos - System.nanoTime(), 0) : 0;
+            }
+            upstreamTimer.newTimeout(t -> reconnect(index, connection), delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void reconnect(int index, Connection previous) {
+            synchronized (this) {
+                // 期间已有查询换上了新连接
+                if (closed || slots[index] != previous) {
+                    return;
+                }
+                log.debug("上游 {} 连接已关闭，后台重连: {}", getProtocol(), remote);
+                slots[index] = connect(index);
+            }
+        }
+
+        private void close() {
+            closed = true;
+            for (Connection slot : slots) {
+                if (slot != null) {
+                    slot.channelFuture.channel().close();
+                }
+            }
+        }
+
+        /**
+         * 匹配应答，连接关闭时结束该连接上所有挂起的查询
+         */
+        private final class ResponseHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+            private final PendingQueries pending;
+
+            private ResponseHandler(PendingQueries pending) {
+                this.pending = pending;
+            }
+
+            @Override
+            protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+                if (!pending.complete(frame)) {
+                    log.debug("丢弃无法匹配的上游 {} 应答: {}", getProtocol(), remote);
+                }
+            }
+
+            @Override
+            public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+                if (evt instanceof IdleStateEvent && pending.size() == 0) {
+                    log.debug("关闭空闲的上游 {} 连接: {}", getProtocol(), remote);
+                    for (Connection slot : slots) {
+                        if (slot != null && slot.channelFuture.channel() == ctx.channel()) {
+                            slot.idleClosed = true;
+                        }
+                    }
+                    ctx.close();
+                    return;
+                }
+                super.userEventTriggered(ctx, evt);
+            }
+
+            @Override
+            public void channelInactive(ChannelHandlerContext ctx) {
+                pending.failAll(new ClosedChannelException());
+            }
+
+            @Override
+            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                log.warn("上游 {} 连接异常: {} {}", getProtocol(), remote, cause.toString());
+                ctx.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.npc2048.dns.network;
+
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.model.UpstreamDnsConfig;
+import com.npc2048.dns.model.UpstreamState;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.HashedWheelTimer;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 上游 UDP 传输
+ * <p>
+ * 每个上游 DNS 保持一小组长期存活、已 connect 的 UDP 通道，所有查询在这些通道上复用，
+ * 不再为每次未命中创建/关闭套接字
+ *
+ * @author yuelong.liang
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UdpUpstreamTransport implements UpstreamTransport {
+
+    private final EventLoopGroup upstreamEventLoopGroup;
+    private final HashedWheelTimer upstreamTimer;
+
+    /**
+     * 上游地址 -> 通道池
+     */
+    private final ConcurrentHashMap<String, UdpChannelPool> pools = new ConcurrentHashMap<>();
+
+    @Override
+    public String getProtocol() {
+        return Constants.UPSTREAM_PROTOCOL_UDP;
+    }
+
+    /**
+     * 通过 UDP 与上游交换一次查询
+     *
+     * @param upstream    上游 DNS 配置
+     * @param requestData 原始请求数据
+     * @param timeoutMs   超时时间（毫秒）
+     * @return 响应数据（事务 ID 已还原为请求 ID）
+     */
+    @Override
+    public CompletableFuture<byte[]> exchange(UpstreamDnsConfig upstream, byte[] requestData, long timeoutMs) {
+        int port = UpstreamState.portOf(upstream);
+        UdpChannelPool pool = pools.computeIfAbsent(UpstreamState.keyOf(upstream),
+                k -> new UdpChannelPool(new InetSocketAddress(upstream.getAddress(), port)));
+        return pool.exchange(requestData, timeoutMs);
+    }
+
+    @Override
+    public void retain(Collection<String> keys) {
+        pools.entrySet().removeIf(entry -> {
+            if (keys.contains(entry.getKey())) {
+                return false;
+            }
+            log.info("关闭已移除上游的 UDP 通道: {}", entry.getKey());
+            entry.getValue().close();
+            return true;
+        });
+    }
+
+    /**
+     * 关闭所有上游通道
+     */
+    @PreDestroy
+    public void shutdown() {
+        pools.values().forEach(UdpChannelPool::close);
+        pools.clear();
+    }
+
+    /**
+     * 单个上游的 UDP 通道池
+     */
+    private final class UdpChannelPool {
+
+        private final InetSocketAddress remote;
+        private final ChannelFuture[] slots = new ChannelFuture[Constants.UPSTREAM_UDP_POOL_SIZE];
+        private final PendingQueries[] pendingTables = new PendingQueries[Constants.UPSTREAM_UDP_POOL_SIZE];
+        private final AtomicInteger next = new AtomicInteger();
+
+        private UdpChannelPool(InetSocketAddress remote) {
+            this.remote = remote;
+            for (int i = 0; i < slots.length; i++) {
+                pendingTables[i] = new PendingQueries(upstreamTimer);
+                slots[i] = connect(i);
+            }
+        }
+
+        private CompletableFuture<byte[]> exchange(byte[] requestData, long timeoutMs) {
+            CompletableFuture<byte[]> future = new CompletableFuture<>();
+            int index = Math.floorMod(next.getAndIncrement(), slots.length);
+            ChannelFuture channelFuture = acquire(index);
+            channelFuture.addListener(f -> {
+                if (!f.isSuccess()) {
+                    future.completeExceptionally(f.cause());
+                    return;
+                }
+                // 监听器内抛出的异常会被 Netty 吞掉，必须转为 Future 的异常结束，否则调用方永远等不到结果
+                try {
+                    Channel channel = channelFuture.channel();
+                    ByteBuf request = pendingTables[index].register(requestData, future, timeoutMs, channel.alloc());
+                    channel.writeAndFlush(request).addListener(writeFuture -> {
+                        if (!writeFuture.isSuccess()) {
+                            future.completeExceptionally(writeFuture.cause());
+                        }
+                    });
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+            return future;
+        }
+
+        /**
+         * 获取可用通道，已关闭或连接失败的槽位会重新建立
+         */
+        private ChannelFuture acquire(int index) {
+            ChannelFuture current = slots[index];
+            if (current.isDone() && (!current.isSuccess() || !current.channel().isActive())) {
+                synchronized (this) {
+                    if (slots[index] == current) {
+                        slots[index] = connect(index);
+                    }
+                    current = slots[index];
+                }
+            }
+            return current;
+        }
+
+        private ChannelFuture connect(int index) {
+            PendingQueries pending = pendingTables[index];
+            Bootstrap bootstrap = new Bootstrap()
+                    .group(upstreamEventLoopGroup)
+                    .channel(NioDatagramChannel.class)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR,
+                            new FixedRecvByteBufAllocator(Constants.UPSTREAM_UDP_RECEIVE_BUFFER_SIZE))
+                    .handler(new SimpleChannelInboundHandler<DatagramPacket>() {
+                        @Override
+                        protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+                            if (!pending.complete(packet.content())) {
+                                log.debug("丢弃无法匹配的上游响应: {}", packet.sender());
+                            }
+                        }
+
+                        @Override
+                        public void channelInactive(ChannelHandlerContext ctx) {
+                            pending.failAll(new ClosedChannelException());
+                        }
+
+                        @Override
+                        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                            // 已 connect 的 UDP 通道会收到 ICMP 不可达等错误，保留通道继续使用
+                            log.warn("上游 UDP 通道异常: {} {}", remote, cause.toString());
+                        }
+                    });
+            // connect 后内核只接收来自该上游的报文
+            return bootstrap.connect(remote);
+        }
+
+        private void close() {
+            for (ChannelFuture slot : slots) {
+                slot.channel().close();
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.npc2048.dns.network;
+
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.model.UpstreamDnsConfig;
+import io.netty.handler.proxy.HttpProxyHandler;
+import io.netty.handler.proxy.ProxyHandler;
+import io.netty.handler.proxy.Socks5ProxyHandler;
+import io.netty.util.NetUtil;
+
+import java.net.InetSocketAddress;
+
+/**
+ * 上游代理工具
+ * <p>
+ * TCP、DoT、DoH 连接在管道最前面加入 {@link ProxyHandler}，经 SOCKS5 CONNECT 或 HTTP CONNECT 建立隧道；
+ * UDP 上游经 SOCKS5 UDP ASSOCIATE 转发（见 {@link Socks5UdpUpstreamTransport}）
+ *
+ * @author yuelong.liang
+ */
+public class UpstreamProxy {
+
+    private UpstreamProxy() {
+    }
+
+    /**
+     * 上游启用的代理配置
+     *
+     * @return 启用代理时为代理配置，否则为 null
+     */
+    public static UpstreamDnsConfig.ProxyConfig of(UpstreamDnsConfig upstream) {
+        return Boolean.TRUE.equals(upstream.getUseProxy()) ? upstream.getProxyConfig() : null;
+    }
+
+    /**
+     * 代理类型（大写），SOCKS 视为 SOCKS5
+     */
+    public static String typeOf(UpstreamDnsConfig.ProxyConfig proxyConfig) {
+        String type = proxyConfig.getType() == null ? "" : proxyConfig.getType().trim().toUpperCase();
+        return "SOCKS".equals(type) ? Constants.PROXY_TYPE_SOCKS5 : type;
+    }
+
+    /**
+     * 代理配置是否可用：类型为 HTTP 或 SOCKS5，且地址与端口有效
+     */
+    public static boolean isValid(UpstreamDnsConfig.ProxyConfig proxyConfig) {
+        if (proxyConfig == null || proxyConfig.getHost() == null || proxyConfig.getHost().isBlank()) {
+            return false;
+        }
+        Integer port = proxyConfig.getPort();
+        if (port == null || port <= 0 || port > Constants.MAX_PORT_VALUE) {
+            return false;
+        }
+        String type = typeOf(proxyConfig);
+        return Constants.PROXY_TYPE_HTTP.equals(type) || Constants.PROXY_TYPE_SOCKS5.equals(type);
+    }
+
+    /**
+     * 经代理连接的上游地址：IP 字面量直接使用，域名不在本地解析，交给代理解析
+     */
+    public static InetSocketAddress remoteOf(UpstreamDnsConfig upstream, int port) {
+        String address = upstream.getAddress();
+        if (of(upstream) == null || NetUtil.isValidIpV4Address(address) || NetUtil.isValidIpV6Address(address)) {
+            return new InetSocketAddress(address, port);
+        }
+        return InetSocketAddress.createUnresolved(address, port);
+    }
+
+    /**
+     * 用于日志与错误信息的代理描述（不含凭据）
+     */
+    public static String describe(UpstreamDnsConfig.ProxyConfig proxyConfig) {
+        return proxyConfig == null ? "null"
+                : proxyConfig.getType() + "://" + proxyConfig.getHost() + ":" + proxyConfig.getPort();
+    }
+
+    public static InetSocketAddress addressOf(UpstreamDnsConfig.ProxyConfig proxyConfig) {
+        return new InetSocketAddress(proxyConfig.getHost(), proxyConfig.getPort());
+    }
+
+    /**
+     * 创建建立 TCP 隧道的代理处理器
+     *
+     * @throws IllegalArgumentException 代理配置无效
+     */
+    public static ProxyHandler newHandler(UpstreamDnsConfig.ProxyConfig proxyConfig) {
+        if (!isValid(proxyConfig)) {
+            throw new IllegalArgumentException("代理配置无效: " + describe(proxyConfig));
+        }
+        InetSocketAddress address = addressOf(proxyConfig);
+        boolean auth = proxyConfig.getUsername() != null && !proxyConfig.getUsername().isEmpty();
+        String password = proxyConfig.getPassword() != null ? proxyConfig.getPassword() : "";
+        ProxyHandler handler;
+        if (Constants.PROXY_TYPE_HTTP.equals(typeOf(proxyConfig))) {
+            handler = auth ? new HttpProxyHandler(address, proxyConfig.getUsername(), password) : new HttpProxyHandler(address);
+        } else {
+            handler = auth ? new Socks5ProxyHandler(address, proxyConfig.getUsername(), password) : new Socks5ProxyHandler(address);
+        }
+        handler.setConnectTimeoutMillis(Constants.UPSTREAM_TCP_CONNECT_TIMEOUT);
+        return handler;
+    }
+}
@@ -0,0 +1,41 @@
+package com.npc2048.dns.network;
+
+import com.npc2048.dns.model.UpstreamDnsConfig;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 上游传输
+ * <p>
+ * 每种协议一个实现，注册为 Spring Bean 后由转发器按上游配置的 {@code protocol} 选用。
+ * 实现类为每个上游维护长期存活的连接，同一连接上复用多个查询
+ *
+ * @author yuelong.liang
+ */
+public interface UpstreamTransport {
+
+    /**
+     * 协议名称
+     *
+     * @return 名称（大写），对应上游配置的 {@code protocol}
+     */
+    String getProtocol();
+
+    /**
+     * 与上游交换一次查询
+     *
+     * @param upstream    上游 DNS 配置
+     * @param requestData 原始请求数据
+     * @param timeoutMs   超时时间（毫秒）
+     * @return 响应数据（事务 ID 已还原为请求 ID），超时或传输失败时异常结束
+     */
+    CompletableFuture<byte[]> exchange(UpstreamDnsConfig upstream, byte[] requestData, long timeoutMs);
+
+    /**
+     * 关闭并移除已不在上游列表中的连接
+     *
+     * @param keys 当前上游标识
+     */
+    void retain(Collection<String> keys);
+}
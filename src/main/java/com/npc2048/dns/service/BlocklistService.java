@@ -0,0 +1,291 @@
+package com.npc2048.dns.service;
+
+import com.npc2048.dns.common.util.DomainSuffixSet;
+import com.npc2048.dns.common.util.FileChangeWatcher;
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.config.DnsConfig;
+import com.npc2048.dns.model.DnsCacheKey;
+import com.npc2048.dns.model.LocalZone;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jspecify.annotations.NonNull;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Service;
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Address;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Type;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 拦截名单服务
+ * <p>
+ * 把拦截名单文件编译为 {@link DomainSuffixSet}，名单中的域名及其子域名按配置应答 NXDOMAIN 或黑洞地址。
+ * 重新加载在单独的后台线程中构建新的集合，完成后整体替换，查询不会看到构建到一半的数据；
+ * 加载期间再次请求重新加载时合并为一次。任一文件读取失败则保留原名单
+ *
+ * @author yuelong.liang
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BlocklistService implements CommandLineRunner {
+
+    private final DnsConfig dnsConfig;
+
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().daemon().name("blocklist-loader").factory());
+
+    /**
+     * 已提交但尚未开始的重新加载
+     */
+    private final AtomicBoolean reloadPending = new AtomicBoolean();
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder lookupNanos = new LongAdder();
+
+    private volatile DomainSuffixSet domains = DomainSuffixSet.empty();
+    private volatile BlockAnswers answers;
+    private volatile FileChangeWatcher watcher;
+
+    private volatile boolean loading;
+    private volatile long lastLoadTime;
+    private volatile long buildMillis;
+    private volatile long rejectedEntries;
+    private volatile String lastError;
+
+    @Override
+    public void run(@NonNull String... args) {
+        try {
+            updateAnswers(dnsConfig.getBlocklistMode(), dnsConfig.getBlocklistSinkholeIpv4(),
+                    dnsConfig.getBlocklistSinkholeIpv6(), dnsConfig.getBlocklistTtl());
+        } catch (IllegalArgumentException e) {
+            log.error("拦截应答配置无效，改用 NXDOMAIN: {}", e.getMessage());
+            updateAnswers(Constants.BLOCKLIST_MODE_NXDOMAIN, Constants.BLOCKLIST_SINKHOLE_IPV4,
+                    Constants.BLOCKLIST_SINKHOLE_IPV6, Constants.BLOCKLIST_TTL);
+        }
+        if (Boolean.TRUE.equals(dnsConfig.getBlocklistWatchEnabled())) {
+            try {
+                watcher = new FileChangeWatcher("blocklist-watcher", Constants.BLOCKLIST_RELOAD_DELAY, this::reload);
+            } catch (IOException e) {
+                log.warn("无法监视拦截名单文件: {}", e.getMessage());
+            }
+        }
+        reload();
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        loader.shutdownNow();
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    /**
+     * 查找拦截应答
+     *
+     * @return 拦截应答，未被拦截时返回 null
+     */
+    public LocalZone.Answer lookup(DnsCacheKey key) {
+        DomainSuffixSet set = domains;
+        if (set.size() == 0 || key.getQclass() != DClass.IN) {
+            return null;
+        }
+        long start = System.nanoTime();
+        boolean matched = set.matches(key.getName());
+        lookupNanos.add(System.nanoTime() - start);
+        lookups.increment();
+        if (!matched) {
+            return null;
+        }
+        blocked.increment();
+        BlockAnswers current = answers;
+        return switch (key.getQtype()) {
+            case Type.A -> current.ipv4();
+            case Type.AAAA -> current.ipv6();
+            default -> current.other();
+        };
+    }
+
+    /**
+     * 预编码拦截应答
+     *
+     * @throws IllegalArgumentException 应答方式或黑洞地址不合法
+     */
+    public void updateAnswers(String mode, String sinkholeIpv4, String sinkholeIpv6, int ttl) {
+        if (Constants.BLOCKLIST_MODE_NXDOMAIN.equalsIgnoreCase(mode)) {
+            LocalZone.Answer nxdomain = LocalZone.Answer.synthesize(Rcode.NXDOMAIN, List.of());
+            answers = new BlockAnswers(nxdomain, nxdomain, nxdomain);
+            return;
+        }
+        if (!Constants.BLOCKLIST_MODE_SINKHOLE.equalsIgnoreCase(mode)) {
+            throw new IllegalArgumentException("不支持的拦截应答方式: " + mode);
+        }
+        answers = new BlockAnswers(
+                LocalZone.Answer.synthesize(Rcode.NOERROR,
+                        List.of(new ARecord(Name.root, DClass.IN, ttl, address(sinkholeIpv4, Address.IPv4)))),
+                LocalZone.Answer.synthesize(Rcode.NOERROR,
+                        List.of(new AAAARecord(Name.root, DClass.IN, ttl, address(sinkholeIpv6, Address.IPv6)))),
+                LocalZone.Answer.synthesize(Rcode.NOERROR, List.of()));
+    }
+
+    /**
+     * 在后台线程按当前配置重新加载拦截名单，立即返回
+     */
+    public void reload() {
+        if (reloadPending.compareAndSet(false, true)) {
+            loader.execute(this::load);
+        }
+    }
+
+    private void load() {
+        reloadPending.set(false);
+        loading = true;
+        long start = System.nanoTime();
+        try {
+            List<Path> files = dnsConfig.getBlocklistFiles().stream()
+                    .map(file -> Path.of(file).toAbsolutePath().normalize())
+                    .toList();
+            // 读取失败的文件同样需要监视，修正后自动重新加载
+            if (watcher != null) {
+                watcher.watch(files);
+            }
+            DomainSuffixSet.Builder builder = DomainSuffixSet.builder();
+            long rejected = 0;
+            for (Path file : files) {
+                rejected += parseList(file, builder);
+            }
+            DomainSuffixSet built = builder.build();
+            domains = built;
+            buildMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            rejectedEntries = rejected;
+            lastLoadTime = System.currentTimeMillis();
+            lastError = null;
+            log.info("拦截名单已加载: {} 个域名, {} 个节点, {} 字节, 忽略 {} 条, 耗时 {}ms", built.size(),
+                    built.nodeCount(), built.memoryBytes(), rejected, buildMillis);
+        } catch (IOException | RuntimeException e) {
+            lastError = e.getMessage();
+            log.warn("加载拦截名单失败，保留原名单: {}", e.getMessage());
+        } finally {
+            loading = false;
+        }
+    }
+
+    /**
+     * 解析拦截名单文件，兼容以下格式，"#" 之后为注释：
+     * <ul>
+     *     <li>每行一个域名：{@code ads.example.com}</li>
+     *     <li>hosts 格式：{@code 0.0.0.0 ads.example.com [更多域名...]}</li>
+     *     <li>Adblock 域名规则：{@code ||ads.example.com^}（以 "!" 或 "[" 开头的行视为注释，带选项的规则被忽略）</li>
+     * </ul>
+     *
+     * @return 被忽略的条目数（不合法、只有一个标签或不支持的规则）
+     */
+    static long parseList(Path path, DomainSuffixSet.Builder builder) throws IOException {
+        long rejected = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int end = line.indexOf('#');
+                end = end < 0 ? line.length() : end;
+                int start = skipWhitespace(line, 0, end);
+                if (start == end || line.charAt(start) == '!' || line.charAt(start) == '[') {
+                    continue;
+                }
+                if (line.startsWith("||", start)) {
+                    int caret = line.indexOf('^', start);
+                    boolean plain = caret > 0 && caret < end && skipWhitespace(line, caret + 1, end) == end;
+                    if (!plain || !builder.add(line.substring(start + 2, caret))) {
+                        rejected++;
+                    }
+                    continue;
+                }
+                int first = nextWhitespace(line, start, end);
+                int next = skipWhitespace(line, first, end);
+                if (next == end) {
+                    rejected += builder.add(line.substring(start, first)) ? 0 : 1;
+                    continue;
+                }
+                // hosts 格式：第一列为地址，其余为域名
+                while (next < end) {
+                    int tokenEnd = nextWhitespace(line, next, end);
+                    rejected += builder.add(line.substring(next, tokenEnd)) ? 0 : 1;
+                    next = skipWhitespace(line, tokenEnd, end);
+                }
+            }
+        }
+        return rejected;
+    }
+
+    private static int skipWhitespace(String line, int from, int end) {
+        while (from < end && Character.isWhitespace(line.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int nextWhitespace(String line, int from, int end) {
+        while (from < end && !Character.isWhitespace(line.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static InetAddress address(String text, int family) {
+        byte[] bytes = text == null ? null : Address.toByteArray(text, family);
+        if (bytes == null) {
+            throw new IllegalArgumentException("黑洞地址不合法: " + text);
+        }
+        try {
+            return InetAddress.getByAddress(bytes);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("黑洞地址不合法: " + text, e);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        DomainSuffixSet set = domains;
+        long count = lookups.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("domains", set.size());
+        stats.put("nodes", set.nodeCount());
+        stats.put("memoryBytes", set.memoryBytes());
+        stats.put("bloomBytes", set.bloomBytes());
+        stats.put("lookups", count);
+        stats.put("blocked", blocked.sum());
+        stats.put("avgLookupNanos", count == 0 ? -1 : lookupNanos.sum() / count);
+        stats.put("rejectedEntries", rejectedEntries);
+        stats.put("loading", loading);
+        stats.put("buildMillis", buildMillis);
+        stats.put("lastLoadTime", lastLoadTime);
+        stats.put("lastError", lastError);
+        return stats;
+    }
+
+    /**
+     * 按查询类型预编码的拦截应答
+     */
+    private record BlockAnswers(LocalZone.Answer ipv4, LocalZone.Answer ipv6, LocalZone.Answer other) {
+    }
+}
@@ -2,6 +2,8 @@ package com.npc2048.dns.service;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.npc2048.dns.model.CacheEntry;
+import com.npc2048.dns.model.DnsCacheKey;
+import com.npc2048.dns.model.DnsWireResponse;
 
 /**
  * DNS缓存服务接口
@@ -14,25 +16,44 @@ public interface CacheService {
      * 获取缓存
      *
      * @param key 缓存键
-     * @return 缓存的数据，如果不存在或过期返回null
+     * @return 缓存条目，如果不存在或过期返回null
      */
-    byte[] get(String key);
+    CacheEntry get(DnsCacheKey key);
+
+    /**
+     * 获取已过期但仍在 stale 窗口内的条目（RFC 8767），不计入命中统计
+     *
+     * @param key 缓存键
+     * @return 过期条目，不存在或仍未过期时返回null
+     */
+    CacheEntry getStale(DnsCacheKey key);
 
     /**
      * 存储缓存
      *
-     * @param key  缓存键
-     * @param data dns缓存数据
-     * @return ttl
+     * @param key      缓存键
+     * @param data     dns缓存数据
+     * @param response 响应报文扫描结果
+     * @return ttl，未缓存时返回 0
+     */
+    int put(DnsCacheKey key, byte[] data, DnsWireResponse response);
+
+    /**
+     * 记录一次预取
+     */
+    void recordPrefetch();
+
+    /**
+     * 记录一次过期数据应答
      */
-    int put(String key, byte[] data);
+    void recordStaleHit();
 
     /**
      * 删除缓存
      *
      * @param key 缓存键
      */
-    void remove(String key);
+    void remove(DnsCacheKey key);
 
     /**
      * 清空所有缓存
@@ -56,16 +77,30 @@ public interface CacheService {
     /**
      * 获取缓存
      */
-    Cache<String, CacheEntry> getCache();
+    Cache<DnsCacheKey, CacheEntry> getCache();
 
     /**
      * 缓存统计信息
+     *
+     * @param hits           命中次数
+     * @param misses         未命中次数
+     * @param size           条目数
+     * @param negativeHits   命中否定条目（NXDOMAIN/NODATA/SERVFAIL）的次数
+     * @param negativeMisses 未命中后写入否定条目的次数
+     * @param prefetches     到期前发起的后台预取次数
+     * @param staleHits      使用过期数据应答的次数
      */
-    record CacheStats(long hits, long misses, long size) {
+    record CacheStats(long hits, long misses, long size, long negativeHits, long negativeMisses,
+                      long prefetches, long staleHits) {
 
         public double getHitRate() {
             long total = hits + misses;
             return total == 0 ? 0.0 : (double) hits / total;
         }
+
+        public double getNegativeHitRate() {
+            long total = negativeHits + negativeMisses;
+            return total == 0 ? 0.0 : (double) negativeHits / total;
+        }
     }
 }
\ No newline at end of file
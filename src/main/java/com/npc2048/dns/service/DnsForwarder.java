@@ -1,18 +1,31 @@
 package com.npc2048.dns.service;
 
 import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.config.DnsConfig;
 import com.npc2048.dns.model.UpstreamDnsConfig;
+import com.npc2048.dns.model.UpstreamState;
+import com.npc2048.dns.network.Socks5UdpUpstreamTransport;
+import com.npc2048.dns.network.UpstreamProxy;
+import com.npc2048.dns.network.UpstreamTransport;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
+import org.xbill.DNS.Rcode;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
-import java.net.SocketAddress;
 import java.nio.ByteBuffer;
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * DNS 转发器
@@ -21,158 +34,404 @@ import java.time.Duration;
  */
 @Slf4j
 @Component
+@RequiredArgsConstructor
 public class DnsForwarder {
 
+    private final DnsConfig dnsConfig;
+    private final List<UpstreamTransport> upstreamTransports;
+    private final Socks5UdpUpstreamTransport socks5UdpUpstreamTransport;
+    private final UpstreamSelector upstreamSelector;
+    private final HashedWheelTimer upstreamTimer;
+
+    /**
+     * 对冲额度（以 1/100 次为单位）：每次尝试积累 hedgeMaxPercent，每次对冲消耗 100
+     */
+    private final AtomicLong hedgeCredits = new AtomicLong();
+
+    /**
+     * 发出的对冲请求数
+     */
+    private final LongAdder hedgedQueries = new LongAdder();
+
+    /**
+     * 对冲请求先于首选上游应答的次数
+     */
+    private final LongAdder hedgeWins = new LongAdder();
+
+    /**
+     * 因首选上游并发已满而改发其他上游的次数
+     */
+    private final LongAdder spilledQueries = new LongAdder();
+
+    /**
+     * 因排队已满被拒绝的尝试数
+     */
+    private final LongAdder rejectedQueries = new LongAdder();
+
     /**
-     * 转发 DNS 查询到上游服务器
+     * UDP 应答被截断（TC）后改用 TCP 重新查询的次数
+     */
+    private final LongAdder truncatedRetries = new LongAdder();
+
+    /**
+     * 带重试地转发 DNS 查询（异步）
+     * <p>
+     * 在 {@code defaultTimeout} 的总期限内最多尝试 {@code retryCount + 1} 次：首次尝试的重传间隔为
+     * 上游按实测 RTT 估算的 RTO，之后每次翻倍，且不超过上游自身的 timeout 与剩余期限。
+     * 重传间隔到期、发送失败或收到 SERVFAIL/REFUSED 时切换到下一个上游重试，单个丢包只多花几百毫秒。
+     * 先前的尝试不会因重传而放弃，继续等待应答直到总期限（或上游自身的 timeout），任一尝试的可用应答先到即完成。
+     * 启用对冲时，每次尝试在首选上游超过其 RTT 分位数仍未应答时向另一个上游发送同一查询
      *
-     * @param domain     域名
-     * @param type       查询类型
-     * @param upstream   上游 DNS 配置
+     * @param domain      域名
+     * @param type        查询类型
+     * @param first       首次尝试的上游
      * @param requestData 原始请求数据
+     * @return 响应数据，所有尝试都没有应答时以 null 完成；都是错误应答时返回最后一个
+     */
+    public CompletableFuture<byte[]> forwardWithRetry(String domain, int type, UpstreamState first, byte[] requestData) {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(dnsConfig.getDefaultTimeout());
+        return new RetryingExchange(domain, type, requestData, deadlineNanos).start(first);
+    }
+
+    /**
+     * 对冲统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hedgedQueries", hedgedQueries.sum());
+        stats.put("hedgeWins", hedgeWins.sum());
+        stats.put("spilledQueries", spilledQueries.sum());
+        stats.put("rejectedQueries", rejectedQueries.sum());
+        stats.put("truncatedRetries", truncatedRetries.sum());
+        return stats;
+    }
+
+    /**
+     * 首选上游并发已满时改用仍有额度的其他上游，都已满载时仍使用首选上游（排队）
+     */
+    private UpstreamState spillover(UpstreamState upstreamState, List<UpstreamState> tried) {
+        if (!Boolean.TRUE.equals(dnsConfig.getConcurrencyLimitEnabled()) || upstreamState.hasCapacity()) {
+            return upstreamState;
+        }
+        List<UpstreamState> excluded = new ArrayList<>(tried);
+        excluded.add(upstreamState);
+        UpstreamState spill = upstreamSelector.selectSpillover(excluded);
+        if (spill == null) {
+            return upstreamState;
+        }
+        spilledQueries.increment();
+        log.debug("上游并发已满，溢出到: {} -> {}", upstreamState.getKey(), spill.getKey());
+        return spill;
+    }
+
+    private void earnHedgeCredit() {
+        long max = Constants.HEDGE_BURST * 100L;
+        hedgeCredits.accumulateAndGet(dnsConfig.getHedgeMaxPercent(), (credits, percent) -> Math.min(credits + percent, max));
+    }
+
+    private boolean tryAcquireHedgeCredit() {
+        return hedgeCredits.getAndUpdate(credits -> credits >= 100 ? credits - 100 : credits) >= 100;
+    }
+
+    /**
+     * 第 N 次尝试的超时：首次为上游的 RTO（截断到 [rtoMin, rtoMax]，尚无样本时为 attemptTimeout），
+     * 每次翻倍，不超过上游自身的 timeout
+     */
+    private long attemptTimeout(UpstreamState upstreamState, int attempt) {
+        long rto = upstreamState.getRtoMillis();
+        long base = rto < 0 ? dnsConfig.getAttemptTimeout() : Math.max(Math.min(rto, dnsConfig.getRtoMax()), dnsConfig.getRtoMin());
+        long timeout = base << Math.min(attempt, 16);
+        return Math.min(timeout, upstreamTimeout(upstreamState.getConfig()));
+    }
+
+    /**
+     * 转发 DNS 查询到上游服务器（异步）
+     * <p>
+     * 返回的 Future 在上游响应到达或超时后完成，不会阻塞调用线程；
+     * 转发失败时以 null 完成。每次交换的 RTT 与结果记录到上游运行状态
+     *
+     * @param domain        域名
+     * @param type          查询类型
+     * @param upstreamState 上游 DNS 运行状态
+     * @param requestData   原始请求数据
+     * @return 响应数据
+     */
+    public CompletableFuture<byte[]> forwardQuery(String domain, int type, UpstreamState upstreamState, byte[] requestData) {
+        return forwardQuery(domain, type, upstreamState, requestData,
+                upstreamState != null ? upstreamTimeout(upstreamState.getConfig()) : 0);
+    }
+
+    /**
+     * 以指定超时转发 DNS 查询到上游服务器（异步）
+     *
+     * @param domain        域名
+     * @param type          查询类型
+     * @param upstreamState 上游 DNS 运行状态
+     * @param requestData   原始请求数据
+     * @param timeout       超时时间（毫秒）
      * @return 响应数据
      */
-    public byte[] forwardQuery(String domain, int type, UpstreamDnsConfig upstream, byte[] requestData) {
-        if (upstream == null) {
+    public CompletableFuture<byte[]> forwardQuery(String domain, int type, UpstreamState upstreamState,
+                                                  byte[] requestData, long timeout) {
+        if (upstreamState == null) {
             log.error("上游 DNS 配置为空");
-            return null;
+            return CompletableFuture.completedFuture(null);
+        }
+        // 只有等满上游自身 timeout 的超时才计入连续失败
+        boolean fullTimeout = timeout >= upstreamTimeout(upstreamState.getConfig());
+        if (!Boolean.TRUE.equals(dnsConfig.getConcurrencyLimitEnabled())) {
+            return exchange(domain, type, upstreamState, requestData, timeout, fullTimeout);
         }
 
-        try {
-            log.debug("转发查询到上游 DNS: {}:{} (代理: {})",
-                    upstream.getAddress(), upstream.getPort(), upstream.getUseProxy());
+        // 在上游的并发额度内发送，额度已满时排队，排队时间计入本次超时
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        long queuedNanos = System.nanoTime();
+        boolean accepted = upstreamState.submit(() -> {
+            long left = timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queuedNanos);
+            if (result.isDone() || left < Constants.MIN_ATTEMPT_TIMEOUT) {
+                upstreamState.release();
+                result.complete(null);
+                return;
+            }
+            CompletableFuture<byte[]> exchange = exchange(domain, type, upstreamState, requestData, left, fullTimeout);
+            result.whenComplete((responseData, e) -> {
+                if (result.isCancelled()) {
+                    exchange.cancel(false);
+                }
+            });
+            exchange.whenComplete((responseData, e) -> {
+                upstreamState.release();
+                result.complete(responseData);
+            });
+        }, dnsConfig.getUpstreamQueueSize());
+        if (!accepted) {
+            rejectedQueries.increment();
+            log.warn("上游排队已满，放弃本次尝试: {} -> {}", domain, upstreamState.getKey());
+            return CompletableFuture.completedFuture(null);
+        }
+        return result;
+    }
+
+    /**
+     * 与上游交换一次查询，记录 RTT、结果与并发限制的调整
+     */
+    private CompletableFuture<byte[]> exchange(String domain, int type, UpstreamState upstreamState,
+                                               byte[] requestData, long timeout, boolean fullTimeout) {
+        UpstreamDnsConfig upstream = upstreamState.getConfig();
+        long startNanos = System.nanoTime();
 
-            byte[] responseData;
+        log.debug("转发查询到上游 DNS: {}:{} (代理: {})",
+                upstream.getAddress(), upstream.getPort(), upstream.getUseProxy());
 
+        CompletableFuture<byte[]> future;
+        try {
             if (Boolean.TRUE.equals(upstream.getUseProxy()) && upstream.getProxyConfig() != null) {
                 // 通过代理转发
-                responseData = forwardThroughProxy(domain, type, upstream, requestData);
+                future = forwardThroughProxy(domain, type, upstream, requestData, timeout);
             } else {
                 // 直连转发
-                responseData = forwardDirect(domain, type, upstream, requestData);
+                future = forwardDirect(domain, type, upstream, requestData, timeout);
             }
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
 
+        CompletableFuture<byte[]> transport = future;
+        CompletableFuture<byte[]> result = future.handle((responseData, e) -> {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            if (e instanceof CancellationException) {
+                // 对冲落败被取消，不计入上游失败
+                return null;
+            }
+            if (e instanceof TimeoutException && !fullTimeout) {
+                // 总期限先于上游自身 timeout 到期，不计入熔断
+                upstreamState.recordAttemptTimeout(elapsedNanos);
+                upstreamState.decreaseLimit(dnsConfig.getConcurrencyLimitMin());
+                log.debug("上游 DNS 尝试超时: {} -> {}:{}", domain, upstream.getAddress(), upstream.getPort());
+                return null;
+            }
+            if (e instanceof TimeoutException) {
+                onFailure(upstreamState, upstreamState.recordFailure(elapsedNanos));
+                upstreamState.decreaseLimit(dnsConfig.getConcurrencyLimitMin());
+                log.warn("上游 DNS 响应超时: {} -> {}:{} ({}ms)", domain, upstream.getAddress(), upstream.getPort(),
+                        timeout);
+                return null;
+            }
+            if (e != null) {
+                onFailure(upstreamState, upstreamState.recordFailure(elapsedNanos));
+                log.error("转发 DNS 查询失败: {} -> {}:{}", domain, upstream.getAddress(), upstream.getPort(), e);
+                return null;
+            }
             if (responseData != null && responseData.length > 0) {
                 log.debug("从上游 DNS 收到响应: {} 字节", responseData.length);
+                recordResponse(upstreamState, responseData, elapsedNanos);
             } else {
+                onFailure(upstreamState, upstreamState.recordFailure(elapsedNanos));
                 log.warn("从上游 DNS 收到空响应");
             }
-
             return responseData;
+        });
+        // 调用方取消时一并取消传输层请求，释放其占用的事务 ID
+        result.whenComplete((responseData, e) -> {
+            if (result.isCancelled()) {
+                transport.cancel(false);
+            }
+        });
+        return result;
+    }
 
-        } catch (Exception e) {
-            log.error("转发 DNS 查询失败: {} -> {}:{}", domain, upstream.getAddress(), upstream.getPort(), e);
-            return null;
+    /**
+     * 按响应码记录上游应答
+     */
+    private void recordResponse(UpstreamState upstreamState, byte[] responseData, long elapsedNanos) {
+        if (isErrorResponse(responseData)) {
+            onFailure(upstreamState, upstreamState.recordErrorResponse(elapsedNanos));
+        } else {
+            upstreamState.recordSuccess(elapsedNanos);
+            upstreamState.increaseLimit(dnsConfig.getConcurrencyLimitMax());
+            if (upstreamState.closeCircuit()) {
+                log.info("上游 DNS 已恢复，关闭熔断: {}", upstreamState.getKey());
+            }
         }
     }
 
     /**
-     * 直连转发
+     * 是否为 SERVFAIL/REFUSED 等应换一个上游重试的应答
      */
-    private byte[] forwardDirect(String domain, int type, UpstreamDnsConfig upstream, byte[] requestData) {
-        DatagramSocket socket = null;
-        try {
-            // 创建 UDP socket
-            socket = new DatagramSocket();
-            socket.setSoTimeout(upstream.getTimeout() != null ? upstream.getTimeout() : Constants.DEFAULT_UPSTREAM_TIMEOUT);
-
-            // 准备请求数据包
-            InetAddress address = InetAddress.getByName(upstream.getAddress());
-            int port = upstream.getPort() != null ? upstream.getPort() : Constants.DEFAULT_DNS_PORT;
-            DatagramPacket requestPacket = new DatagramPacket(
-                    requestData, requestData.length,
-                    address, port
-            );
-
-            // 发送请求
-            socket.send(requestPacket);
-
-            // 接收响应
-            byte[] buffer = new byte[Constants.UDP_BUFFER_SIZE];
-            DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length);
-            socket.receive(responsePacket);
-
-            // 提取响应数据
-            byte[] responseData = new byte[responsePacket.getLength()];
-            System.arraycopy(responsePacket.getData(), 0, responseData, 0, responsePacket.getLength());
+    private static boolean isErrorResponse(byte[] responseData) {
+        int rcode = responseData.length >= Constants.DNS_HEADER_LENGTH ? responseData[3] & 0x0F : Rcode.SERVFAIL;
+        return rcode == Rcode.SERVFAIL || rcode == Rcode.REFUSED;
+    }
 
-            return responseData;
+    /**
+     * 上游自身的超时时间（毫秒）
+     */
+    private static int upstreamTimeout(UpstreamDnsConfig upstream) {
+        return upstream.getTimeout() != null ? upstream.getTimeout() : Constants.DEFAULT_UPSTREAM_TIMEOUT;
+    }
 
-        } catch (Exception e) {
-            log.error("直连转发失败: {} -> {}:{}", domain, upstream.getAddress(), upstream.getPort(), e);
-            return null;
-        } finally {
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
-            }
+    /**
+     * 连续失败达到阈值时打开熔断
+     */
+    private void onFailure(UpstreamState upstreamState, int consecutiveFailures) {
+        if (Boolean.TRUE.equals(dnsConfig.getCircuitBreakerEnabled())
+                && consecutiveFailures >= dnsConfig.getCircuitFailureThreshold()
+                && upstreamState.openCircuit()) {
+            log.warn("上游 DNS 连续失败 {} 次，打开熔断: {}", consecutiveFailures, upstreamState.getKey());
         }
     }
 
     /**
-     * 通过代理转发
+     * 直连转发
+     * <p>
+     * 按上游配置的协议选择传输，复用常驻的通道或连接，超时由时间轮驱动
      */
-    private byte[] forwardThroughProxy(String domain, int type, UpstreamDnsConfig upstream, byte[] requestData) {
-        UpstreamDnsConfig.ProxyConfig proxyConfig = upstream.getProxyConfig();
-        if (proxyConfig == null) {
-            log.warn("代理配置为空，使用直连");
-            return forwardDirect(domain, type, upstream, requestData);
+    private CompletableFuture<byte[]> forwardDirect(String domain, int type, UpstreamDnsConfig upstream, byte[] requestData,
+                                                    long timeout) {
+        String protocol = UpstreamState.protocolOf(upstream);
+        UpstreamTransport transport = transport(protocol);
+        if (transport == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("不支持的上游协议: " + protocol));
         }
+        CompletableFuture<byte[]> exchange = transport.exchange(upstream, requestData, timeout);
+        if (!Constants.UPSTREAM_PROTOCOL_UDP.equals(protocol)) {
+            return exchange;
+        }
+        return withTcpFallback(domain, upstream, requestData, timeout, exchange);
+    }
 
-        try {
-            // 根据代理类型创建代理
-            Proxy proxy = createProxy(proxyConfig);
-            if (proxy == null) {
-                log.warn("不支持的代理类型: {}，使用直连", proxyConfig.getType());
-                return forwardDirect(domain, type, upstream, requestData);
+    /**
+     * UDP 应答设置了 TC 位时，在剩余超时内改用 TCP 重新查询（RFC 7766），TCP 也失败时返回截断的应答
+     */
+    private CompletableFuture<byte[]> withTcpFallback(String domain, UpstreamDnsConfig upstream, byte[] requestData,
+                                                      long timeout, CompletableFuture<byte[]> exchange) {
+        long startNanos = System.nanoTime();
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        exchange.whenComplete((responseData, e) -> {
+            long remaining = timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            if (e != null || !isTruncated(responseData) || remaining < Constants.MIN_ATTEMPT_TIMEOUT || result.isDone()) {
+                completeWith(result, responseData, e);
+                return;
+            }
+            truncatedRetries.increment();
+            log.debug("上游应答被截断，改用 TCP 重新查询: {} -> {}:{}", domain, upstream.getAddress(), upstream.getPort());
+            CompletableFuture<byte[]> retry = transport(Constants.UPSTREAM_PROTOCOL_TCP)
+                    .exchange(upstream, requestData, remaining);
+            result.whenComplete((r, ex) -> {
+                if (result.isCancelled()) {
+                    retry.cancel(false);
+                }
+            });
+            retry.whenComplete((tcpResponse, tcpError) -> {
+                if (tcpError != null) {
+                    log.debug("TCP 重新查询失败，使用截断的应答: {} {}", domain, tcpError.toString());
+                    result.complete(responseData);
+                } else {
+                    result.complete(tcpResponse);
+                }
+            });
+        });
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                exchange.cancel(false);
             }
+        });
+        return result;
+    }
 
-            // 注意：Java 的 Proxy 类主要用于 TCP，DNS 是 UDP 协议
-            // 这里简化处理，实际 DNS over TCP 可以通过代理，但 UDP 需要 SOCKS5 代理支持
-            log.warn("DNS over UDP 通过代理转发需要特殊处理，当前简化实现可能不工作");
-            log.warn("代理配置: {}://{}:{}", proxyConfig.getType(), proxyConfig.getHost(), proxyConfig.getPort());
+    /**
+     * 是否支持指定的上游协议
+     */
+    public boolean supportsProtocol(String protocol) {
+        return transport(protocol) != null;
+    }
 
-            // 简化实现：对于 HTTP 代理，可以尝试 DNS over HTTPS 或 TCP
-            // 这里先返回 null，后续可以扩展
-            return null;
+    private UpstreamTransport transport(String protocol) {
+        for (UpstreamTransport transport : upstreamTransports) {
+            if (transport.getProtocol().equals(protocol)) {
+                return transport;
+            }
+        }
+        return null;
+    }
 
-        } catch (Exception e) {
-            log.error("代理转发失败: {} -> {}:{} 代理: {}:{}",
-                    domain, upstream.getAddress(), upstream.getPort(),
-                    proxyConfig.getHost(), proxyConfig.getPort(), e);
-            return null;
+    private static void completeWith(CompletableFuture<byte[]> future, byte[] responseData, Throwable e) {
+        if (e != null) {
+            future.completeExceptionally(e);
+        } else {
+            future.complete(responseData);
         }
     }
 
     /**
-     * 创建代理
+     * 应答是否设置了 TC（截断）位
      */
-    private Proxy createProxy(UpstreamDnsConfig.ProxyConfig proxyConfig) {
-        try {
-            String type = proxyConfig.getType().toUpperCase();
-            String host = proxyConfig.getHost();
-            int port = proxyConfig.getPort() != null ? proxyConfig.getPort() : 0;
-
-            if (port <= 0 || port > Constants.MAX_PORT_VALUE) {
-                log.warn("代理端口无效: {}", port);
-                return null;
-            }
-
-            SocketAddress address = new InetSocketAddress(host, port);
+    private static boolean isTruncated(byte[] responseData) {
+        return responseData != null && responseData.length >= Constants.DNS_HEADER_LENGTH
+                && (responseData[2] & 0x02) != 0;
+    }
 
-            switch (type) {
-                case "HTTP":
-                    return new Proxy(Proxy.Type.HTTP, address);
-                case "SOCKS":
-                case "SOCKS5":
-                    return new Proxy(Proxy.Type.SOCKS, address);
-                default:
-                    log.warn("不支持的代理类型: {}", type);
-                    return null;
-            }
-        } catch (Exception e) {
-            log.error("创建代理失败", e);
-            return null;
+    /**
+     * 通过代理转发
+     * <p>
+     * TCP、DoT、DoH 上游由传输在连接上经 SOCKS5 CONNECT / HTTP CONNECT 建立隧道；
+     * UDP 上游经 SOCKS5 UDP ASSOCIATE 转发，HTTP 代理无法转发 UDP，改为经 CONNECT 以 TCP 查询
+     */
+    private CompletableFuture<byte[]> forwardThroughProxy(String domain, int type, UpstreamDnsConfig upstream, byte[] requestData,
+                                                          long timeout) {
+        UpstreamDnsConfig.ProxyConfig proxyConfig = upstream.getProxyConfig();
+        if (!UpstreamProxy.isValid(proxyConfig)) {
+            return CompletableFuture.failedFuture(
+                    new IllegalArgumentException("代理配置无效: " + UpstreamProxy.describe(proxyConfig)));
+        }
+        if (!Constants.UPSTREAM_PROTOCOL_UDP.equals(UpstreamState.protocolOf(upstream))) {
+            return forwardDirect(domain, type, upstream, requestData, timeout);
+        }
+        if (Constants.PROXY_TYPE_SOCKS5.equals(UpstreamProxy.typeOf(proxyConfig))) {
+            return withTcpFallback(domain, upstream, requestData, timeout,
+                    socks5UdpUpstreamTransport.exchange(upstream, requestData, timeout));
         }
+        return transport(Constants.UPSTREAM_PROTOCOL_TCP).exchange(upstream, requestData, timeout);
     }
 
     /**
@@ -194,4 +453,275 @@ public class DnsForwarder {
             return new byte[0];
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 一次带重试的转发
+     * <p>
+     * 每次尝试都监听到总期限（或上游自身的 timeout），重传计时器到期时在保留先前尝试的同时发起下一次尝试；
+     * 取最先到达的可用应答并取消其余尝试，全部结束仍没有可用应答时以最后到达的错误应答（或 null）完成
+     */
+    private final class RetryingExchange {
+
+        private final String domain;
+        private final int type;
+        private final byte[] requestData;
+        private final long deadlineNanos;
+        private final List<UpstreamState> tried = new CopyOnWriteArrayList<>();
+        private final List<CompletableFuture<byte[]>> legs = new ArrayList<>();
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        private Timeout retryTimer;
+        private int attempts;
+        private int outstanding;
+        private byte[] fallback;
+
+        private RetryingExchange(String domain, int type, byte[] requestData, long deadlineNanos) {
+            this.domain = domain;
+            this.type = type;
+            this.requestData = requestData;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        private CompletableFuture<byte[]> start(UpstreamState first) {
+            result.whenComplete((responseData, e) -> cancelAll());
+            attempt(first);
+            return result;
+        }
+
+        private void attempt(UpstreamState upstreamState) {
+            UpstreamState target = spillover(upstreamState, tried);
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            long timeout = Math.min(upstreamTimeout(target.getConfig()), remaining);
+            int attempt;
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                attempt = attempts++;
+                outstanding++;
+            }
+            tried.add(target);
+            CompletableFuture<byte[]> leg;
+            if (Boolean.TRUE.equals(dnsConfig.getHedgeEnabled())) {
+                earnHedgeCredit();
+                leg = new HedgedExchange(domain, type, target, requestData, timeout, tried).start();
+            } else {
+                leg = forwardQuery(domain, type, target, requestData, timeout);
+            }
+            long retryAfter = Math.min(attemptTimeout(target, attempt), remaining);
+            synchronized (this) {
+                legs.add(leg);
+                if (canRetry(attempt) && retryAfter < timeout && !leg.isDone()) {
+                    retryTimer = upstreamTimer.newTimeout(t -> onRetryTimer(target, attempt),
+                            retryAfter, TimeUnit.MILLISECONDS);
+                }
+            }
+            leg.whenComplete((responseData, e) -> onComplete(e == null ? responseData : null, attempt));
+            if (result.isDone()) {
+                leg.cancel(false);
+            }
+        }
+
+        /**
+         * 重传计时器到期：RTO 退避，保留当前尝试继续等待，同时向下一个上游发起尝试
+         */
+        private void onRetryTimer(UpstreamState upstreamState, int attempt) {
+            synchronized (this) {
+                if (result.isDone() || attempts != attempt + 1) {
+                    return;
+                }
+            }
+            upstreamState.backoffRto();
+            retry(attempt);
+        }
+
+        private void onComplete(byte[] responseData, int attempt) {
+            if (result.isDone()) {
+                return;
+            }
+            boolean answered = responseData != null && responseData.length > 0;
+            boolean usable = answered && !isErrorResponse(responseData);
+            boolean retry = false;
+            byte[] response;
+            synchronized (this) {
+                outstanding--;
+                if (answered) {
+                    fallback = responseData;
+                }
+                response = usable ? responseData : fallback;
+                if (!usable && attempt == attempts - 1 && canRetry(attempt)) {
+                    // 最新的尝试失败，不等重传计时器，立即换上游
+                    if (retryTimer != null) {
+                        retryTimer.cancel();
+                    }
+                    retry = true;
+                } else if (!usable && outstanding > 0) {
+                    // 先前的尝试仍在等待
+                    return;
+                }
+            }
+            if (retry) {
+                retry(attempt);
+            } else {
+                result.complete(response);
+            }
+        }
+
+        private void retry(int attempt) {
+            UpstreamState next = upstreamSelector.selectExcluding(tried);
+            if (next == null) {
+                synchronized (this) {
+                    if (outstanding > 0) {
+                        return;
+                    }
+                }
+                result.complete(fallback);
+                return;
+            }
+            log.debug("第 {} 次重试: {} -> {}", attempt + 1, domain, next.getKey());
+            attempt(next);
+        }
+
+        private boolean canRetry(int attempt) {
+            return attempt < dnsConfig.getRetryCount()
+                    && deadlineNanos - System.nanoTime() >= TimeUnit.MILLISECONDS.toNanos(Constants.MIN_ATTEMPT_TIMEOUT);
+        }
+
+        private void cancelAll() {
+            List<CompletableFuture<byte[]>> pending;
+            synchronized (this) {
+                if (retryTimer != null) {
+                    retryTimer.cancel();
+                }
+                pending = new ArrayList<>(legs);
+            }
+            pending.forEach(leg -> leg.cancel(false));
+        }
+    }
+
+    /**
+     * 一次可能被对冲的尝试
+     * <p>
+     * 首选上游超过其 RTT 分位数仍未应答时，在额度允许的情况下向另一个上游发送同一查询，
+     * 取先到的可用应答并取消另一方；都没有可用应答时以最后到达的错误应答（或 null）完成
+     */
+    private final class HedgedExchange {
+
+        private final String domain;
+        private final int type;
+        private final UpstreamState upstreamState;
+        private final byte[] requestData;
+        private final long timeout;
+        private final List<UpstreamState> tried;
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        private CompletableFuture<byte[]> primary;
+        private CompletableFuture<byte[]> hedge;
+        private Timeout hedgeTimer;
+        private int outstanding = 1;
+        private byte[] fallback;
+
+        private HedgedExchange(String domain, int type, UpstreamState upstreamState, byte[] requestData, long timeout,
+                               List<UpstreamState> tried) {
+            this.domain = domain;
+            this.type = type;
+            this.upstreamState = upstreamState;
+            this.requestData = requestData;
+            this.timeout = timeout;
+            this.tried = tried;
+        }
+
+        private CompletableFuture<byte[]> start() {
+            long delayNanos = upstreamState.getRttPercentileNanos(dnsConfig.getHedgePercentile());
+            CompletableFuture<byte[]> leg = forwardQuery(domain, type, upstreamState, requestData, timeout);
+            synchronized (this) {
+                primary = leg;
+                if (delayNanos >= 0 && delayNanos < TimeUnit.MILLISECONDS.toNanos(timeout) && !leg.isDone()) {
+                    long hedgeTimeout = timeout - TimeUnit.NANOSECONDS.toMillis(delayNanos);
+                    hedgeTimer = upstreamTimer.newTimeout(t -> sendHedge(hedgeTimeout), delayNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            leg.whenComplete((responseData, e) -> onComplete(responseData, false));
+            // 外层重试已取得应答时取消本次尝试的所有请求
+            result.whenComplete((responseData, e) -> {
+                if (result.isCancelled()) {
+                    cancelLegs();
+                }
+            });
+            return result;
+        }
+
+        private void sendHedge(long hedgeTimeout) {
+            UpstreamState second;
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                second = upstreamSelector.selectExcluding(tried);
+                if (second == null || second == upstreamState || !tryAcquireHedgeCredit()) {
+                    return;
+                }
+                tried.add(second);
+                outstanding++;
+            }
+            hedgedQueries.increment();
+            log.debug("对冲查询: {} -> {}", domain, second.getKey());
+            CompletableFuture<byte[]> leg = forwardQuery(domain, type, second, requestData, hedgeTimeout);
+            synchronized (this) {
+                hedge = leg;
+            }
+            leg.whenComplete((responseData, e) -> onComplete(responseData, true));
+            if (result.isDone()) {
+                leg.cancel(false);
+            }
+        }
+
+        private void cancelLegs() {
+            CompletableFuture<byte[]> first;
+            CompletableFuture<byte[]> second;
+            synchronized (this) {
+                if (hedgeTimer != null) {
+                    hedgeTimer.cancel();
+                }
+                first = primary;
+                second = hedge;
+            }
+            if (first != null) {
+                first.cancel(false);
+            }
+            if (second != null) {
+                second.cancel(false);
+            }
+        }
+
+        private void onComplete(byte[] responseData, boolean fromHedge) {
+            boolean answered = responseData != null && responseData.length > 0;
+            boolean usable = answered && !isErrorResponse(responseData);
+            byte[] response;
+            CompletableFuture<byte[]> loser;
+            synchronized (this) {
+                outstanding--;
+                if (answered) {
+                    fallback = responseData;
+                }
+                if (!usable && outstanding > 0) {
+                    // 另一方仍在等待
+                    return;
+                }
+                response = usable ? responseData : fallback;
+                loser = fromHedge ? primary : hedge;
+                if (hedgeTimer != null) {
+                    hedgeTimer.cancel();
+                }
+            }
+            if (result.complete(response)) {
+                if (usable && fromHedge) {
+                    hedgeWins.increment();
+                }
+                if (loser != null) {
+                    loser.cancel(false);
+                }
+            }
+        }
+    }
+}
@@ -1,19 +1,35 @@
 package com.npc2048.dns.service;
 
+import com.npc2048.dns.common.util.DnsUtils;
+import com.npc2048.dns.common.util.DnsWireScanner;
 import com.npc2048.dns.config.Constants;
 import com.npc2048.dns.config.DnsConfig;
+import com.npc2048.dns.model.CacheEntry;
+import com.npc2048.dns.model.DnsCacheKey;
 import com.npc2048.dns.model.DnsQueryResult;
-import com.npc2048.dns.model.UpstreamDnsConfig;
+import com.npc2048.dns.model.DnsWireQuery;
+import com.npc2048.dns.model.DnsWireResponse;
+import com.npc2048.dns.model.LocalZone;
+import com.npc2048.dns.model.UpstreamState;
 import com.npc2048.dns.model.entity.DnsRecord;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.xbill.DNS.*;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-
-import static com.npc2048.dns.common.util.DnsUtils.extractTtl;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * DNS service
@@ -29,70 +45,284 @@ public class DnsService {
     private final DnsQueryRecordService dnsQueryRecordService;
     private final DnsForwarder dnsForwarder;
     private final CacheService cacheService;
+    private final HashedWheelTimer upstreamTimer;
+    private final UpstreamSelector upstreamSelector;
+    private final LocalZoneService localZoneService;
+    private final BlocklistService blocklistService;
+
+    /**
+     * 在途上游查询，按缓存键合并相同的未命中
+     */
+    private final ConcurrentHashMap<DnsCacheKey, CompletableFuture<UpstreamResult>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 被合并到在途查询的次数
+     */
+    private final LongAdder coalescedQueries = new LongAdder();
+
+    /**
+     * Handle DNS query decoded straight from the wire (with caching)
+     * <p>
+     * Cache hits complete immediately on the calling thread; cache misses complete
+     * when the non-blocking upstream exchange finishes, so callers must not block on the result
+     * from an I/O thread. The request buffer is only read during this call and is copied
+     * on the miss path only. The caller owns the returned buffer and must release it.
+     *
+     * @param query   decoded header and question
+     * @param request raw request buffer
+     * @return future of response data
+     */
+    public CompletableFuture<ByteBuf> handleDnsQuery(DnsWireQuery query, ByteBuf request) {
+        return handleDnsQuery(DnsCacheKey.fromWire(request, query), query.id(), request);
+    }
 
     /**
      * Handle DNS query (with caching)
      *
-     * @param domain      domain name
-     * @param type        query type
+     * @param key         cache key of the question
      * @param requestData raw request data
-     * @return response data
+     * @return future of response data, released by the caller
      */
-    public byte[] handleDnsQuery(String domain, int type, byte[] requestData) {
+    public CompletableFuture<ByteBuf> handleDnsQuery(DnsCacheKey key, byte[] requestData) {
+        int id = requestData.length >= 2 ? ((requestData[0] & 0xFF) << 8) | (requestData[1] & 0xFF) : 0;
+        return handleDnsQuery(key, id, Unpooled.wrappedBuffer(requestData));
+    }
+
+    private CompletableFuture<ByteBuf> handleDnsQuery(DnsCacheKey key, int id, ByteBuf request) {
         long startTime = System.currentTimeMillis();
 
         try {
+            log.debug("查询域名:{}", key);
+            // 本地区域与 hosts 数据优先，预编码的应答不经过缓存与上游
+            LocalZone.Answer localAnswer = localZoneService.lookup(key);
+            if (localAnswer != null) {
+                log.debug("本地应答: {}", key);
+                recordQueryAsync(key, true, startTime);
+                return CompletableFuture.completedFuture(
+                        localAnswer.toResponse(request.alloc(), request, id, key.getName().length));
+            }
+            // 拦截名单在本地数据之后检查，本地数据可以为被拦截域名下的名称放行
+            LocalZone.Answer blockAnswer = blocklistService.lookup(key);
+            if (blockAnswer != null) {
+                log.debug("拦截: {}", key);
+                recordQueryAsync(key, true, startTime);
+                return CompletableFuture.completedFuture(
+                        blockAnswer.toResponse(request.alloc(), request, id, key.getName().length));
+            }
+
             // 1. 检查缓存
-            log.debug("查询域名:{}", domain);
-            String cacheKey = domain + ":" + Type.string(type);
-            byte[] cachedResponse = cacheService.get(cacheKey);
+            CacheEntry cachedResponse = cacheService.get(key);
+            // 应答中的问题名称按本次请求的大小写返回（0x20 随机化）
+            byte[] qname = DnsUtils.questionName(request);
             if (cachedResponse != null) {
-                log.debug("缓存命中: {}, 耗时: {}ms", domain, System.currentTimeMillis() - startTime);
-                recordQueryAsync(domain, type, true, startTime);
-                // --- 核心修复：修改 Transaction ID ---
-                // DNS 报文的前两个字节是 ID，必须与请求报文一致
-                // 克隆一份，避免污染缓存池中的原始数据
-                if (requestData.length >= 2 && cachedResponse.length >= 2) {
-                    cachedResponse[0] = requestData[0];
-                    cachedResponse[1] = requestData[1];
-                }
-                return cachedResponse;
+                log.debug("缓存命中: {}, 耗时: {}ms", key, System.currentTimeMillis() - startTime);
+                recordQueryAsync(key, true, startTime);
+                ByteBuf response = cachedResponse.toResponse(request.alloc(), id, qname);
+                prefetchIfDue(key, cachedResponse, request);
+                return CompletableFuture.completedFuture(response);
             }
 
-            // 2. Select upstream DNS and forward query
-            UpstreamDnsConfig upstream = selectUpstreamDns();
+            // 2. 过期但仍在 stale 窗口内的条目，上游失败或超过客户端应答期限时用它应答（RFC 8767）
+            CacheEntry staleResponse = Boolean.TRUE.equals(dnsConfig.getServeStaleEnabled())
+                    ? cacheService.getStale(key) : null;
+            ByteBufAllocator alloc = request.alloc();
+
+            // 3. Select upstream DNS and forward query
+            UpstreamState upstream = selectUpstreamDns(key);
             if (upstream == null) {
                 log.error("No available upstream DNS server");
-                return buildServFailResponse(requestData);
+                if (staleResponse != null) {
+                    CompletableFuture<ByteBuf> result = new CompletableFuture<>();
+                    completeStale(result, key, staleResponse, alloc, id, qname, startTime);
+                    return result;
+                }
+                return CompletableFuture.completedFuture(Unpooled.wrappedBuffer(buildServFailResponse(id)));
             }
 
-            // 3. Forward query
-            byte[] responseData = dnsForwarder.forwardQuery(domain, type, upstream, requestData);
+            // 4. Forward query (or join the identical one in flight), the rest of the pipeline
+            // runs on upstream completion
+            CompletableFuture<UpstreamResult> exchange = exchange(key, upstream, request, staleResponse);
+            CompletableFuture<ByteBuf> result = new CompletableFuture<>();
+            Timeout deadline = staleResponse == null ? null : upstreamTimer.newTimeout(
+                    t -> completeStale(result, key, staleResponse, alloc, id, qname, startTime),
+                    dnsConfig.getClientResponseDeadline(), TimeUnit.MILLISECONDS);
+            exchange.whenComplete((upstreamResult, e) -> {
+                if (deadline != null) {
+                    deadline.cancel();
+                }
+                DnsWireResponse response = upstreamResult != null ? upstreamResult.response() : null;
+                if (staleResponse != null && (response == null || response.rcode() == Rcode.SERVFAIL)) {
+                    completeStale(result, key, staleResponse, alloc, id, qname, startTime);
+                    return;
+                }
+                if (result.isDone()) {
+                    // 已在期限内用过期数据应答，上游结果只用于后台刷新缓存
+                    return;
+                }
+                ByteBuf responseBuf = completeUpstreamQuery(key, id, qname, alloc,
+                        upstreamResult != null ? upstreamResult.data() : null, response, startTime);
+                if (!result.complete(responseBuf)) {
+                    responseBuf.release();
+                }
+            });
+            return result;
+
+        } catch (Exception e) {
+            log.error("处理 DNS 查询失败: {}", key, e);
+            recordQueryAsync(key, false, startTime);
+            return CompletableFuture.completedFuture(Unpooled.wrappedBuffer(buildServFailResponse(id)));
+        }
+    }
+
+    /**
+     * Refresh a popular entry in the background before it expires
+     * <p>
+     * 条目在最后 N% 寿命内被命中且命中次数足够时，用本次请求发起一次后台查询，
+     * 成功后由 put 原子替换旧条目，热点域名不会因过期而全部回源
+     */
+    private void prefetchIfDue(DnsCacheKey key, CacheEntry entry, ByteBuf request) {
+        if (!Boolean.TRUE.equals(dnsConfig.getPrefetchEnabled())
+                || !entry.tryClaimPrefetch(dnsConfig.getPrefetchThresholdPercent(), dnsConfig.getPrefetchMinHits())) {
+            return;
+        }
+        UpstreamState upstream = selectUpstreamDns(key);
+        if (upstream == null) {
+            entry.releasePrefetch();
+            return;
+        }
+        cacheService.recordPrefetch();
+        log.debug("预取缓存条目: {}", key);
+        byte[] requestData = ByteBufUtil.getBytes(request);
+        dnsForwarder.forwardWithRetry(key.getDomain(), key.getQtype(), upstream, requestData)
+                .whenComplete((responseData, e) -> {
+                    DnsWireResponse response = e == null ? DnsWireScanner.scan(responseData) : null;
+                    // 上游临时故障不应覆盖仍然有效的旧条目
+                    if (response == null || response.rcode() == Rcode.SERVFAIL
+                            || cacheService.put(key, responseData, response) <= 0) {
+                        log.debug("预取失败: {}", key);
+                        entry.releasePrefetch();
+                    }
+                });
+    }
+
+    /**
+     * Answer from an expired entry unless the query has already been answered
+     */
+    private void completeStale(CompletableFuture<ByteBuf> result, DnsCacheKey key, CacheEntry staleResponse,
+                               ByteBufAllocator alloc, int id, byte[] qname, long startTime) {
+        if (result.isDone()) {
+            return;
+        }
+        ByteBuf response = staleResponse.toStaleResponse(alloc, id, dnsConfig.getStaleAnswerTtl(), qname);
+        if (result.complete(response)) {
+            cacheService.recordStaleHit();
+            log.debug("使用过期数据应答: {}", key);
+            recordQueryAsync(key, true, startTime);
+        } else {
+            response.release();
+        }
+    }
+
+    /**
+     * Send the query upstream, coalescing identical in-flight misses
+     * <p>
+     * 同一缓存键同时只有一个上游查询，后到的查询直接等待它的结果。上游应答在这里扫描并写入缓存一次，
+     * 写入后才移出在途表，避免结果可见前出现重复回源
+     */
+    private CompletableFuture<UpstreamResult> exchange(DnsCacheKey key, UpstreamState upstream, ByteBuf request,
+                                                       CacheEntry staleResponse) {
+        CompletableFuture<UpstreamResult> exchange = new CompletableFuture<>();
+        CompletableFuture<UpstreamResult> existing = inFlight.putIfAbsent(key, exchange);
+        if (existing != null) {
+            coalescedQueries.increment();
+            log.debug("合并在途查询: {}", key);
+            return existing;
+        }
 
-            if (responseData != null && responseData.length > 0) {
-                // 4. Cache result
-                int ttl = cacheService.put(cacheKey, responseData);
-                log.debug("Query successful: {} TTL: {}s, 耗时: {}ms", domain, ttl, System.currentTimeMillis() - startTime);
-            } else {
-                log.warn("Received empty response from upstream DNS: {}", domain);
+        // 转发链路任何环节未能结束时，保护定时器兜底移出在途表，避免后续同键查询一直合并到悬挂的 Future
+        Timeout guard = upstreamTimer.newTimeout(t -> {
+            if (inFlight.remove(key, exchange)) {
+                log.warn("在途查询超过总超时仍未结束，强制移除: {}", key);
+                exchange.complete(new UpstreamResult(null, null));
             }
+        }, dnsConfig.getDefaultTimeout() + Constants.IN_FLIGHT_GUARD_MARGIN, TimeUnit.MILLISECONDS);
 
-            // 5. Async record query log
-            recordQueryAsync(domain, type, false, startTime);
-            log.debug("响应: {}", responseData != null ? responseData : buildServFailResponse(requestData));
-            return responseData != null ? responseData : buildServFailResponse(requestData);
+        byte[] requestData = ByteBufUtil.getBytes(request);
+        CompletableFuture<byte[]> forward;
+        try {
+            forward = dnsForwarder.forwardWithRetry(key.getDomain(), key.getQtype(), upstream, requestData);
+        } catch (RuntimeException e) {
+            guard.cancel();
+            inFlight.remove(key, exchange);
+            exchange.completeExceptionally(e);
+            throw e;
+        }
+        forward.whenComplete((responseData, e) -> {
+            guard.cancel();
+            try {
+                if (e != null) {
+                    log.error("处理 DNS 查询失败: {}", key, e);
+                }
+                DnsWireResponse response = e == null && responseData != null && responseData.length > 0
+                        ? DnsWireScanner.scan(responseData) : null;
+                // 上游失败时保留过期条目，不用 SERVFAIL 覆盖
+                if (response != null && !(staleResponse != null && response.rcode() == Rcode.SERVFAIL)) {
+                    int ttl = cacheService.put(key, responseData, response);
+                    log.debug("Query successful: {} rcode: {} TTL: {}s", key,
+                            Rcode.string(response.rcode()), ttl);
+                }
+                inFlight.remove(key, exchange);
+                exchange.complete(new UpstreamResult(e == null ? responseData : null, response));
+            } catch (Exception ex) {
+                inFlight.remove(key, exchange);
+                exchange.completeExceptionally(ex);
+            }
+        });
+        return exchange;
+    }
 
-        } catch (Exception e) {
-            log.error("处理 DNS 查询失败: {}", domain, e);
-            recordQueryAsync(domain, type, false, startTime);
-            return buildServFailResponse(requestData);
+    /**
+     * Build the client response from the upstream answer and log the query
+     */
+    private ByteBuf completeUpstreamQuery(DnsCacheKey key, int id, byte[] qname, ByteBufAllocator alloc,
+                                          byte[] responseData, DnsWireResponse response, long startTime) {
+        // 5. Async record query log
+        recordQueryAsync(key, false, startTime, responseData, response);
+        if (responseData == null || responseData.length == 0) {
+            log.warn("Received empty response from upstream DNS: {}", key);
+            return Unpooled.wrappedBuffer(buildServFailResponse(id));
         }
+        log.debug("上游应答: {}, 耗时: {}ms", key, System.currentTimeMillis() - startTime);
+        // 合并的查询共享同一份上游应答，各自写入自己的事务 ID 与问题名称
+        ByteBuf responseBuf = alloc.directBuffer(responseData.length).writeBytes(responseData);
+        responseBuf.setShort(0, id);
+        DnsUtils.restoreQuestionName(qname, responseBuf);
+        return responseBuf;
+    }
+
+    /**
+     * 在途查询与合并统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlightQueries", inFlight.size());
+        stats.put("coalescedQueries", coalescedQueries.sum());
+        stats.putAll(dnsForwarder.getStats());
+        return stats;
     }
 
     /**
      * Async record query log
      */
-    private void recordQueryAsync(String domain, int type, boolean cacheHit, long startTime) {
+    private void recordQueryAsync(DnsCacheKey key, boolean cacheHit, long startTime) {
+        recordQueryAsync(key, cacheHit, startTime, null, null);
+    }
+
+    /**
+     * Async record query log, with the first answered address when the response is known
+     */
+    private void recordQueryAsync(DnsCacheKey key, boolean cacheHit, long startTime,
+                                  byte[] responseData, DnsWireResponse response) {
         if (!dnsConfig.getQueryLogEnabled()) {
             return;
         }
@@ -103,8 +333,9 @@ public class DnsService {
                 long responseTime = System.currentTimeMillis() - startTime;
 
                 DnsRecord record = DnsRecord.builder()
-                        .domain(domain)
-                        .queryType(Type.string(type))
+                        .domain(key.getDomain())
+                        .queryType(Type.string(key.getQtype()))
+                        .responseIp(response != null ? response.address(responseData) : null)
                         .cacheHit(cacheHit)
                         .queryTime(System.currentTimeMillis())
                         .responseTimeMs((int) responseTime)
@@ -118,28 +349,18 @@ public class DnsService {
     }
 
     /**
-     * Select upstream DNS
+     * Select upstream DNS, routed by the longest matching forward rule
      */
-    private UpstreamDnsConfig selectUpstreamDns() {
-        List<UpstreamDnsConfig> upstreamList = dnsConfig.getUpstreamDns();
-        if (upstreamList == null || upstreamList.isEmpty()) {
-            return null;
-        }
-
-        // Simple select first enabled upstream DNS
-        return upstreamList.stream()
-                .filter(UpstreamDnsConfig::getEnabled)
-                .findFirst()
-                .orElse(null);
+    private UpstreamState selectUpstreamDns(DnsCacheKey key) {
+        return upstreamSelector.select(key);
     }
 
     /**
      * Build SERVFAIL response
      */
-    private byte[] buildServFailResponse(byte[] requestData) {
+    private byte[] buildServFailResponse(int id) {
         try {
-            Message request = new Message(requestData);
-            Message response = new Message(request.getHeader().getID());
+            Message response = new Message(id);
             Header header = response.getHeader();
             header.setRcode(Rcode.SERVFAIL);
             header.setFlag(Flags.QR);
@@ -177,8 +398,15 @@ public class DnsService {
             );
             byte[] requestData = dnsRequest.toWire();
 
-            // Handle DNS query
-            byte[] responseData = handleDnsQuery(domain, type, requestData);
+            // Handle DNS query (HTTP thread, safe to wait)
+            DnsCacheKey key = DnsCacheKey.of(Name.fromString(domain, Name.root), type, DClass.IN, false, false);
+            ByteBuf responseBuf = handleDnsQuery(key, requestData).join();
+            byte[] responseData;
+            try {
+                responseData = ByteBufUtil.getBytes(responseBuf);
+            } finally {
+                responseBuf.release();
+            }
 
             // Parse response
             Message response = new Message(responseData);
@@ -246,4 +474,13 @@ public class DnsService {
                     .build();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 上游应答及其扫描结果
+     *
+     * @param data     响应报文，上游失败时为 null
+     * @param response 扫描结果，报文为空或不合法时为 null
+     */
+    private record UpstreamResult(byte[] data, DnsWireResponse response) {
+    }
+}
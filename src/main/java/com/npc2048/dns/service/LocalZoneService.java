@@ -0,0 +1,196 @@
+package com.npc2048.dns.service;
+
+import com.npc2048.dns.common.util.FileChangeWatcher;
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.config.DnsConfig;
+import com.npc2048.dns.model.DnsCacheKey;
+import com.npc2048.dns.model.LocalZone;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jspecify.annotations.NonNull;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Service;
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.Address;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Master;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地区域服务
+ * <p>
+ * 加载区域文件与 hosts 文件构建 {@link LocalZone}，查询在缓存与上游之前先查本地数据。
+ * 重新加载时先完整构建新数据再整体替换，任一文件解析失败则保留原数据；
+ * 开启监视时后台线程监听文件所在目录，文件变化后经短暂防抖自动重新加载
+ *
+ * @author yuelong.liang
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LocalZoneService implements CommandLineRunner {
+
+    private final DnsConfig dnsConfig;
+
+    private final LongAdder hits = new LongAdder();
+
+    private volatile LocalZone zone = LocalZone.EMPTY;
+    private volatile long lastLoadTime;
+    private volatile String lastError;
+
+    private volatile FileChangeWatcher watcher;
+
+    @Override
+    public void run(@NonNull String... args) {
+        if (Boolean.TRUE.equals(dnsConfig.getLocalZoneWatchEnabled())) {
+            try {
+                watcher = new FileChangeWatcher("local-zone-watcher", Constants.LOCAL_ZONE_RELOAD_DELAY,
+                        this::reloadQuietly);
+            } catch (IOException e) {
+                log.warn("无法监视本地区域文件: {}", e.getMessage());
+            }
+        }
+        try {
+            reload();
+        } catch (IOException e) {
+            log.error("加载本地区域失败: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+    }
+
+    /**
+     * 查找本地应答
+     *
+     * @return 本地应答，不由本地数据负责时返回 null
+     */
+    public LocalZone.Answer lookup(DnsCacheKey key) {
+        if (key.getQclass() != DClass.IN) {
+            return null;
+        }
+        LocalZone.Answer answer = zone.lookup(key.getName(), key.getQtype());
+        if (answer != null) {
+            hits.increment();
+        }
+        return answer;
+    }
+
+    /**
+     * 按当前配置重新加载所有区域文件与 hosts 文件
+     *
+     * @throws IOException 任一文件读取或解析失败，此时保留原数据
+     */
+    public synchronized void reload() throws IOException {
+        List<Path> zoneFiles = dnsConfig.getLocalZoneFiles().stream().map(LocalZoneService::normalize).toList();
+        List<Path> hostsFiles = dnsConfig.getHostsFiles().stream().map(LocalZoneService::normalize).toList();
+        // 解析失败的文件同样需要监视，修正后自动重新加载
+        if (watcher != null) {
+            List<Path> watched = new ArrayList<>(zoneFiles);
+            watched.addAll(hostsFiles);
+            watcher.watch(watched);
+        }
+
+        LocalZone.Builder builder = new LocalZone.Builder();
+        try {
+            for (Path path : zoneFiles) {
+                try (Master master = new Master(path.toString())) {
+                    Record record;
+                    while ((record = master.nextRecord()) != null) {
+                        builder.add(record);
+                    }
+                }
+            }
+            for (Path path : hostsFiles) {
+                parseHosts(path, dnsConfig.getHostsTtl(), builder);
+            }
+        } catch (IOException | RuntimeException e) {
+            lastError = e.getMessage();
+            throw e instanceof IOException io ? io : new IOException(e.getMessage(), e);
+        }
+        LocalZone built = builder.build();
+        zone = built;
+        lastLoadTime = System.currentTimeMillis();
+        lastError = null;
+        log.info("本地区域已加载: {} 个名称, {} 个区域, {} 字节", built.getNameCount(), built.getZoneCount(),
+                built.getDataBytes());
+    }
+
+    /**
+     * 解析 hosts 文件：每行 "地址 名称 [名称...]"，"#" 之后为注释
+     */
+    static void parseHosts(Path path, long ttl, LocalZone.Builder builder) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                String[] fields = (comment >= 0 ? line.substring(0, comment) : line).trim().split("\\s+");
+                if (fields.length < 2) {
+                    continue;
+                }
+                int family = Address.IPv4;
+                byte[] bytes = Address.toByteArray(fields[0], family);
+                if (bytes == null) {
+                    family = Address.IPv6;
+                    bytes = Address.toByteArray(fields[0], family);
+                }
+                if (bytes == null) {
+                    throw new IOException(path + ":" + lineNumber + " 地址不合法: " + fields[0]);
+                }
+                InetAddress address = InetAddress.getByAddress(bytes);
+                for (int i = 1; i < fields.length; i++) {
+                    Name name = Name.fromString(fields[i], Name.root);
+                    builder.add(family == Address.IPv4
+                            ? new ARecord(name, DClass.IN, ttl, address)
+                            : new AAAARecord(name, DClass.IN, ttl, address));
+                }
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        LocalZone current = zone;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.sum());
+        stats.put("names", current.getNameCount());
+        stats.put("entries", current.getEntryCount());
+        stats.put("zones", current.getZoneCount());
+        stats.put("dataBytes", current.getDataBytes());
+        stats.put("lastLoadTime", lastLoadTime);
+        stats.put("lastError", lastError);
+        return stats;
+    }
+
+    private void reloadQuietly() {
+        try {
+            reload();
+        } catch (IOException e) {
+            log.warn("重新加载本地区域失败，保留原数据: {}", e.getMessage());
+        }
+    }
+
+    private static Path normalize(String file) {
+        return Path.of(file).toAbsolutePath().normalize();
+    }
+}
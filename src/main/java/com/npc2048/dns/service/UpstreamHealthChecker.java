@@ -0,0 +1,109 @@
+package com.npc2048.dns.service;
+
+import com.npc2048.dns.config.DnsConfig;
+import com.npc2048.dns.model.UpstreamState;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jspecify.annotations.NonNull;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上游健康探测
+ * <p>
+ * 按固定间隔向已熔断的上游发送金丝雀查询（NS 记录），探测经由 {@link DnsForwarder} 转发，
+ * 收到正常应答时由转发器关闭熔断，上游重新参与选择
+ *
+ * @author yuelong.liang
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UpstreamHealthChecker implements CommandLineRunner {
+
+    /**
+     * 最小探测间隔（毫秒），防止错误配置导致探测风暴
+     */
+    private static final int MIN_INTERVAL = 100;
+
+    private final DnsConfig dnsConfig;
+    private final UpstreamSelector upstreamSelector;
+    private final DnsForwarder dnsForwarder;
+    private final HashedWheelTimer upstreamTimer;
+
+    /**
+     * 探测尚未完成的上游，同一上游同时只有一个探测
+     */
+    private final Set<String> probing = ConcurrentHashMap.newKeySet();
+
+    private volatile Timeout next;
+    private volatile boolean stopped;
+
+    @Override
+    public void run(@NonNull String... args) {
+        schedule();
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        Timeout timeout = next;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    private void schedule() {
+        if (stopped) {
+            return;
+        }
+        int interval = Math.max(dnsConfig.getHealthCheckInterval(), MIN_INTERVAL);
+        next = upstreamTimer.newTimeout(t -> probeAll(), interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void probeAll() {
+        try {
+            if (Boolean.TRUE.equals(dnsConfig.getCircuitBreakerEnabled())) {
+                for (UpstreamState state : upstreamSelector.getUpstreams()) {
+                    if (state.isCircuitOpen() && Boolean.TRUE.equals(state.getConfig().getEnabled())) {
+                        probe(state);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.warn("上游探测失败", e);
+        } finally {
+            schedule();
+        }
+    }
+
+    private void probe(UpstreamState state) throws TextParseException {
+        String domain = dnsConfig.getHealthCheckDomain();
+        byte[] query = Message.newQuery(Record.newRecord(Name.fromString(domain, Name.root), Type.NS, DClass.IN))
+                .toWire();
+        if (!probing.add(state.getKey())) {
+            return;
+        }
+        log.debug("探测熔断的上游 DNS: {}", state.getKey());
+        dnsForwarder.forwardQuery(domain, Type.NS, state, query)
+                .whenComplete((responseData, e) -> {
+                    probing.remove(state.getKey());
+                    if (state.isCircuitOpen()) {
+                        log.debug("上游 DNS 探测未通过: {}", state.getKey());
+                    }
+                });
+    }
+}
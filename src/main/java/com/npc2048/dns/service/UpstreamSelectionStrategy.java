@@ -0,0 +1,29 @@
+package com.npc2048.dns.service;
+
+import com.npc2048.dns.model.UpstreamState;
+
+/**
+ * 上游选择策略
+ * <p>
+ * 由 {@link UpstreamSelector} 在同一优先级的可用上游中调用，实现类注册为 Spring Bean 即可通过
+ * {@code dns.upstream-strategy} 按名称启用
+ *
+ * @author yuelong.liang
+ */
+public interface UpstreamSelectionStrategy {
+
+    /**
+     * 策略名称
+     *
+     * @return 名称，对应 {@code dns.upstream-strategy} 的取值
+     */
+    String getName();
+
+    /**
+     * 从候选上游中选择一个
+     *
+     * @param candidates 候选上游，非空且调用方不得修改
+     * @return 选中的上游
+     */
+    UpstreamState select(UpstreamState[] candidates);
+}
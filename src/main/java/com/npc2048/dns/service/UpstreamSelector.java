@@ -0,0 +1,320 @@
+package com.npc2048.dns.service;
+
+import com.npc2048.dns.common.util.DomainSuffixTrie;
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.config.DnsConfig;
+import com.npc2048.dns.model.DnsCacheKey;
+import com.npc2048.dns.model.ForwardRule;
+import com.npc2048.dns.model.UpstreamDnsConfig;
+import com.npc2048.dns.model.UpstreamState;
+import com.npc2048.dns.network.UpstreamTransport;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * 上游选择器
+ * <p>
+ * 把配置的上游列表预先整理为按上游分组、再按优先级分层的不可变数组，转发规则编译为域名后缀 Trie，
+ * 只在上游列表或规则列表被替换时重建；每次查询按域名找到上游分组，
+ * 只在第一个有可用上游的优先级层内交给当前策略选择，不再遍历和过滤配置列表
+ *
+ * @author yuelong.liang
+ */
+@Slf4j
+@Component
+public class UpstreamSelector {
+
+    private final DnsConfig dnsConfig;
+    private final List<UpstreamTransport> upstreamTransports;
+    private final Map<String, UpstreamSelectionStrategy> strategies;
+
+    /**
+     * 上游标识 -> 运行状态，配置重建后保留统计
+     */
+    private final ConcurrentHashMap<String, UpstreamState> states = new ConcurrentHashMap<>();
+
+    private volatile Snapshot snapshot = new Snapshot(null, null, new UpstreamState[0], Map.of(),
+            DomainSuffixTrie.empty());
+
+    public UpstreamSelector(DnsConfig dnsConfig, List<UpstreamTransport> upstreamTransports,
+                            List<UpstreamSelectionStrategy> strategies) {
+        this.dnsConfig = dnsConfig;
+        this.upstreamTransports = upstreamTransports;
+        Map<String, UpstreamSelectionStrategy> byName = new HashMap<>();
+        for (UpstreamSelectionStrategy strategy : strategies) {
+            byName.put(strategy.getName(), strategy);
+        }
+        this.strategies = Map.copyOf(byName);
+    }
+
+    /**
+     * 为查询选择一个上游
+     * <p>
+     * 按最长匹配的转发规则确定上游分组，没有匹配的规则时使用 default 分组；
+     * 规则指向的分组没有已启用的上游时不回退到其他分组
+     *
+     * @param key 查询的缓存键
+     * @return 上游，没有可用上游时返回 null
+     */
+    public UpstreamState select(DnsCacheKey key) {
+        Snapshot current = currentSnapshot();
+        UpstreamState[][] tiers = current.routes().match(key.getName());
+        return select(tiers != null ? tiers : current.tiers(Constants.DEFAULT_UPSTREAM_GROUP));
+    }
+
+    /**
+     * 在分组内选择一个上游
+     * <p>
+     * 启用熔断时跳过已熔断的上游，依次降级到下一个优先级层；全部熔断时仍使用最高优先级层，
+     * 避免在探测恢复前完全无法应答
+     */
+    private UpstreamState select(UpstreamState[][] tiers) {
+        if (tiers.length == 0) {
+            return null;
+        }
+        UpstreamSelectionStrategy strategy = resolveStrategy();
+        if (Boolean.TRUE.equals(dnsConfig.getCircuitBreakerEnabled())) {
+            for (UpstreamState[] tier : tiers) {
+                UpstreamState[] available = available(tier);
+                if (available != null) {
+                    return strategy.select(available);
+                }
+            }
+        }
+        return strategy.select(tiers[0]);
+    }
+
+    /**
+     * 为重试选择一个尚未尝试过的上游
+     * <p>
+     * 限定在首个已尝试上游所在的分组内，按优先级层依次查找未尝试且未熔断的上游；
+     * 都已尝试过时在该分组内重新选择，对同一上游重发仍能挽回单个丢包
+     *
+     * @param tried 已尝试的上游
+     * @return 上游，没有可用上游时返回 null
+     */
+    public UpstreamState selectExcluding(List<UpstreamState> tried) {
+        UpstreamState[][] tiers = tiersOf(tried);
+        UpstreamState selected = selectMatching(tiers, state -> !tried.contains(state));
+        return selected != null ? selected : select(tiers);
+    }
+
+    /**
+     * 首选上游并发已满时，在同一分组内选择一个仍有并发额度的其他上游
+     *
+     * @param tried 已尝试的上游
+     * @return 上游，没有空闲上游时返回 null
+     */
+    public UpstreamState selectSpillover(List<UpstreamState> tried) {
+        return selectMatching(tiersOf(tried), state -> !tried.contains(state) && state.hasCapacity());
+    }
+
+    /**
+     * 首个已尝试上游所在分组的优先级层
+     */
+    private UpstreamState[][] tiersOf(List<UpstreamState> tried) {
+        String group = tried.isEmpty() ? Constants.DEFAULT_UPSTREAM_GROUP
+                : UpstreamState.groupOf(tried.getFirst().getConfig());
+        return currentSnapshot().tiers(group);
+    }
+
+    /**
+     * 按优先级层依次查找满足条件且未熔断的上游
+     */
+    private UpstreamState selectMatching(UpstreamState[][] tiers, Predicate<UpstreamState> condition) {
+        boolean circuitBreakerEnabled = Boolean.TRUE.equals(dnsConfig.getCircuitBreakerEnabled());
+        for (UpstreamState[] tier : tiers) {
+            List<UpstreamState> candidates = new ArrayList<>(tier.length);
+            for (UpstreamState state : tier) {
+                if (condition.test(state) && !(circuitBreakerEnabled && state.isCircuitOpen())) {
+                    candidates.add(state);
+                }
+            }
+            if (!candidates.isEmpty()) {
+                return resolveStrategy().select(candidates.toArray(new UpstreamState[0]));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 是否存在指定名称的策略
+     */
+    public boolean hasStrategy(String name) {
+        return name != null && strategies.containsKey(name);
+    }
+
+    /**
+     * 获取当前所有上游（按优先级排序，含已禁用的）
+     */
+    public UpstreamState[] getUpstreams() {
+        return currentSnapshot().all();
+    }
+
+    /**
+     * 各上游健康状态
+     */
+    public List<Map<String, Object>> getHealth() {
+        UpstreamState[] all = currentSnapshot().all();
+        List<Map<String, Object>> health = new ArrayList<>(all.length);
+        for (UpstreamState state : all) {
+            health.add(state.getHealth());
+        }
+        return health;
+    }
+
+    /**
+     * 各上游运行统计
+     */
+    public List<Map<String, Object>> getStats() {
+        UpstreamState[] all = currentSnapshot().all();
+        List<Map<String, Object>> stats = new ArrayList<>(all.length);
+        for (UpstreamState state : all) {
+            stats.add(state.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * 分组内未熔断的上游，全部可用时直接返回原数组，全部熔断时返回 null
+     */
+    private static UpstreamState[] available(UpstreamState[] tier) {
+        int open = 0;
+        for (UpstreamState state : tier) {
+            if (state.isCircuitOpen()) {
+                open++;
+            }
+        }
+        if (open == 0) {
+            return tier;
+        }
+        if (open == tier.length) {
+            return null;
+        }
+        // 两次遍历之间状态可能变化，按实际数量截断
+        UpstreamState[] available = new UpstreamState[tier.length - open];
+        int i = 0;
+        for (UpstreamState state : tier) {
+            if (!state.isCircuitOpen() && i < available.length) {
+                available[i++] = state;
+            }
+        }
+        if (i == 0) {
+            return null;
+        }
+        return i == available.length ? available : Arrays.copyOf(available, i);
+    }
+
+    private UpstreamSelectionStrategy resolveStrategy() {
+        UpstreamSelectionStrategy strategy = strategies.get(dnsConfig.getUpstreamStrategy());
+        return strategy != null ? strategy : strategies.get(Constants.UPSTREAM_STRATEGY_PRIORITY);
+    }
+
+    /**
+     * 获取当前快照，配置列表被替换后重建
+     */
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot;
+        List<UpstreamDnsConfig> source = dnsConfig.getUpstreamDns();
+        List<ForwardRule> rules = dnsConfig.getForwardRules();
+        if (current.source() == source && current.rules() == rules) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot.source() != source || snapshot.rules() != rules) {
+                snapshot = build(source, rules);
+            }
+            return snapshot;
+        }
+    }
+
+    private Snapshot build(List<UpstreamDnsConfig> source, List<ForwardRule> rules) {
+        List<UpstreamState> all = new ArrayList<>();
+        if (source != null) {
+            for (UpstreamDnsConfig config : source) {
+                if (config == null || config.getAddress() == null) {
+                    continue;
+                }
+                UpstreamState state = states.computeIfAbsent(UpstreamState.keyOf(config),
+                        key -> new UpstreamState(key, config));
+                state.updateConfig(config);
+                all.add(state);
+            }
+        }
+        // 稳定排序，同一优先级内保持配置顺序
+        all.sort(Comparator.comparingInt(UpstreamState::getPriority));
+        List<String> keys = all.stream().map(UpstreamState::getKey).toList();
+        states.keySet().retainAll(keys);
+        // UDP 上游被截断时会改用 TCP，TCP 连接池也以 UDP 上游的标识为键
+        upstreamTransports.forEach(transport -> transport.retain(keys));
+
+        Map<String, Map<Integer, List<UpstreamState>>> grouped = new LinkedHashMap<>();
+        grouped.put(Constants.DEFAULT_UPSTREAM_GROUP, new LinkedHashMap<>());
+        for (UpstreamState state : all) {
+            if (Boolean.TRUE.equals(state.getConfig().getEnabled())) {
+                grouped.computeIfAbsent(UpstreamState.groupOf(state.getConfig()), g -> new LinkedHashMap<>())
+                        .computeIfAbsent(state.getPriority(), p -> new ArrayList<>()).add(state);
+            }
+        }
+        Map<String, UpstreamState[][]> groups = new HashMap<>();
+        grouped.forEach((group, tiers) -> groups.put(group, tiers.values().stream()
+                .map(tier -> tier.toArray(new UpstreamState[0]))
+                .toArray(UpstreamState[][]::new)));
+
+        DomainSuffixTrie.Builder<UpstreamState[][]> routes = DomainSuffixTrie.builder();
+        if (rules != null) {
+            for (ForwardRule rule : rules) {
+                if (rule == null || rule.getDomains() == null) {
+                    continue;
+                }
+                String group = rule.getGroup() == null || rule.getGroup().isBlank()
+                        ? Constants.DEFAULT_UPSTREAM_GROUP : rule.getGroup().trim();
+                UpstreamState[][] tiers = groups.get(group);
+                if (tiers == null) {
+                    log.warn("转发规则指向的上游分组没有已启用的上游，匹配的查询将返回 SERVFAIL: {} -> {}",
+                            rule.getDomains(), group);
+                    tiers = new UpstreamState[0][];
+                }
+                for (String domain : rule.getDomains()) {
+                    try {
+                        routes.put(domain, tiers);
+                    } catch (IllegalArgumentException e) {
+                        log.warn("忽略不合法的转发规则: {} -> {}: {}", domain, group, e.getMessage());
+                    }
+                }
+            }
+        }
+        DomainSuffixTrie<UpstreamState[][]> trie = routes.build();
+        log.info("上游 DNS 列表已更新: {} 个，{} 个分组，{} 条转发规则", all.size(), groups.size(), trie.size());
+        return new Snapshot(source, rules, all.toArray(new UpstreamState[0]), Map.copyOf(groups), trie);
+    }
+
+    /**
+     * 不可变的上游快照
+     *
+     * @param source 构建快照时的上游配置列表引用
+     * @param rules  构建快照时的转发规则列表引用
+     * @param all    所有上游
+     * @param groups 上游分组 -> 按优先级分层的已启用上游
+     * @param routes 域名后缀 -> 上游分组的优先级层
+     */
+    private record Snapshot(List<UpstreamDnsConfig> source, List<ForwardRule> rules, UpstreamState[] all,
+                            Map<String, UpstreamState[][]> groups, DomainSuffixTrie<UpstreamState[][]> routes) {
+
+        private static final UpstreamState[][] NONE = new UpstreamState[0][];
+
+        private UpstreamState[][] tiers(String group) {
+            return groups.getOrDefault(group, NONE);
+        }
+    }
+}
@@ -3,13 +3,16 @@ package com.npc2048.dns.service.impl;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.Expiry;
-import com.npc2048.dns.common.util.DnsUtils;
 import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.config.DnsConfig;
 import com.npc2048.dns.model.CacheEntry;
+import com.npc2048.dns.model.DnsCacheKey;
+import com.npc2048.dns.model.DnsWireResponse;
 import com.npc2048.dns.service.CacheService;
 import lombok.extern.slf4j.Slf4j;
 import org.checkerframework.checker.index.qual.NonNegative;
 import org.springframework.stereotype.Service;
+import org.xbill.DNS.Rcode;
 
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -23,30 +26,35 @@ import java.util.concurrent.atomic.AtomicLong;
 @Service
 public class CaffeineCacheServiceImpl implements CacheService {
 
-    private final Cache<String, CacheEntry> cache;
+    private final DnsConfig dnsConfig;
+    private final Cache<DnsCacheKey, CacheEntry> cache;
     private final AtomicLong hits = new AtomicLong(0);
     private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong negativeHits = new AtomicLong(0);
+    private final AtomicLong negativeMisses = new AtomicLong(0);
+    private final AtomicLong prefetches = new AtomicLong(0);
+    private final AtomicLong staleHits = new AtomicLong(0);
 
-    public CaffeineCacheServiceImpl() {
+    public CaffeineCacheServiceImpl(DnsConfig dnsConfig) {
+        this.dnsConfig = dnsConfig;
         this.cache = Caffeine.newBuilder()
                 .maximumSize(Constants.CACHE_MAX_SIZE)
                 .recordStats()
-                .expireAfter(new Expiry<String, CacheEntry>() {
+                .expireAfter(new Expiry<DnsCacheKey, CacheEntry>() {
                     @Override
-                    public long expireAfterCreate(String key, CacheEntry value, long currentTime) {
+                    public long expireAfterCreate(DnsCacheKey key, CacheEntry value, long currentTime) {
                         // 将秒转为纳秒 (Caffeine 内部计时单位是纳秒)
-                        // 建议设置一个兜底逻辑，比如 value.getTtl() 为空时默认 60s
-                        return TimeUnit.SECONDS.toNanos(value.getTtl());
+                        return TimeUnit.SECONDS.toNanos(retentionSeconds(value));
                     }
 
                     @Override
-                    public long expireAfterUpdate(String key, CacheEntry value, long currentTime, @NonNegative long currentDuration) {
-                        // 更新时如果不改变过期时间，返回 currentDuration
-                        return TimeUnit.SECONDS.toNanos(value.getTtl());
+                    public long expireAfterUpdate(DnsCacheKey key, CacheEntry value, long currentTime, @NonNegative long currentDuration) {
+                        // 更新时按新条目重新计算
+                        return TimeUnit.SECONDS.toNanos(retentionSeconds(value));
                     }
 
                     @Override
-                    public long expireAfterRead(String key, CacheEntry value, long currentTime, @NonNegative long currentDuration) {
+                    public long expireAfterRead(DnsCacheKey key, CacheEntry value, long currentTime, @NonNegative long currentDuration) {
                         // 读取时不延长寿命
                         return currentDuration;
                     }
@@ -55,12 +63,16 @@ public class CaffeineCacheServiceImpl implements CacheService {
     }
 
     @Override
-    public byte[] get(String key) {
+    public CacheEntry get(DnsCacheKey key) {
         CacheEntry value = cache.getIfPresent(key);
-        if (value != null) {
+        if (value != null && value.isFresh()) {
             hits.incrementAndGet();
+            value.recordHit();
+            if (value.isNegative()) {
+                negativeHits.incrementAndGet();
+            }
             log.debug("缓存命中: {}", key);
-            return value.getData();
+            return value;
         } else {
             misses.incrementAndGet();
             log.debug("缓存未命中: {}", key);
@@ -69,16 +81,56 @@ public class CaffeineCacheServiceImpl implements CacheService {
     }
 
     @Override
-    public int put(String key, byte[] data) {
-        int ttl = DnsUtils.extractTtl(data);
-        if (ttl > 0) {
-            cache.put(key, new CacheEntry(data, ttl));
+    public int put(DnsCacheKey key, byte[] data, DnsWireResponse response) {
+        // 截断或无法解析的响应不完整，不缓存
+        if (response == null || response.truncated()) {
+            return 0;
         }
-        return ttl;
+        CacheEntry.Kind kind;
+        long ttl;
+        if (response.rcode() == Rcode.SERVFAIL) {
+            kind = CacheEntry.Kind.SERVFAIL;
+            ttl = dnsConfig.getServfailCacheTtl();
+        } else if (response.negative()) {
+            // RFC 2308：否定应答的 TTL 取授权段 SOA 的 TTL 与 MINIMUM 的较小值，没有 SOA 时不缓存
+            kind = CacheEntry.Kind.NEGATIVE;
+            ttl = Math.min(response.negativeTtl(), dnsConfig.getNegativeCacheMaxTtl());
+        } else if (response.rcode() == Rcode.NOERROR) {
+            kind = CacheEntry.Kind.POSITIVE;
+            ttl = response.minTtl();
+        } else {
+            // REFUSED、FORMERR 等与具体上游有关的错误不缓存
+            return 0;
+        }
+        if (ttl <= 0) {
+            return 0;
+        }
+        if (kind != CacheEntry.Kind.POSITIVE) {
+            negativeMisses.incrementAndGet();
+        }
+        int cacheTtl = (int) Math.min(ttl, Integer.MAX_VALUE);
+        cache.put(key, new CacheEntry(data, cacheTtl, response.ttlOffsets(), kind));
+        return cacheTtl;
     }
 
     @Override
-    public void remove(String key) {
+    public CacheEntry getStale(DnsCacheKey key) {
+        CacheEntry value = cache.getIfPresent(key);
+        return value != null && !value.isFresh() && value.getKind() != CacheEntry.Kind.SERVFAIL ? value : null;
+    }
+
+    @Override
+    public void recordStaleHit() {
+        staleHits.incrementAndGet();
+    }
+
+    @Override
+    public void recordPrefetch() {
+        prefetches.incrementAndGet();
+    }
+
+    @Override
+    public void remove(DnsCacheKey key) {
         cache.invalidate(key);
         log.debug("缓存删除: {}", key);
     }
@@ -88,6 +140,10 @@ public class CaffeineCacheServiceImpl implements CacheService {
         cache.invalidateAll();
         hits.set(0);
         misses.set(0);
+        negativeHits.set(0);
+        negativeMisses.set(0);
+        prefetches.set(0);
+        staleHits.set(0);
         log.info("缓存已清空");
     }
 
@@ -101,12 +157,26 @@ public class CaffeineCacheServiceImpl implements CacheService {
         return new CacheStats(
                 hits.get(),
                 misses.get(),
-                cache.estimatedSize()
+                cache.estimatedSize(),
+                negativeHits.get(),
+                negativeMisses.get(),
+                prefetches.get(),
+                staleHits.get()
         );
     }
 
+    /**
+     * 条目在缓存中的保留时间：TTL 加上 serve-stale 窗口，SERVFAIL 不保留过期副本
+     */
+    private long retentionSeconds(CacheEntry value) {
+        if (value.getKind() == CacheEntry.Kind.SERVFAIL || !Boolean.TRUE.equals(dnsConfig.getServeStaleEnabled())) {
+            return value.getTtl();
+        }
+        return (long) value.getTtl() + dnsConfig.getStaleWindow();
+    }
+
     @Override
-    public Cache<String, CacheEntry> getCache() {
+    public Cache<DnsCacheKey, CacheEntry> getCache() {
         return cache;
     }
 
@@ -0,0 +1,49 @@
+package com.npc2048.dns.service.impl;
+
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.config.DnsConfig;
+import com.npc2048.dns.model.UpstreamState;
+import com.npc2048.dns.service.UpstreamSelectionStrategy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 最低延迟策略：选择 EWMA RTT 最低的候选
+ * <p>
+ * 以 {@code dns.upstream-exploration-percent} 的概率随机选择一个候选，使其他上游的 RTT 保持更新；
+ * 还没有 RTT 样本的上游优先被选中
+ *
+ * @author yuelong.liang
+ */
+@Component
+@RequiredArgsConstructor
+public class LowestLatencyUpstreamSelectionStrategy implements UpstreamSelectionStrategy {
+
+    private final DnsConfig dnsConfig;
+
+    @Override
+    public String getName() {
+        return Constants.UPSTREAM_STRATEGY_LOWEST_LATENCY;
+    }
+
+    @Override
+    public UpstreamState select(UpstreamState[] candidates) {
+        if (candidates.length == 1) {
+            return candidates[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Integer explorationPercent = dnsConfig.getUpstreamExplorationPercent();
+        if (explorationPercent != null && random.nextInt(100) < explorationPercent) {
+            return candidates[random.nextInt(candidates.length)];
+        }
+        UpstreamState best = candidates[0];
+        for (int i = 1; i < candidates.length; i++) {
+            if (candidates[i].getEwmaRttNanos() < best.getEwmaRttNanos()) {
+                best = candidates[i];
+            }
+        }
+        return best;
+    }
+}
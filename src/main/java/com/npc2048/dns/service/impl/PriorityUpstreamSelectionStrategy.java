@@ -0,0 +1,27 @@
+package com.npc2048.dns.service.impl;
+
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.model.UpstreamState;
+import com.npc2048.dns.service.UpstreamSelectionStrategy;
+import org.springframework.stereotype.Component;
+
+/**
+ * 严格优先级策略：总是选择配置顺序中的第一个候选
+ * <p>
+ * 候选已按优先级分组，只有当更高优先级的上游全部不可用时才会使用下一级
+ *
+ * @author yuelong.liang
+ */
+@Component
+public class PriorityUpstreamSelectionStrategy implements UpstreamSelectionStrategy {
+
+    @Override
+    public String getName() {
+        return Constants.UPSTREAM_STRATEGY_PRIORITY;
+    }
+
+    @Override
+    public UpstreamState select(UpstreamState[] candidates) {
+        return candidates[0];
+    }
+}
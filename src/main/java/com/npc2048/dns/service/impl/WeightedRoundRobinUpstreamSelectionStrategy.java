@@ -0,0 +1,43 @@
+package com.npc2048.dns.service.impl;
+
+import com.npc2048.dns.config.Constants;
+import com.npc2048.dns.model.UpstreamState;
+import com.npc2048.dns.service.UpstreamSelectionStrategy;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 加权轮询策略：按 weight 比例在候选之间分配查询
+ *
+ * @author yuelong.liang
+ */
+@Component
+public class WeightedRoundRobinUpstreamSelectionStrategy implements UpstreamSelectionStrategy {
+
+    private final AtomicLong counter = new AtomicLong();
+
+    @Override
+    public String getName() {
+        return Constants.UPSTREAM_STRATEGY_WEIGHTED_ROUND_ROBIN;
+    }
+
+    @Override
+    public UpstreamState select(UpstreamState[] candidates) {
+        if (candidates.length == 1) {
+            return candidates[0];
+        }
+        int totalWeight = 0;
+        for (UpstreamState candidate : candidates) {
+            totalWeight += candidate.getWeight();
+        }
+        long position = Math.floorMod(counter.getAndIncrement(), totalWeight);
+        for (UpstreamState candidate : candidates) {
+            position -= candidate.getWeight();
+            if (position < 0) {
+                return candidate;
+            }
+        }
+        return candidates[candidates.length - 1];
+    }
+}
@@ -0,0 +1,105 @@
+package com.npc2048.dns.common.util;
+
+import com.npc2048.dns.model.DnsWireQuery;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.ExtendedFlags;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DnsWireDecoderTest {
+
+	@Test
+	void decodesHeaderAndQuestion() throws Exception {
+		Message query = query("www.Example.com.", Type.AAAA);
+		byte[] wire = query.toWire();
+
+		DnsWireQuery decoded = DnsWireDecoder.decodeQuery(Unpooled.wrappedBuffer(wire));
+
+		assertNotNull(decoded);
+		assertEquals(query.getHeader().getID(), decoded.id());
+		assertEquals(1, decoded.qdCount());
+		assertEquals(12, decoded.nameOffset());
+		// 3www7Example3com0
+		assertEquals(17, decoded.nameLength());
+		assertEquals(Type.AAAA, decoded.qtype());
+		assertEquals(DClass.IN, decoded.qclass());
+		assertEquals(wire.length, decoded.questionEnd());
+		assertFalse(decoded.dnssecOk());
+		assertFalse(decoded.checkingDisabled());
+	}
+
+	@Test
+	void readsDnssecOkAndCheckingDisabled() throws Exception {
+		Message query = query("example.com.", Type.A);
+		query.addRecord(new OPTRecord(1232, 0, 0, ExtendedFlags.DO), Section.ADDITIONAL);
+		query.getHeader().setFlag(Flags.CD);
+
+		DnsWireQuery decoded = DnsWireDecoder.decodeQuery(Unpooled.wrappedBuffer(query.toWire()));
+
+		assertNotNull(decoded);
+		assertEquals(1, decoded.arCount());
+		assertTrue(decoded.dnssecOk());
+		assertTrue(decoded.checkingDisabled());
+	}
+
+	@Test
+	void honoursReaderIndex() throws Exception {
+		byte[] wire = query("example.com.", Type.MX).toWire();
+		ByteBuf buf = Unpooled.buffer().writeBytes(new byte[]{1, 2, 3}).writeBytes(wire);
+		buf.readerIndex(3);
+
+		DnsWireQuery decoded = DnsWireDecoder.decodeQuery(buf);
+
+		assertNotNull(decoded);
+		assertEquals(Type.MX, decoded.qtype());
+		assertEquals(3, buf.readerIndex());
+	}
+
+	@Test
+	void rejectsResponsesAndMultipleQuestions() throws Exception {
+		Message response = query("example.com.", Type.A);
+		response.getHeader().setFlag(Flags.QR);
+		assertNull(DnsWireDecoder.decodeQuery(Unpooled.wrappedBuffer(response.toWire())));
+
+		Message twoQuestions = query("example.com.", Type.A);
+		twoQuestions.addRecord(Record.newRecord(Name.fromString("example.org."), Type.A, DClass.IN), Section.QUESTION);
+		assertNull(DnsWireDecoder.decodeQuery(Unpooled.wrappedBuffer(twoQuestions.toWire())));
+	}
+
+	@Test
+	void rejectsCompressedQuestionName() {
+		// 03 'foo' C0 02：名称以指向报文头的压缩指针结尾
+		byte[] wire = {0, 0, 1, 0, 0, 1, 0, 0, 0, 0, 0, 0, 3, 'f', 'o', 'o', (byte) 0xC0, 2, 0, 1, 0, 1};
+
+		assertNull(DnsWireDecoder.decodeQuery(Unpooled.wrappedBuffer(wire)));
+	}
+
+	@Test
+	void rejectsTruncatedPackets() throws Exception {
+		byte[] wire = query("www.example.com.", Type.A).toWire();
+		for (int length = 0; length < wire.length; length++) {
+			assertNull(DnsWireDecoder.decodeQuery(Unpooled.wrappedBuffer(Arrays.copyOf(wire, length))),
+					"length " + length);
+		}
+	}
+
+	private static Message query(String name, int type) throws Exception {
+		return Message.newQuery(Record.newRecord(Name.fromString(name), type, DClass.IN));
+	}
+}
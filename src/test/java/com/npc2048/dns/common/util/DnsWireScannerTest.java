@@ -0,0 +1,141 @@
+package com.npc2048.dns.common.util;
+
+import com.npc2048.dns.model.DnsWireResponse;
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.CNAMERecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.ExtendedFlags;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.SOARecord;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DnsWireScannerTest {
+
+	private static final Name NAME = name("www.example.com.");
+
+	@Test
+	void scansCompressedAnswers() throws Exception {
+		Message response = response(Type.A, Rcode.NOERROR);
+		Name target = name("edge.example.net.");
+		response.addRecord(new CNAMERecord(NAME, DClass.IN, 300, target), Section.ANSWER);
+		response.addRecord(new ARecord(target, DClass.IN, 120, InetAddress.getByName("192.0.2.7")), Section.ANSWER);
+		response.addRecord(new ARecord(target, DClass.IN, 90, InetAddress.getByName("192.0.2.8")), Section.ANSWER);
+		byte[] wire = response.toWire();
+
+		DnsWireResponse scanned = DnsWireScanner.scan(wire);
+
+		assertEquals(Rcode.NOERROR, scanned.rcode());
+		assertFalse(scanned.truncated());
+		assertFalse(scanned.negative());
+		assertEquals(3, scanned.answerCount());
+		assertEquals(90, scanned.minTtl());
+		assertArrayEquals(new long[]{300, 120, 90}, ttls(wire, scanned.ttlOffsets()));
+		assertEquals("192.0.2.7", scanned.address(wire));
+	}
+
+	@Test
+	void readsSoaMinimumFromAuthority() throws Exception {
+		Message response = response(Type.AAAA, Rcode.NXDOMAIN);
+		response.addRecord(new SOARecord(name("example.com."), DClass.IN, 3600, name("ns1.example.com."),
+				name("hostmaster.example.com."), 2024010101L, 7200, 900, 1209600, 600), Section.AUTHORITY);
+		byte[] wire = response.toWire();
+
+		DnsWireResponse scanned = DnsWireScanner.scan(wire);
+
+		assertTrue(scanned.negative());
+		assertEquals(3600, scanned.soaTtl());
+		assertEquals(600, scanned.soaMinimum());
+		assertEquals(600, scanned.negativeTtl());
+		assertNull(scanned.address(wire));
+	}
+
+	@Test
+	void excludesOptFromTtls() throws Exception {
+		Message response = response(Type.AAAA, Rcode.NOERROR);
+		response.addRecord(new AAAARecord(NAME, DClass.IN, 86400, InetAddress.getByName("2001:db8::1")), Section.ANSWER);
+		// OPT 的 TTL 字段承载扩展标志，DO 位对应 32768，计入时会压低最小 TTL
+		response.addRecord(new OPTRecord(1232, 0, 0, ExtendedFlags.DO), Section.ADDITIONAL);
+		byte[] wire = response.toWire();
+
+		DnsWireResponse scanned = DnsWireScanner.scan(wire);
+
+		assertEquals(86400, scanned.minTtl());
+		assertEquals(1, scanned.ttlOffsets().length);
+		assertEquals(InetAddress.getByName("2001:db8::1").getHostAddress(), scanned.address(wire));
+	}
+
+	@Test
+	void reportsTruncation() throws Exception {
+		Message response = response(Type.TXT, Rcode.NOERROR);
+		response.getHeader().setFlag(Flags.TC);
+
+		DnsWireResponse scanned = DnsWireScanner.scan(response.toWire());
+
+		assertTrue(scanned.truncated());
+		assertEquals(-1, scanned.minTtl());
+		assertEquals(0, scanned.ttlOffsets().length);
+	}
+
+	@Test
+	void rejectsMalformedMessages() throws Exception {
+		Message response = response(Type.A, Rcode.NOERROR);
+		response.addRecord(new ARecord(NAME, DClass.IN, 60, InetAddress.getByName("192.0.2.1")), Section.ANSWER);
+		byte[] wire = response.toWire();
+
+		assertNull(DnsWireScanner.scan(null));
+		for (int length = 0; length < wire.length; length++) {
+			assertNull(DnsWireScanner.scan(Arrays.copyOf(wire, length)), "length " + length);
+		}
+
+		// 0x40/0x80 开头的标签类型未定义
+		byte[] badLabel = wire.clone();
+		badLabel[12] = 0x40;
+		assertNull(DnsWireScanner.scan(badLabel));
+
+		// RDLENGTH 越过报文末尾
+		byte[] badLength = wire.clone();
+		badLength[wire.length - 5] = 0x10;
+		assertNull(DnsWireScanner.scan(badLength));
+	}
+
+	private static Message response(int type, int rcode) {
+		Message response = new Message(0x1234);
+		response.getHeader().setFlag(Flags.QR);
+		response.getHeader().setFlag(Flags.RD);
+		response.getHeader().setFlag(Flags.RA);
+		response.getHeader().setRcode(rcode);
+		response.addRecord(Record.newRecord(NAME, type, DClass.IN), Section.QUESTION);
+		return response;
+	}
+
+	private static long[] ttls(byte[] wire, int[] offsets) {
+		long[] ttls = new long[offsets.length];
+		for (int i = 0; i < offsets.length; i++) {
+			int offset = offsets[i];
+			ttls[i] = ((wire[offset] & 0xFFL) << 24) | ((wire[offset + 1] & 0xFF) << 16)
+					| ((wire[offset + 2] & 0xFF) << 8) | (wire[offset + 3] & 0xFF);
+		}
+		return ttls;
+	}
+
+	private static Name name(String name) {
+		return Name.fromConstantString(name);
+	}
+}
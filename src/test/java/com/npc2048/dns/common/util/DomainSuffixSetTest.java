@@ -0,0 +1,108 @@
+package com.npc2048.dns.common.util;
+
+import com.npc2048.dns.model.DnsCacheKey;
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Type;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DomainSuffixSetTest {
+
+	private final DomainSuffixSet set = build("ads.example.com", "*.tracker.net", "Metrics.Example.ORG.",
+			"deep.ads.example.com", "ads.example.com");
+
+	@Test
+	void matchesDomainAndSubdomains() {
+		assertTrue(set.matches("ads.example.com"));
+		assertTrue(set.matches("img.ads.example.com"));
+		assertTrue(set.matches("tracker.net"));
+		assertTrue(set.matches("a.b.tracker.net"));
+		assertTrue(set.matches("METRICS.example.org"));
+	}
+
+	@Test
+	void doesNotMatchParentsOrPartialLabels() {
+		assertFalse(set.matches("example.com"));
+		assertFalse(set.matches("com"));
+		assertFalse(set.matches("myads.example.com"));
+		assertFalse(set.matches("ads.example.co"));
+		assertFalse(set.matches("nottracker.net"));
+		assertFalse(DomainSuffixSet.empty().matches("ads.example.com"));
+	}
+
+	@Test
+	void matchesWireNameFromCacheKey() throws Exception {
+		DnsCacheKey key = DnsCacheKey.of(Name.fromString("Cdn.Ads.Example.Com."), Type.A, DClass.IN, false, false);
+
+		assertTrue(set.matches(key.getName()));
+	}
+
+	@Test
+	void prunesDuplicatesAndCoveredSubdomains() {
+		assertEquals(3, set.size());
+		// 根 + com/net/org + example.com/tracker.net/example.org + ads/metrics
+		assertEquals(9, set.nodeCount());
+	}
+
+	@Test
+	void rejectsInvalidAndSingleLabelEntries() {
+		DomainSuffixSet.Builder builder = DomainSuffixSet.builder();
+
+		assertFalse(builder.add("localhost"));
+		assertFalse(builder.add("a..b"));
+		assertFalse(builder.add("a".repeat(64) + ".com"));
+		assertFalse(builder.add("例子.com"));
+		assertFalse(builder.add(""));
+		assertTrue(builder.add("ok.example"));
+	}
+
+	@Test
+	void agreesWithHashSetOnLargeList() {
+		Random random = new Random(42);
+		Set<String> blocked = new HashSet<>();
+		DomainSuffixSet.Builder builder = DomainSuffixSet.builder();
+		for (int i = 0; i < 50_000; i++) {
+			String domain = randomLabel(random) + "." + randomLabel(random) + "." + (i % 3 == 0 ? "com" : "net");
+			blocked.add(domain);
+			builder.add(domain);
+		}
+		DomainSuffixSet large = builder.build();
+
+		for (String domain : blocked) {
+			assertTrue(large.matches("www." + domain), domain);
+		}
+		int falsePositives = 0;
+		for (int i = 0; i < 50_000; i++) {
+			String domain = randomLabel(random) + "." + randomLabel(random) + ".org";
+			if (large.matches(domain)) {
+				falsePositives++;
+			}
+		}
+		assertEquals(0, falsePositives);
+		assertTrue(large.bloomBytes() * 8 / large.size() >= 10);
+	}
+
+	private static DomainSuffixSet build(String... domains) {
+		DomainSuffixSet.Builder builder = DomainSuffixSet.builder();
+		for (String domain : domains) {
+			builder.add(domain);
+		}
+		return builder.build();
+	}
+
+	private static String randomLabel(Random random) {
+		char[] label = new char[3 + random.nextInt(10)];
+		for (int i = 0; i < label.length; i++) {
+			label[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(label);
+	}
+}
@@ -0,0 +1,72 @@
+package com.npc2048.dns.common.util;
+
+import com.npc2048.dns.model.DnsCacheKey;
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Type;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DomainSuffixTrieTest {
+
+	private final DomainSuffixTrie<String> trie = DomainSuffixTrie.<String>builder()
+			.put("corp.internal", "ad")
+			.put("*.svc.cluster.local", "coredns")
+			.put("public.corp.internal", "default")
+			.put("CORP.internal.", "ignored")
+			.build();
+
+	@Test
+	void matchesLongestSuffix() {
+		assertEquals("ad", trie.match("corp.internal"));
+		assertEquals("ad", trie.match("dc01.corp.internal"));
+		assertEquals("default", trie.match("www.public.corp.internal"));
+		assertEquals("coredns", trie.match("api.default.svc.cluster.local"));
+		assertEquals("coredns", trie.match("svc.cluster.local"));
+	}
+
+	@Test
+	void doesNotMatchPartialLabels() {
+		assertNull(trie.match("mycorp.internal"));
+		assertNull(trie.match("internal"));
+		assertNull(trie.match("cluster.local"));
+		assertNull(trie.match("example.com"));
+	}
+
+	@Test
+	void matchesWireNameFromCacheKey() throws Exception {
+		DnsCacheKey key = DnsCacheKey.of(Name.fromString("Host.Corp.Internal."), Type.A, DClass.IN, false, false);
+
+		assertEquals("ad", trie.match(key.getName()));
+	}
+
+	@Test
+	void keepsFirstRuleForDuplicateSuffix() {
+		assertEquals(3, trie.size());
+		assertEquals("ad", trie.match("corp.internal"));
+	}
+
+	@Test
+	void rootRuleMatchesEverything() {
+		DomainSuffixTrie<String> withRoot = DomainSuffixTrie.<String>builder()
+				.put(".", "fallback")
+				.put("example.com", "example")
+				.build();
+
+		assertEquals("fallback", withRoot.match("www.example.org"));
+		assertEquals("example", withRoot.match("www.example.com"));
+		assertNull(DomainSuffixTrie.<String>empty().match("example.com"));
+	}
+
+	@Test
+	void rejectsInvalidDomains() {
+		DomainSuffixTrie.Builder<String> builder = DomainSuffixTrie.builder();
+
+		assertThrows(IllegalArgumentException.class, () -> builder.put("a..b", "x"));
+		assertThrows(IllegalArgumentException.class, () -> builder.put("a".repeat(64) + ".com", "x"));
+		assertThrows(IllegalArgumentException.class, () -> builder.put("例子.com", "x"));
+	}
+}
@@ -0,0 +1,133 @@
+package com.npc2048.dns.model;
+
+import com.npc2048.dns.common.util.DnsWireScanner;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.ExtendedFlags;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheEntryTest {
+
+	private static final ByteBufAllocator ALLOC = ByteBufAllocator.DEFAULT;
+
+	@Test
+	void keepsTtlsWithinFirstSecond() throws Exception {
+		byte[] wire = response("www.example.com.");
+		CacheEntry entry = entry(wire);
+
+		ByteBuf response = entry.toResponse(ALLOC, 0xBEEF, null);
+		try {
+			byte[] bytes = ByteBufUtil.getBytes(response);
+			assertEquals(0xBEEF, readShort(bytes, 0));
+			assertArrayEquals(Arrays.copyOfRange(wire, 2, wire.length),
+					Arrays.copyOfRange(bytes, 2, bytes.length));
+		} finally {
+			response.release();
+		}
+	}
+
+	@Test
+	void decrementsTtlsAndClampsAtZero() throws Exception {
+		byte[] wire = response("www.example.com.");
+		CacheEntry entry = entry(wire);
+		int[] offsets = entry.getTtlOffsets();
+
+		Thread.sleep(1100);
+		ByteBuf response = entry.toResponse(ALLOC, 7, null);
+		try {
+			byte[] bytes = ByteBufUtil.getBytes(response);
+			// 300 秒的记录减去已经过的秒数，1 秒的记录不会变为负数
+			long remaining = readInt(bytes, offsets[0]);
+			assertTrue(remaining == 299 || remaining == 298, "remaining " + remaining);
+			assertEquals(0, readInt(bytes, offsets[1]));
+			// OPT 的扩展标志不在偏移表中，保持不变
+			assertArrayEquals(Arrays.copyOfRange(wire, wire.length - 11, wire.length),
+					Arrays.copyOfRange(bytes, bytes.length - 11, bytes.length));
+		} finally {
+			response.release();
+		}
+	}
+
+	@Test
+	void staleResponseUsesFixedTtl() throws Exception {
+		CacheEntry entry = entry(response("www.example.com."));
+
+		ByteBuf response = entry.toStaleResponse(ALLOC, 9, 30, null);
+		try {
+			byte[] bytes = ByteBufUtil.getBytes(response);
+			assertEquals(9, readShort(bytes, 0));
+			for (int offset : entry.getTtlOffsets()) {
+				assertEquals(30, readInt(bytes, offset));
+			}
+		} finally {
+			response.release();
+		}
+	}
+
+	@Test
+	void restoresRequesterQuestionCase() throws Exception {
+		CacheEntry entry = entry(response("www.example.com."));
+		byte[] qname = Name.fromString("wWw.ExAmPlE.cOm.").toWire();
+
+		ByteBuf fresh = entry.toResponse(ALLOC, 1, qname);
+		ByteBuf stale = entry.toStaleResponse(ALLOC, 1, 30, qname);
+		try {
+			assertEquals("\u0003wWw\u0007ExAmPlE\u0003cOm", questionName(fresh));
+			assertEquals("\u0003wWw\u0007ExAmPlE\u0003cOm", questionName(stale));
+		} finally {
+			fresh.release();
+			stale.release();
+		}
+	}
+
+	private static CacheEntry entry(byte[] wire) {
+		DnsWireResponse scanned = DnsWireScanner.scan(wire);
+		return new CacheEntry(wire, 1, scanned.ttlOffsets(), CacheEntry.Kind.POSITIVE);
+	}
+
+	private static byte[] response(String name) throws Exception {
+		Name owner = Name.fromString(name);
+		Message response = new Message(0x1234);
+		response.getHeader().setFlag(Flags.QR);
+		response.addRecord(Record.newRecord(owner, Type.A, DClass.IN), Section.QUESTION);
+		response.addRecord(new ARecord(owner, DClass.IN, 300, InetAddress.getByName("192.0.2.1")), Section.ANSWER);
+		response.addRecord(new ARecord(owner, DClass.IN, 1, InetAddress.getByName("192.0.2.2")), Section.ANSWER);
+		response.addRecord(new OPTRecord(1232, 0, 0, ExtendedFlags.DO), Section.ADDITIONAL);
+		return response.toWire();
+	}
+
+	private static String questionName(ByteBuf response) {
+		byte[] bytes = ByteBufUtil.getBytes(response);
+		int end = 12;
+		while (bytes[end] != 0) {
+			end += bytes[end] + 1;
+		}
+		return new String(bytes, 12, end - 12, StandardCharsets.US_ASCII);
+	}
+
+	private static int readShort(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+	}
+
+	private static long readInt(byte[] bytes, int offset) {
+		return ((long) readShort(bytes, offset) << 16) | readShort(bytes, offset + 2);
+	}
+}
@@ -0,0 +1,147 @@
+package com.npc2048.dns.model;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Master;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.io.ByteArrayInputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocalZoneTest {
+
+	private static final String ZONE = """
+			$ORIGIN home.lan.
+			$TTL 300
+			@        IN SOA ns.home.lan. admin.home.lan. 1 3600 600 86400 120
+			@        IN NS  ns
+			ns       IN A   192.168.1.1
+			nas      IN A   192.168.1.10
+			nas      IN A   192.168.1.11
+			media    IN CNAME nas
+			www.app  IN A   192.168.1.20
+			*.dev    IN A   192.168.1.30
+			""";
+
+	private final LocalZone zone = build();
+
+	@Test
+	void answersExactNameAuthoritatively() throws Exception {
+		Message response = respond(0x1234, "NAS.home.lan.", Type.A, true);
+
+		assertEquals(0x1234, response.getHeader().getID());
+		assertTrue(response.getHeader().getFlag(Flags.QR));
+		assertTrue(response.getHeader().getFlag(Flags.AA));
+		assertTrue(response.getHeader().getFlag(Flags.RD));
+		assertEquals(Rcode.NOERROR, response.getRcode());
+		// 问题名称按请求的大小写返回，回答记录的所有者指向问题段
+		assertEquals("NAS.home.lan.", response.getQuestion().getName().toString());
+		List<Record> answers = response.getSection(Section.ANSWER);
+		assertEquals(2, answers.size());
+		assertEquals("NAS.home.lan.", answers.getFirst().getName().toString());
+		assertEquals(300, answers.getFirst().getTTL());
+	}
+
+	@Test
+	void answersNodataAndNxdomainWithSoa() throws Exception {
+		Message nodata = respond(1, "nas.home.lan.", Type.AAAA, false);
+		assertEquals(Rcode.NOERROR, nodata.getRcode());
+		assertFalse(nodata.getHeader().getFlag(Flags.RD));
+		assertTrue(nodata.getSection(Section.ANSWER).isEmpty());
+		Record soa = nodata.getSection(Section.AUTHORITY).getFirst();
+		assertEquals(Type.SOA, soa.getType());
+		// 否定应答 TTL 取 SOA TTL 与 MINIMUM 的较小者
+		assertEquals(120, soa.getTTL());
+
+		Message nxdomain = respond(2, "missing.home.lan.", Type.A, false);
+		assertEquals(Rcode.NXDOMAIN, nxdomain.getRcode());
+		assertEquals(Type.SOA, nxdomain.getSection(Section.AUTHORITY).getFirst().getType());
+
+		// 有记录的名称的上级名称存在（空非终端）
+		assertEquals(Rcode.NOERROR, respond(3, "app.home.lan.", Type.A, false).getRcode());
+	}
+
+	@Test
+	void expandsWildcardUntilExistingName() throws Exception {
+		Message response = respond(1, "feature.x.dev.home.lan.", Type.A, false);
+
+		Record answer = response.getSection(Section.ANSWER).getFirst();
+		assertEquals("feature.x.dev.home.lan.", answer.getName().toString());
+		assertEquals(InetAddress.getByName("192.168.1.30"), ((ARecord) answer).getAddress());
+		assertEquals(Rcode.NOERROR, respond(2, "dev.home.lan.", Type.A, false).getRcode());
+		assertTrue(respond(3, "dev.home.lan.", Type.A, false).getSection(Section.ANSWER).isEmpty());
+	}
+
+	@Test
+	void followsLocalCnameChain() throws Exception {
+		List<Record> answers = respond(1, "media.home.lan.", Type.A, false).getSection(Section.ANSWER);
+
+		assertEquals(3, answers.size());
+		assertEquals(Type.CNAME, answers.get(0).getType());
+		assertEquals("nas.home.lan.", answers.get(1).getName().toString());
+
+		List<Record> other = respond(2, "media.home.lan.", Type.TXT, false).getSection(Section.ANSWER);
+		assertEquals(1, other.size());
+		assertEquals(Type.CNAME, other.getFirst().getType());
+	}
+
+	@Test
+	void leavesOtherNamesToUpstream() throws Exception {
+		LocalZone hosts = new LocalZone.Builder()
+				.add(new ARecord(Name.fromString("printer."), DClass.IN, 60, InetAddress.getByName("10.0.0.5")))
+				.build();
+
+		assertNull(zone.lookup(Name.fromString("www.example.com.").toWireCanonical(), Type.A));
+		assertNull(hosts.lookup(Name.fromString("scanner.").toWireCanonical(), Type.A));
+		assertEquals(1, hosts.lookup(Name.fromString("printer.").toWireCanonical(), Type.A).getAnswerCount());
+		assertNull(LocalZone.EMPTY.lookup(Name.fromString("printer.").toWireCanonical(), Type.A));
+	}
+
+	private Message respond(int id, String name, int type, boolean recursionDesired) throws Exception {
+		Name qname = Name.fromString(name);
+		Message query = Message.newQuery(Record.newRecord(qname, type, DClass.IN));
+		query.getHeader().setID(id);
+		if (!recursionDesired) {
+			query.getHeader().unsetFlag(Flags.RD);
+		}
+		LocalZone.Answer answer = zone.lookup(qname.canonicalize().toWireCanonical(), type);
+		ByteBuf request = Unpooled.wrappedBuffer(query.toWire());
+		ByteBuf response = answer.toResponse(ByteBufAllocator.DEFAULT, request, id, qname.length());
+		try {
+			return new Message(ByteBufUtil.getBytes(response));
+		} finally {
+			response.release();
+		}
+	}
+
+	private static LocalZone build() {
+		LocalZone.Builder builder = new LocalZone.Builder();
+		try (Master master = new Master(new ByteArrayInputStream(ZONE.getBytes(StandardCharsets.US_ASCII)))) {
+			Record record;
+			while ((record = master.nextRecord()) != null) {
+				builder.add(record);
+			}
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,233 @@
+package com.npc2048.dns.network;
+
+import com.npc2048.dns.model.UpstreamDnsConfig;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DohUpstreamTransportTest {
+
+	private final EventLoopGroup group = new MultiThreadIoEventLoopGroup(2, NioIoHandler.newFactory());
+	private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+	private final AtomicInteger connections = new AtomicInteger();
+	private final Queue<String> requestLines = new ConcurrentLinkedQueue<>();
+	private final Queue<Integer> requestIds = new ConcurrentLinkedQueue<>();
+	private DohUpstreamTransport transport;
+	private Channel server;
+
+	@BeforeEach
+	void start() throws Exception {
+		transport = new DohUpstreamTransport(group, timer,
+				DohUpstreamTransport.sslContext(SslContextBuilder.forClient().trustManager(resource("upstream-test.crt"))));
+		server = startServer();
+	}
+
+	@AfterEach
+	void shutdown() {
+		transport.shutdown();
+		server.close().syncUninterruptibly();
+		timer.stop();
+		group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	void multiplexesConcurrentQueriesOverPooledConnections() throws Exception {
+		List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			futures.add(transport.exchange(upstream("POST", null), query(0x1000 + i, "q" + i), 5000));
+		}
+
+		for (int i = 0; i < 20; i++) {
+			byte[] answer = futures.get(i).get(5, TimeUnit.SECONDS);
+			assertEquals(0x1000 + i, id(answer));
+			assertEquals((byte) 0x81, answer[2]);
+		}
+		assertTrue(connections.get() <= 2, "connections: " + connections.get());
+		// RFC 8484：请求中的事务 ID 置 0
+		assertTrue(requestIds.stream().allMatch(id -> id == 0));
+		assertTrue(requestLines.stream().allMatch("POST /dns-query"::equals));
+	}
+
+	@Test
+	void sendsGetWithBase64UrlParameter() throws Exception {
+		byte[] answer = transport.exchange(upstream("GET", null), query(0x2222, "get"), 5000).get(5, TimeUnit.SECONDS);
+
+		assertEquals(0x2222, id(answer));
+		assertTrue(requestLines.peek().startsWith("GET /dns-query?dns="), requestLines.peek());
+	}
+
+	@Test
+	void failsOnHttpErrorStatus() {
+		CompletableFuture<byte[]> future = transport.exchange(upstream("POST", "/fail"), query(1, "err"), 5000);
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(IOException.class, e.getCause());
+	}
+
+	@Test
+	void rejectsUntrustedCertificate() {
+		DohUpstreamTransport systemTrust = new DohUpstreamTransport(group, timer);
+		try {
+			CompletableFuture<byte[]> future = systemTrust.exchange(upstream("POST", null), query(1, "tls"), 5000);
+
+			assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+		} finally {
+			systemTrust.shutdown();
+		}
+	}
+
+	private UpstreamDnsConfig upstream(String method, String path) {
+		int port = ((InetSocketAddress) server.localAddress()).getPort();
+		return UpstreamDnsConfig.builder().address("127.0.0.1").port(port).protocol("DOH")
+				.httpMethod(method).path(path).build();
+	}
+
+	/**
+	 * 本地 DoH 服务端：回显查询并置 QR 位，路径 /fail 返回 500
+	 */
+	private Channel startServer() throws Exception {
+		SslContext sslContext = SslContextBuilder.forServer(resource("upstream-test.crt"), resource("upstream-test.key"))
+				.ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+				.applicationProtocolConfig(new ApplicationProtocolConfig(
+						ApplicationProtocolConfig.Protocol.ALPN,
+						ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+						ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+						ApplicationProtocolNames.HTTP_2))
+				.build();
+		return new ServerBootstrap()
+				.group(group)
+				.channel(NioServerSocketChannel.class)
+				.childHandler(new ChannelInitializer<SocketChannel>() {
+					@Override
+					protected void initChannel(SocketChannel ch) {
+						connections.incrementAndGet();
+						ch.pipeline().addLast(sslContext.newHandler(ch.alloc()));
+						ch.pipeline().addLast(Http2FrameCodecBuilder.forServer().build());
+						ch.pipeline().addLast(new Http2MultiplexHandler(new ChannelInitializer<Http2StreamChannel>() {
+							@Override
+							protected void initChannel(Http2StreamChannel stream) {
+								stream.pipeline().addLast(new StubStreamHandler());
+							}
+						}));
+						ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+							@Override
+							public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+								ctx.close();
+							}
+						});
+					}
+				})
+				.bind("127.0.0.1", 0).sync().channel();
+	}
+
+	private final class StubStreamHandler extends ChannelInboundHandlerAdapter {
+
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		private Http2Headers requestHeaders;
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) {
+			try {
+				boolean endStream = false;
+				if (msg instanceof Http2HeadersFrame headersFrame) {
+					requestHeaders = headersFrame.headers();
+					endStream = headersFrame.isEndStream();
+				} else if (msg instanceof Http2DataFrame dataFrame) {
+					body.writeBytes(ByteBufUtil.getBytes(dataFrame.content()));
+					endStream = dataFrame.isEndStream();
+				}
+				if (endStream) {
+					respond(ctx);
+				}
+			} finally {
+				ReferenceCountUtil.release(msg);
+			}
+		}
+
+		private void respond(ChannelHandlerContext ctx) {
+			String path = requestHeaders.path().toString();
+			requestLines.add(requestHeaders.method() + " " + path);
+			if (path.startsWith("/fail")) {
+				ctx.writeAndFlush(new DefaultHttp2HeadersFrame(new DefaultHttp2Headers().status("500"), true));
+				return;
+			}
+			byte[] message = path.contains("?dns=")
+					? Base64.getUrlDecoder().decode(path.substring(path.indexOf("?dns=") + 5))
+					: body.toByteArray();
+			requestIds.add(id(message));
+			message[2] |= (byte) 0x80;
+			ctx.write(new DefaultHttp2HeadersFrame(new DefaultHttp2Headers().status("200")
+					.set("content-type", "application/dns-message"), false));
+			ctx.writeAndFlush(new DefaultHttp2DataFrame(Unpooled.wrappedBuffer(message), true));
+		}
+	}
+
+	private static byte[] query(int id, String label) {
+		byte[] query = new byte[12 + label.length() + 6];
+		query[0] = (byte) (id >> 8);
+		query[1] = (byte) id;
+		query[2] = 1;
+		query[5] = 1;
+		query[12] = (byte) label.length();
+		System.arraycopy(label.getBytes(), 0, query, 13, label.length());
+		query[query.length - 3] = 1;
+		query[query.length - 1] = 1;
+		return query;
+	}
+
+	private static int id(byte[] message) {
+		return ((message[0] & 0xFF) << 8) | (message[1] & 0xFF);
+	}
+
+	private static InputStream resource(String name) {
+		return DohUpstreamTransportTest.class.getResourceAsStream("/tls/" + name);
+	}
+}
@@ -0,0 +1,172 @@
+package com.npc2048.dns.network;
+
+import com.npc2048.dns.model.UpstreamDnsConfig;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.HashedWheelTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DotUpstreamTransportTest {
+
+	private final EventLoopGroup group = new MultiThreadIoEventLoopGroup(2, NioIoHandler.newFactory());
+	private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+	private final AtomicInteger connections = new AtomicInteger();
+	private final Queue<String> sessionIds = new ConcurrentLinkedQueue<>();
+	private volatile boolean closeAfterAnswer;
+	private DotUpstreamTransport transport;
+	private Channel server;
+
+	@BeforeEach
+	void start() throws Exception {
+		transport = new DotUpstreamTransport(group, timer,
+				DotUpstreamTransport.sslContext(SslContextBuilder.forClient().trustManager(resource("upstream-test.crt"))));
+		server = startServer();
+	}
+
+	@AfterEach
+	void shutdown() {
+		transport.shutdown();
+		server.close().syncUninterruptibly();
+		timer.stop();
+		group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	void pipelinesQueriesOverPooledTlsConnections() throws Exception {
+		List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(transport.exchange(upstream(), query(0x3000 + i, "q" + i), 5000));
+		}
+
+		for (int i = 0; i < 10; i++) {
+			byte[] answer = futures.get(i).get(5, TimeUnit.SECONDS);
+			assertEquals(0x3000 + i, id(answer));
+			assertEquals((byte) 0x81, answer[2]);
+		}
+		assertTrue(connections.get() <= 2, "connections: " + connections.get());
+	}
+
+	@Test
+	void resumesSessionOnNewConnection() throws Exception {
+		transport.exchange(upstream(), query(1, "aaa"), 5000).get(5, TimeUnit.SECONDS);
+		// 移除连接池后重新查询，新连接复用缓存的会话
+		transport.retain(List.of());
+		transport.exchange(upstream(), query(2, "bbb"), 5000).get(5, TimeUnit.SECONDS);
+
+		assertEquals(2, sessionIds.size());
+		assertEquals(1, sessionIds.stream().distinct().count());
+	}
+
+	@Test
+	void reconnectsInBackgroundAfterPeerClose() throws Exception {
+		closeAfterAnswer = true;
+		transport.exchange(upstream(), query(1, "aaa"), 5000).get(5, TimeUnit.SECONDS);
+
+		// 上游应答后关闭连接，仍在使用中的连接无需等待下一个查询即重新建立
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (connections.get() < 2 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(connections.get() >= 2, "connections: " + connections.get());
+	}
+
+	private UpstreamDnsConfig upstream() {
+		int port = ((InetSocketAddress) server.localAddress()).getPort();
+		return UpstreamDnsConfig.builder().address("127.0.0.1").port(port).protocol("DOT").build();
+	}
+
+	/**
+	 * 本地 DoT 服务端（TLS 1.2，会话 ID 可观察）：回显查询并置 QR 位
+	 */
+	private Channel startServer() throws Exception {
+		SslContext sslContext = SslContextBuilder.forServer(resource("upstream-test.crt"), resource("upstream-test.key"))
+				.protocols("TLSv1.2")
+				.build();
+		return new ServerBootstrap()
+				.group(group)
+				.channel(NioServerSocketChannel.class)
+				.childHandler(new ChannelInitializer<SocketChannel>() {
+					@Override
+					protected void initChannel(SocketChannel ch) {
+						connections.incrementAndGet();
+						SslHandler sslHandler = sslContext.newHandler(ch.alloc());
+						sslHandler.handshakeFuture().addListener(f -> {
+							if (f.isSuccess()) {
+								sessionIds.add(HexFormat.of().formatHex(sslHandler.engine().getSession().getId()));
+							}
+						});
+						ch.pipeline().addLast(sslHandler);
+						ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(65537, 0, 2, 0, 2));
+						ch.pipeline().addLast(new LengthFieldPrepender(2));
+						ch.pipeline().addLast(new SimpleChannelInboundHandler<ByteBuf>() {
+							@Override
+							protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+								ByteBuf response = frame.retainedDuplicate();
+								response.setByte(2, response.getByte(2) | 0x80);
+								ctx.writeAndFlush(response);
+								if (closeAfterAnswer) {
+									ctx.close();
+								}
+							}
+
+							@Override
+							public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+								ctx.close();
+							}
+						});
+					}
+				})
+				.bind("127.0.0.1", 0).sync().channel();
+	}
+
+	private static byte[] query(int id, String label) {
+		byte[] query = new byte[12 + label.length() + 6];
+		query[0] = (byte) (id >> 8);
+		query[1] = (byte) id;
+		query[2] = 1;
+		query[5] = 1;
+		query[12] = (byte) label.length();
+		System.arraycopy(label.getBytes(), 0, query, 13, label.length());
+		query[query.length - 3] = 1;
+		query[query.length - 1] = 1;
+		return query;
+	}
+
+	private static int id(byte[] message) {
+		return ((message[0] & 0xFF) << 8) | (message[1] & 0xFF);
+	}
+
+	private static InputStream resource(String name) {
+		return DotUpstreamTransportTest.class.getResourceAsStream("/tls/" + name);
+	}
+}
@@ -0,0 +1,111 @@
+package com.npc2048.dns.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.HashedWheelTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PendingQueriesTest {
+
+	private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+	private final PendingQueries pending = new PendingQueries(timer);
+
+	@AfterEach
+	void stopTimer() {
+		timer.stop();
+	}
+
+	@Test
+	void matchesQuestionIgnoringCase() throws Exception {
+		byte[] request = query(0x1234, "wWw.ExAmple.COM.", Type.A).toWire();
+		CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+		ByteBuf sent = pending.register(request, future, 5000, ByteBufAllocator.DEFAULT);
+		int rewrittenId = sent.getUnsignedShort(0);
+		sent.release();
+
+		byte[] response = response(rewrittenId, "www.example.com.", Type.A);
+		assertTrue(pending.complete(Unpooled.wrappedBuffer(response)));
+
+		byte[] answer = future.get(1, TimeUnit.SECONDS);
+		assertEquals(0x1234, ((answer[0] & 0xFF) << 8) | (answer[1] & 0xFF));
+		assertArrayEquals(new Message(answer).getSection(Section.ANSWER).toArray(),
+				new Message(response).getSection(Section.ANSWER).toArray());
+		assertEquals(0, pending.size());
+	}
+
+	@Test
+	void rejectsMismatchedQuestionOrId() throws Exception {
+		byte[] request = query(1, "www.example.com.", Type.A).toWire();
+		CompletableFuture<byte[]> future = new CompletableFuture<>();
+		ByteBuf sent = pending.register(request, future, 5000, ByteBufAllocator.DEFAULT);
+		int rewrittenId = sent.getUnsignedShort(0);
+		sent.release();
+
+		assertFalse(pending.complete(Unpooled.wrappedBuffer(response(rewrittenId, "www.example.com.", Type.AAAA))));
+		assertFalse(pending.complete(Unpooled.wrappedBuffer(response(rewrittenId, "www.example.org.", Type.A))));
+		assertFalse(pending.complete(Unpooled.wrappedBuffer(response(rewrittenId ^ 1, "www.example.com.", Type.A))));
+		assertFalse(pending.complete(Unpooled.wrappedBuffer(new byte[4])));
+		assertFalse(future.isDone());
+		assertEquals(1, pending.size());
+	}
+
+	@Test
+	void timesOutAndReleasesId() {
+		CompletableFuture<byte[]> future = new CompletableFuture<>();
+		pending.register(query(1, "example.com.", Type.A).toWire(), future, 50, ByteBufAllocator.DEFAULT).release();
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(1, TimeUnit.SECONDS));
+		assertInstanceOf(TimeoutException.class, e.getCause());
+		assertEquals(0, pending.size());
+	}
+
+	@Test
+	void rejectsCompressedQuestion() {
+		// 03 'foo' C0 02：线解码器不接受，dnsjava 能解析
+		byte[] request = {0, 0, 1, 0, 0, 1, 0, 0, 0, 0, 0, 0, 3, 'f', 'o', 'o', (byte) 0xC0, 2, 0, 1, 0, 1};
+
+		assertThrows(IllegalArgumentException.class,
+				() -> pending.register(request, new CompletableFuture<>(), 5000, ByteBufAllocator.DEFAULT));
+		assertEquals(0, pending.size());
+	}
+
+	private static Message query(int id, String name, int type) {
+		Message query = Message.newQuery(Record.newRecord(Name.fromConstantString(name), type, DClass.IN));
+		query.getHeader().setID(id);
+		return query;
+	}
+
+	private static byte[] response(int id, String name, int type) throws Exception {
+		Message response = query(id, name, type);
+		response.getHeader().setFlag(Flags.QR);
+		if (type == Type.A) {
+			response.addRecord(new ARecord(Name.fromConstantString(name), DClass.IN, 60,
+					InetAddress.getByName("192.0.2.1")), Section.ANSWER);
+		}
+		return response.toWire();
+	}
+}
@@ -0,0 +1,189 @@
+package com.npc2048.dns.network;
+
+import com.npc2048.dns.model.UpstreamDnsConfig;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.util.HashedWheelTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class Socks5UdpUpstreamTransportTest {
+
+	private final EventLoopGroup group = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
+	private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+	private final Socks5UdpUpstreamTransport transport = new Socks5UdpUpstreamTransport(group, timer);
+	private final AtomicInteger associations = new AtomicInteger();
+	private final Queue<Integer> targetPorts = new ConcurrentLinkedQueue<>();
+	private final List<Socket> controls = new ArrayList<>();
+	private ServerSocket proxy;
+	private DatagramSocket relay;
+
+	@BeforeEach
+	void start() throws Exception {
+		proxy = new ServerSocket(0, 5, InetAddress.getLoopbackAddress());
+		relay = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		Thread.ofVirtual().start(this::acceptControls);
+		Thread.ofVirtual().start(this::relayPackets);
+	}
+
+	@AfterEach
+	void shutdown() throws Exception {
+		transport.shutdown();
+		proxy.close();
+		relay.close();
+		synchronized (controls) {
+			for (Socket control : controls) {
+				control.close();
+			}
+		}
+		timer.stop();
+		group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	void sharesOneAssociationAcrossQueries() throws Exception {
+		List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			futures.add(transport.exchange(upstream("secret"), query(0x5000 + i, "q" + i), 5000));
+		}
+
+		for (int i = 0; i < 5; i++) {
+			byte[] answer = futures.get(i).get(5, TimeUnit.SECONDS);
+			assertEquals(0x5000 + i, id(answer));
+			assertEquals((byte) 0x81, answer[2]);
+		}
+		assertEquals(1, associations.get());
+		// UDP 请求头中的目标为上游地址
+		assertEquals(5, targetPorts.stream().filter(port -> port == 5353).count());
+	}
+
+	@Test
+	void failsWhenAuthenticationIsRejected() {
+		CompletableFuture<byte[]> future = transport.exchange(upstream("wrong"), query(1, "aaa"), 5000);
+
+		assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+		assertEquals(0, associations.get());
+	}
+
+	private UpstreamDnsConfig upstream(String password) {
+		return UpstreamDnsConfig.builder()
+				.address("127.0.0.1").port(5353)
+				.useProxy(true)
+				.proxyConfig(UpstreamDnsConfig.ProxyConfig.builder()
+						.host("127.0.0.1").port(proxy.getLocalPort()).type("SOCKS5")
+						.username("user").password(password).build())
+				.build();
+	}
+
+	/**
+	 * SOCKS5 控制连接：用户名/密码认证后应答 UDP ASSOCIATE，中继地址为本地 UDP 套接字
+	 */
+	private void acceptControls() {
+		while (!proxy.isClosed()) {
+			try {
+				Socket socket = proxy.accept();
+				synchronized (controls) {
+					controls.add(socket);
+				}
+				Thread.ofVirtual().start(() -> serveControl(socket));
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void serveControl(Socket socket) {
+		try (socket) {
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			in.readUnsignedByte();
+			in.readFully(new byte[in.readUnsignedByte()]);
+			out.write(new byte[]{5, 2});
+
+			in.readUnsignedByte();
+			byte[] username = new byte[in.readUnsignedByte()];
+			in.readFully(username);
+			byte[] password = new byte[in.readUnsignedByte()];
+			in.readFully(password);
+			boolean accepted = "user".equals(new String(username, StandardCharsets.US_ASCII))
+					&& "secret".equals(new String(password, StandardCharsets.US_ASCII));
+			out.write(new byte[]{1, (byte) (accepted ? 0 : 1)});
+			if (!accepted) {
+				return;
+			}
+
+			// VER CMD RSV ATYP(IPv4) ADDR PORT
+			in.readFully(new byte[10]);
+			associations.incrementAndGet();
+			int relayPort = relay.getLocalPort();
+			out.write(new byte[]{5, 0, 0, 1, 127, 0, 0, 1, (byte) (relayPort >> 8), (byte) relayPort});
+			// 保持控制连接直到客户端关闭
+			while (in.read() >= 0) {
+				// 丢弃
+			}
+		} catch (IOException ignored) {
+			// 测试结束时关闭
+		}
+	}
+
+	/**
+	 * UDP 中继：记录目标端口，原样带回 SOCKS5 头并回显查询（置 QR 位）
+	 */
+	private void relayPackets() {
+		byte[] buffer = new byte[1500];
+		while (!relay.isClosed()) {
+			try {
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				relay.receive(packet);
+				// RSV(2) FRAG(1) ATYP(1) IPv4(4) PORT(2)
+				targetPorts.add(((buffer[8] & 0xFF) << 8) | (buffer[9] & 0xFF));
+				byte[] response = new byte[packet.getLength()];
+				System.arraycopy(buffer, 0, response, 0, response.length);
+				response[12] |= (byte) 0x80;
+				relay.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private static byte[] query(int id, String label) {
+		byte[] query = new byte[12 + label.length() + 6];
+		query[0] = (byte) (id >> 8);
+		query[1] = (byte) id;
+		query[2] = 1;
+		query[5] = 1;
+		query[12] = (byte) label.length();
+		System.arraycopy(label.getBytes(), 0, query, 13, label.length());
+		query[query.length - 3] = 1;
+		query[query.length - 1] = 1;
+		return query;
+	}
+
+	private static int id(byte[] message) {
+		return ((message[0] & 0xFF) << 8) | (message[1] & 0xFF);
+	}
+}
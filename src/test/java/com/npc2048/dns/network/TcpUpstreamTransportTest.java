@@ -0,0 +1,178 @@
+package com.npc2048.dns.network;
+
+import com.npc2048.dns.model.UpstreamDnsConfig;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.util.HashedWheelTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TcpUpstreamTransportTest {
+
+	private final EventLoopGroup group = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
+	private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+	private final TcpUpstreamTransport transport = new TcpUpstreamTransport(group, timer);
+
+	@AfterEach
+	void shutdown() {
+		transport.shutdown();
+		timer.stop();
+		group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	void pipelinesQueriesAndMatchesOutOfOrderResponses() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			UpstreamDnsConfig upstream = upstream(server.getLocalPort());
+			CompletableFuture<byte[]> first = transport.exchange(upstream, query(0x0101, "aaa"), 5000);
+
+			try (Socket socket = server.accept()) {
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				List<byte[]> frames = new ArrayList<>();
+				frames.add(readFrame(in));
+				// 连接按轮询选取：中间的查询走池中另一条连接，第三个查询在第一个应答之前写到同一条连接上
+				CompletableFuture<byte[]> other = transport.exchange(upstream, query(0x0303, "ccc"), 5000);
+				CompletableFuture<byte[]> second = transport.exchange(upstream, query(0x0202, "bbb"), 5000);
+				frames.add(readFrame(in));
+				other.cancel(false);
+
+				// 倒序应答
+				writeFrame(out, asResponse(frames.get(1)));
+				writeFrame(out, asResponse(frames.get(0)));
+
+				assertEquals(0x0202, id(second.get(2, TimeUnit.SECONDS)));
+				assertEquals(0x0101, id(first.get(2, TimeUnit.SECONDS)));
+			}
+		}
+	}
+
+	@Test
+	void failsPendingQueriesWhenConnectionCloses() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			CompletableFuture<byte[]> future = transport.exchange(upstream(server.getLocalPort()), query(1, "aaa"), 5000);
+			try (Socket socket = server.accept()) {
+				readFrame(new DataInputStream(socket.getInputStream()));
+			}
+
+			assertThrows(ExecutionException.class, () -> future.get(2, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	void backsOffAfterConnectFailure() throws Exception {
+		int port;
+		try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			port = closed.getLocalPort();
+		}
+		CompletableFuture<byte[]> first = transport.exchange(upstream(port), query(1, "aaa"), 5000);
+		assertThrows(ExecutionException.class, () -> first.get(2, TimeUnit.SECONDS));
+
+		// 退避期间不再尝试建立连接，直接失败
+		CompletableFuture<byte[]> second = transport.exchange(upstream(port), query(2, "bbb"), 5000);
+		assertTrue(second.isCompletedExceptionally());
+		ExecutionException e = assertThrows(ExecutionException.class, second::get);
+		assertInstanceOf(ConnectException.class, e.getCause());
+	}
+
+	@Test
+	void tunnelsThroughHttpConnectProxy() throws Exception {
+		try (ServerSocket proxy = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			proxy.setSoTimeout(5000);
+			UpstreamDnsConfig upstream = UpstreamDnsConfig.builder()
+					.address("dns.example").port(53).protocol("TCP")
+					.useProxy(true)
+					.proxyConfig(UpstreamDnsConfig.ProxyConfig.builder()
+							.host("127.0.0.1").port(proxy.getLocalPort()).type("HTTP").build())
+					.build();
+			CompletableFuture<byte[]> future = transport.exchange(upstream, query(0x0404, "ddd"), 5000);
+
+			try (Socket socket = proxy.accept()) {
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+				// 域名交给代理解析，不在本地解析
+				assertTrue(readLine(in).startsWith("CONNECT dns.example:53 "));
+				while (!readLine(in).isEmpty()) {
+					// 跳过请求头
+				}
+				out.write("HTTP/1.1 200 Connection established\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+				writeFrame(out, asResponse(readFrame(in)));
+
+				assertEquals(0x0404, id(future.get(2, TimeUnit.SECONDS)));
+			}
+		}
+	}
+
+	private static byte[] query(int id, String label) {
+		byte[] query = new byte[12 + label.length() + 6];
+		query[0] = (byte) (id >> 8);
+		query[1] = (byte) id;
+		query[2] = 1;
+		query[5] = 1;
+		query[12] = (byte) label.length();
+		System.arraycopy(label.getBytes(), 0, query, 13, label.length());
+		query[query.length - 3] = 1;
+		query[query.length - 1] = 1;
+		return query;
+	}
+
+	private static byte[] asResponse(byte[] query) {
+		byte[] response = query.clone();
+		response[2] |= (byte) 0x80;
+		return response;
+	}
+
+	private static byte[] readFrame(DataInputStream in) throws Exception {
+		byte[] frame = new byte[in.readUnsignedShort()];
+		in.readFully(frame);
+		return frame;
+	}
+
+	private static String readLine(DataInputStream in) throws Exception {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				throw new EOFException();
+			}
+			if (b != '\r') {
+				line.append((char) b);
+			}
+		}
+		return line.toString();
+	}
+
+	private static void writeFrame(DataOutputStream out, byte[] frame) throws Exception {
+		out.writeShort(frame.length);
+		out.write(frame);
+		out.flush();
+	}
+
+	private static int id(byte[] message) {
+		return ((message[0] & 0xFF) << 8) | (message[1] & 0xFF);
+	}
+
+	private static UpstreamDnsConfig upstream(int port) {
+		return UpstreamDnsConfig.builder().address("127.0.0.1").port(port).protocol("TCP").build();
+	}
+}
@@ -0,0 +1,83 @@
+package com.npc2048.dns.network;
+
+import com.npc2048.dns.model.UpstreamDnsConfig;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.util.HashedWheelTimer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UdpUpstreamTransportTest {
+
+	private final EventLoopGroup group = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
+	private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+	private final UdpUpstreamTransport transport = new UdpUpstreamTransport(group, timer);
+
+	@AfterEach
+	void shutdown() {
+		transport.shutdown();
+		timer.stop();
+		group.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+	}
+
+	@Test
+	void failsInsteadOfHangingOnUnmatchableRequest() {
+		// 问题名称以压缩指针结尾，无法登记到待响应表，必须以异常结束而不是一直挂起
+		byte[] request = {0, 0, 1, 0, 0, 1, 0, 0, 0, 0, 0, 0, 3, 'f', 'o', 'o', (byte) 0xC0, 2, 0, 1, 0, 1};
+
+		CompletableFuture<byte[]> future = transport.exchange(upstream(53), request, 5000);
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(2, TimeUnit.SECONDS));
+		assertInstanceOf(IllegalArgumentException.class, e.getCause());
+	}
+
+	@Test
+	void exchangesOverConnectedChannel() throws Exception {
+		try (DatagramSocket server = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+			byte[] request = {0x12, 0x34, 1, 0, 0, 1, 0, 0, 0, 0, 0, 0, 3, 'f', 'o', 'o', 0, 0, 1, 0, 1};
+			CompletableFuture<byte[]> future = transport.exchange(upstream(server.getLocalPort()), request, 5000);
+
+			// 回显请求并置 QR 位，事务 ID 保持为改写后的值
+			DatagramPacket packet = new DatagramPacket(new byte[512], 512);
+			server.setSoTimeout(2000);
+			server.receive(packet);
+			byte[] response = Arrays.copyOf(packet.getData(), packet.getLength());
+			response[2] |= (byte) 0x80;
+			server.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+
+			byte[] answer = future.get(2, TimeUnit.SECONDS);
+			assertEquals(0x12, answer[0]);
+			assertEquals(0x34, answer[1]);
+			assertEquals((byte) 0x81, answer[2]);
+		}
+	}
+
+	@Test
+	void retainClosesRemovedPools() throws Exception {
+		byte[] request = {0, 1, 1, 0, 0, 1, 0, 0, 0, 0, 0, 0, 3, 'f', 'o', 'o', 0, 0, 1, 0, 1};
+		CompletableFuture<byte[]> future = transport.exchange(upstream(9), request, 5000);
+
+		transport.retain(List.of());
+
+		// 通道关闭时挂起的请求随之失败
+		assertThrows(ExecutionException.class, () -> future.get(2, TimeUnit.SECONDS));
+	}
+
+	private static UpstreamDnsConfig upstream(int port) {
+		return UpstreamDnsConfig.builder().address("127.0.0.1").port(port).build();
+	}
+}